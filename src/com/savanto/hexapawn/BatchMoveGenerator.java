@@ -0,0 +1,264 @@
+package com.savanto.hexapawn;
+
+/**
+ * @author savanto
+ *
+ * Generates the moves of whole batches of positions at once, for self-play
+ * and perft, where most of the time goes to generating moves.
+ *
+ * A batch is given as parallel arrays of primitives: the black pawns, the
+ * white pawns, and the side to move, as BLACK or WHITE. Rather than looking
+ * at pawns one by one, the pushes and both captures of all the pawns of a
+ * side are found at once, by shifting its whole bitboard one rank forward:
+ * every set bit of the result is one move. Which way to shift is selected
+ * by a mask of the side to move, not by branching, so the loops over the
+ * batch stay short and straight, for the JIT to unroll.
+ *
+ * Squares are numbered as in VariantGenerator. Only the rules without the
+ * double step compile to a batch generator, since a double step leaves an
+ * en passant square, which the batches do not carry.
+ */
+public class BatchMoveGenerator
+{
+	/**
+	 * The sides to move, in the turn arrays of a batch.
+	 */
+	public static final int BLACK = 0;
+	public static final int WHITE = 1;
+
+	private final Variant variant;
+	private final int rows, cols;
+
+	/**
+	 * The squares of the board, and of all its files but the first, or the last.
+	 */
+	private final int board, notFirstFile, notLastFile;
+
+	/**
+	 * The squares on which a black or a white pawn has won.
+	 */
+	private final int winningBlack, winningWhite;
+
+	/**
+	 * The result of a position with no moves, for the side to move.
+	 */
+	private final int blockade;
+
+	// Constructors
+
+	/**
+	 * Constructor. Compiles the rules of a variant.
+	 * @param variant - the rules, without the double step.
+	 * @param rows - the number of ranks, at least 2.
+	 * @param cols - the number of files, at least 1.
+	 */
+	BatchMoveGenerator(Variant variant, int rows, int cols)
+	{
+		if (variant.isDoubleStep())
+			throw new IllegalArgumentException("No batch generator for " + variant);
+		VariantGenerator generator = variant.compile(rows, cols);
+		this.variant = variant;
+		this.rows = rows;
+		this.cols = cols;
+
+		int board = 0, first = 0, last = 0;
+		for (int row = 0; row < rows; row++)
+		{
+			first |= generator.square(row, 0);
+			last |= generator.square(row, cols - 1);
+			for (int col = 0; col < cols; col++)
+				board |= generator.square(row, col);
+		}
+		this.board = board;
+		this.notFirstFile = board & ~first;
+		this.notLastFile = board & ~last;
+
+		// The ranks counted from each side's home rank, up to the winning rank.
+		int winRank = variant.getWinRank(rows), winningBlack = 0, winningWhite = 0;
+		for (int rank = winRank; rank <= rows; rank++)
+		{
+			for (int col = 0; col < cols; col++)
+			{
+				winningBlack |= generator.square(rank - 1, col);
+				winningWhite |= generator.square(rows - rank, col);
+			}
+		}
+		this.winningBlack = winningBlack;
+		this.winningWhite = winningWhite;
+		this.blockade = variant.isBlockadeDraw() ? VariantGenerator.DRAW : VariantGenerator.LOSS;
+	}
+
+	// Accessors
+
+	public Variant getVariant()
+	{
+		return this.variant;
+	}
+
+	public int getRows()
+	{
+		return this.rows;
+	}
+
+	public int getCols()
+	{
+		return this.cols;
+	}
+
+	/**
+	 * Gets the most moves any position may have.
+	 * @return the number of moves, ie. a push and two captures for each file.
+	 */
+	public int getMaxMoves()
+	{
+		return this.cols * 3;
+	}
+
+	/**
+	 * Counts the moves of a batch of positions.
+	 * @param black - the black pawns of each position.
+	 * @param white - the white pawns of each position.
+	 * @param turn - the side to move in each position, BLACK or WHITE.
+	 * @param n - the number of positions.
+	 * @param counts - filled with the number of moves of each position, 0 if the game is over.
+	 */
+	public void countMoves(int[] black, int[] white, int[] turn, int n, int[] counts)
+	{
+		for (int i = 0; i < n; i++)
+		{
+			int b = black[i], w = white[i];
+			int count = this.countMoves(b, w, -turn[i]);
+			counts[i] = this.isOver(b, w) ? 0 : count;
+		}
+	}
+
+	/**
+	 * Judges a batch of positions before moving.
+	 * @param black - the black pawns of each position.
+	 * @param white - the white pawns of each position.
+	 * @param turn - the side to move in each position, BLACK or WHITE.
+	 * @param n - the number of positions.
+	 * @param results - filled with the result of each position, for the side to move,
+	 * 				as VariantGenerator.LOSS or DRAW if the game is over, or else ONGOING.
+	 */
+	public void classify(int[] black, int[] white, int[] turn, int n, int[] results)
+	{
+		for (int i = 0; i < n; i++)
+		{
+			int b = black[i], w = white[i];
+			int result = this.countMoves(b, w, -turn[i]) == 0 ? this.blockade : VariantGenerator.ONGOING;
+			results[i] = this.isOver(b, w) ? VariantGenerator.LOSS : result;
+		}
+	}
+
+	/**
+	 * Generates the positions after every move of a batch of positions.
+	 * @param black - the black pawns of each position.
+	 * @param white - the white pawns of each position.
+	 * @param turn - the side to move in each position, BLACK or WHITE.
+	 * @param n - the number of positions.
+	 * @param childBlack - filled with the black pawns after each move,
+	 * 				at least n * getMaxMoves() ints, unless fewer moves are known to fit.
+	 * @param childWhite - filled with the white pawns after each move.
+	 * @param childTurn - filled with the side to move after each move.
+	 * @param parent - filled with the index in the batch of the position before each move.
+	 * @return the number of moves generated, the children of each position being consecutive.
+	 */
+	public int expand(int[] black, int[] white, int[] turn, int n,
+			int[] childBlack, int[] childWhite, int[] childTurn, int[] parent)
+	{
+		int cols = this.cols, children = 0;
+		for (int i = 0; i < n; i++)
+		{
+			int b = black[i], w = white[i];
+			if (this.isOver(b, w))
+				continue;
+
+			// All ones if WHITE is to move, ie. moving up by shifting left.
+			int up = -turn[i];
+			int us = (w & up) | (b & ~up), them = (b & up) | (w & ~up);
+			int next = 1 - turn[i];
+
+			// The shifts back from the targets of each kind of move to the pawns, for the side to move.
+			int ahead = up == 0 ? cols - 1 : cols + 1, behind = up == 0 ? cols + 1 : cols - 1;
+			children = this.emit(this.push(us, them, up), cols, up, us, them, i, next, children,
+					childBlack, childWhite, childTurn, parent);
+			children = this.emit(this.captureFirst(us, them, up), ahead, up, us, them, i, next, children,
+					childBlack, childWhite, childTurn, parent);
+			children = this.emit(this.captureLast(us, them, up), behind, up, us, them, i, next, children,
+					childBlack, childWhite, childTurn, parent);
+		}
+		return children;
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Adds the positions after the moves of one kind to the children of a batch.
+	 * @param targets - the squares reached by the moves.
+	 * @param back - the shift back from each target to the pawn moving there.
+	 * @param up - all ones if WHITE is to move, 0 if BLACK.
+	 * @return the index following the children added.
+	 */
+	private int emit(int targets, int back, int up, int us, int them, int i, int next, int children,
+			int[] childBlack, int[] childWhite, int[] childTurn, int[] parent)
+	{
+		for (; targets != 0; targets &= targets - 1, children++)
+		{
+			int to = targets & -targets;
+			int from = ((to >>> back) & up) | ((to << back) & ~up);
+			int moved = us ^ from | to, left = them & ~to;
+			childBlack[children] = (left & up) | (moved & ~up);
+			childWhite[children] = (moved & up) | (left & ~up);
+			childTurn[children] = next;
+			parent[children] = i;
+		}
+		return children;
+	}
+
+	/**
+	 * Counts the moves of a position, whether or not the game is over.
+	 * @param up - all ones if WHITE is to move, 0 if BLACK.
+	 */
+	private int countMoves(int black, int white, int up)
+	{
+		int us = (white & up) | (black & ~up), them = (black & up) | (white & ~up);
+		return Integer.bitCount(this.push(us, them, up)) + Integer.bitCount(this.captureFirst(us, them, up))
+				+ Integer.bitCount(this.captureLast(us, them, up));
+	}
+
+	/**
+	 * Finds the squares reached by pushing each pawn one rank forward, onto an empty square.
+	 */
+	private int push(int us, int them, int up)
+	{
+		int cols = this.cols;
+		return (((us << cols) & up) | ((us >>> cols) & ~up)) & this.board & ~(us | them);
+	}
+
+	/**
+	 * Finds the squares reached by capturing towards the first file, ie. one bit up.
+	 */
+	private int captureFirst(int us, int them, int up)
+	{
+		int cols = this.cols, pawns = us & this.notFirstFile;
+		return (((pawns << (cols + 1)) & up) | ((pawns >>> (cols - 1)) & ~up)) & them;
+	}
+
+	/**
+	 * Finds the squares reached by capturing towards the last file, ie. one bit down.
+	 */
+	private int captureLast(int us, int them, int up)
+	{
+		int cols = this.cols, pawns = us & this.notLastFile;
+		return (((pawns << (cols - 1)) & up) | ((pawns >>> (cols + 1)) & ~up)) & them;
+	}
+
+	/**
+	 * Checks for the end of the game before moving, as in VariantGenerator.
+	 */
+	private boolean isOver(int black, int white)
+	{
+		return (black == 0) | (white == 0) | ((black & this.winningBlack) | (white & this.winningWhite)) != 0;
+	}
+}
@@ -0,0 +1,171 @@
+package com.savanto.hexapawn;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * @author savanto
+ *
+ * Cache of images decoded at the exact size they are drawn at, eg. the pawns
+ * at the size of a board square. Each image is decoded once per size, sampled
+ * down as far as possible while decoding, and shared by every view drawing it,
+ * across games and configuration changes. Only the most recently used sizes
+ * are kept, and the cache is emptied when the system runs low on memory.
+ *
+ * Decode times are measured as the DECODE metric, and the memory held
+ * by the cache as the BITMAP_BYTES gauge.
+ */
+public class BitmapCache
+{
+	/**
+	 * The number of images kept, eg. both pawns at two board sizes.
+	 */
+	private static final int CAPACITY = 4;
+
+	/**
+	 * The cache shared by the whole application.
+	 */
+	private static final BitmapCache instance = new BitmapCache();
+
+	/**
+	 * The images, keyed by resource id and size, least recently used first.
+	 */
+	private final LinkedHashMap<Long, Bitmap> bitmaps = new LinkedHashMap<Long, Bitmap>(CAPACITY * 2, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Bitmap> eldest)
+		{
+			return this.size() > BitmapCache.CAPACITY;
+		}
+	};
+
+	/**
+	 * The size of the last image requested, which is kept on a mild trim.
+	 */
+	private int currentSize;
+
+	// Accessors
+
+	public static BitmapCache getInstance()
+	{
+		return BitmapCache.instance;
+	}
+
+	/**
+	 * Gets an image at a given size, decoding it if it is not cached.
+	 * @param res - the resources holding the image.
+	 * @param resId - the resource id of the image.
+	 * @param size - the width and height to draw the image at, in pixels.
+	 * @return the image, exactly size by size pixels.
+	 */
+	public synchronized Bitmap get(Resources res, int resId, int size)
+	{
+		this.currentSize = size;
+		Long key = BitmapCache.key(resId, size);
+		Bitmap bitmap = this.bitmaps.get(key);
+		if (bitmap == null)
+		{
+			bitmap = BitmapCache.decode(res, resId, size);
+			this.bitmaps.put(key, bitmap);
+			Metrics.gauge(Metrics.BITMAP_BYTES, this.getByteCount());
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Measures the memory held by the cached images.
+	 * @return the size of the cached pixels, in bytes.
+	 */
+	public synchronized long getByteCount()
+	{
+		long bytes = 0;
+		for (Bitmap bitmap : this.bitmaps.values())
+			bytes += bitmap.getRowBytes() * bitmap.getHeight();
+		return bytes;
+	}
+
+	// Modifiers
+
+	/**
+	 * Releases images in response to memory pressure. The images are not
+	 * recycled, as views may still be drawing them, but left to the garbage
+	 * collector once the views let go of them too.
+	 * @param level - the level passed to onTrimMemory(), see ComponentCallbacks2.
+	 */
+	public synchronized void trim(int level)
+	{
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+			this.bitmaps.clear();
+		else
+		{
+			// Keep the images at the size being drawn.
+			Iterator<Long> keys = this.bitmaps.keySet().iterator();
+			while (keys.hasNext())
+			{
+				if ((int) (keys.next().longValue() & 0xffffffffL) != this.currentSize)
+					keys.remove();
+			}
+		}
+		Metrics.gauge(Metrics.BITMAP_BYTES, this.getByteCount());
+	}
+
+	/**
+	 * Releases all images, eg. on onLowMemory().
+	 */
+	public void clear()
+	{
+		this.trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+	}
+
+	// Internal helper functions
+
+	private static Long key(int resId, int size)
+	{
+		return Long.valueOf(((long) resId << 32) | size);
+	}
+
+	/**
+	 * Decodes an image at a given size. The image is sampled down while decoding,
+	 * to the smallest power of two fraction still at least the size, and then
+	 * scaled the rest of the way.
+	 * @param res - the resources holding the image.
+	 * @param resId - the resource id of the image.
+	 * @param size - the width and height of the image, in pixels.
+	 * @return the decoded image.
+	 */
+	private static Bitmap decode(Resources res, int resId, int size)
+	{
+		long start = Metrics.start(), allocations = Metrics.allocations();
+
+		// Read the dimensions only, as stored, without scaling for the screen density.
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		options.inScaled = false;
+		BitmapFactory.decodeResource(res, resId, options);
+
+		int sampleSize = 1;
+		while (options.outWidth / (sampleSize * 2) >= size && options.outHeight / (sampleSize * 2) >= size)
+			sampleSize *= 2;
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+		Bitmap bitmap = BitmapFactory.decodeResource(res, resId, options);
+
+		if (bitmap.getWidth() != size || bitmap.getHeight() != size)
+		{
+			Bitmap scaled = Bitmap.createScaledBitmap(bitmap, size, size, true);
+			if (scaled != bitmap)
+				bitmap.recycle();
+			bitmap = scaled;
+		}
+		Metrics.stop(Metrics.DECODE, start, allocations);
+		return bitmap;
+	}
+}
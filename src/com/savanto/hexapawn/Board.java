@@ -169,8 +169,20 @@ public class Board
 		return rank >> 3;
 	}
 
+	/**
+	 * Calculates the mask of a single square, as used in the bitboards
+	 * @param row - the row of the square, 0 being RANK_3
+	 * @param col - the column of the square, 0 being FILE_A
+	 * @return the mask of the square on the Board
+	 */
+	public static int square(int row, int col)
+	{
+		return 1 << ((Board.SIZE - 1 - row) * Board.SIZE + Board.SIZE - 1 - col);
+	}
+
 	public Move getMove(Board child)
 	{
+		long start = Metrics.start(), allocations = Metrics.allocations();
 		// Determine the move, and hence which color will be checked for moves.
 		int sourceRank, destRank, sourceRow = 0, sourceCol = 0, destRow = 0, destCol = 0, diff;	// seekers
 		switch (this.turn)
@@ -223,13 +235,15 @@ public class Board
 					{
 						if ((diff & sourceRank & file) != 0)
 							sourceCol = col;
-						else if ((diff & destRank & file) != 0)
+						if ((diff & destRank & file) != 0)
 							destCol = col;
 					}
 
 					break;
 		}
-		return new Move(sourceRow, sourceCol, destRow, destCol);
+		Move move = new Move(sourceRow, sourceCol, destRow, destCol);
+		Metrics.stop(Metrics.MOVE, start, allocations);
+		return move;
 	}
 
 	/**
@@ -239,10 +253,11 @@ public class Board
 	 */
 	public Board pickBoard(Random rng)
 	{
+		long start = Metrics.start(), allocations = Metrics.allocations();
 		int n = this.children.size();
-		if (n == 0)
-			return null;
-		return this.children.get(rng.nextInt(n));
+		Board child = n == 0 ? null : this.children.get(rng.nextInt(n));
+		Metrics.stop(Metrics.PICK, start, allocations);
+		return child;
 	}
 
 	public ArrayList<Board> getChildren()
@@ -258,15 +273,18 @@ public class Board
 	 */
 	public Board getLegal(Board test)
 	{
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		Board legal = null;
 		// Traverse child boards array
-		for (int i = 0; i < this.children.size(); i++)
+		for (int i = 0; i < this.children.size() && legal == null; i++)
 		{
 			Board child = this.children.get(i);
 			if (child.equals(test))
-				return child;
+				legal = child;
 		}
-		// Matching child Board not found
-		return null;
+		// null if matching child Board not found
+		Metrics.stop(Metrics.LEGAL, start, allocations);
+		return legal;
 	}
 
 	public int getBlack()
@@ -323,6 +341,21 @@ public class Board
 	 * and their children. Used to create all possible moves for the first time.
 	 */
 	public void generate()
+	{
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		this.expand();
+		Metrics.stop(Metrics.GENERATE, start, allocations);
+		if (Metrics.isEnabled())
+		{
+			Metrics.gauge(Metrics.POSITIONS, this.countBoards());
+			Metrics.gauge(Metrics.DEPTH, this.getDepth());
+		}
+	}
+
+	/**
+	 * Generates the children moves of this Board, and recursively their children.
+	 */
+	private void expand()
 	{
 		// Check for the first two victory conditions: one side eliminated,
 		// or one side has reached the home rank of the other.
@@ -363,7 +396,7 @@ public class Board
 								Board child = new Board(this.black ^ pawn | move, this.white, Color.WHITE);
 								this.children.add(child);
 								// Generate the child's children moves
-								child.generate();
+								child.expand();
 							}
 
 							// Capture moves.
@@ -383,7 +416,7 @@ public class Board
 									Board child = new Board(this.black ^ pawn | move, this.white ^ move, Color.WHITE);
 									this.children.add(child);
 									// Generate the child's children moves
-									child.generate();									
+									child.expand();									
 								}
 							}
 							if (file != FILE_C)
@@ -398,7 +431,7 @@ public class Board
 									Board child = new Board(this.black ^ pawn | move, this.white ^ move, Color.WHITE);
 									this.children.add(child);
 									// Generate the child's children moves
-									child.generate();									
+									child.expand();									
 								}
 							}
 						}
@@ -431,7 +464,7 @@ public class Board
 								Board child = new Board(this.black, this.white ^ pawn | move, Color.BLACK);
 								this.children.add(child);
 								// Generate the child's children moves
-								child.generate();
+								child.expand();
 							}
 
 							// Capture moves.
@@ -451,7 +484,7 @@ public class Board
 									Board child = new Board(this.black ^ move, this.white ^ pawn | move, Color.BLACK);
 									this.children.add(child);
 									// Generate the child's children moves
-									child.generate();									
+									child.expand();									
 								}
 							}
 							if (file != FILE_C)
@@ -466,7 +499,7 @@ public class Board
 									Board child = new Board(this.black ^ move, this.white ^ pawn | move, Color.BLACK);
 									this.children.add(child);
 									// Generate the child's children moves
-									child.generate();									
+									child.expand();									
 								}
 							}
 						}
@@ -500,6 +533,30 @@ public class Board
 
 	// Internal helper functions
 
+	/**
+	 * Counts the Boards in the moves tree below this Board.
+	 * @return number of Boards, including this one.
+	 */
+	private int countBoards()
+	{
+		int count = 1;
+		for (int i = 0; i < this.children.size(); i++)
+			count += this.children.get(i).countBoards();
+		return count;
+	}
+
+	/**
+	 * Measures the depth of the moves tree below this Board.
+	 * @return the number of moves in the longest game from this Board.
+	 */
+	private int getDepth()
+	{
+		int depth = 0;
+		for (int i = 0; i < this.children.size(); i++)
+			depth = Math.max(depth, this.children.get(i).getDepth() + 1);
+		return depth;
+	}
+
 	/**
 	 * Checks for victory conditions on this Board.
 	 * @return true if this is a victory Board for one of the sides.
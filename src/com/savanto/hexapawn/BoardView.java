@@ -0,0 +1,642 @@
+package com.savanto.hexapawn;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.WindowManager;
+
+/**
+ * @author savanto
+ *
+ * A single view drawing the whole board: the squares, and the pawns
+ * straight from the bitboards of a position. The pawn bitmaps come from the
+ * BitmapCache, at the square size, whenever the view changes size, so drawing
+ * a frame allocates nothing. Touches are mapped to squares by arithmetic.
+ *
+ * The player moves a pawn by dragging it. The pawn is drawn above the
+ * finger, so that it stays visible, and is dropped on the square under
+ * its center. The OnMoveListener decides whether the move is made.
+ * A drag never changes the layout: each touch only invalidates the squares
+ * the pawn left and entered, and only those are redrawn.
+ *
+ * Moves made elsewhere, eg. by the computer, are animated: the pawn glides
+ * to its destination and a captured pawn fades out, frame by frame, on the
+ * Choreographer's vsync from Jelly Bean on, or on a frame timer before.
+ * The same animation state is reused for every move.
+ *
+ * While metrics are enabled, each frame drawn is timed, and from Jelly Bean
+ * on, the frame intervals during a drag are measured and dropped frames counted.
+ */
+public class BoardView extends View
+{
+	/**
+	 * Receives the moves the player makes on the board.
+	 */
+	public interface OnMoveListener
+	{
+		/**
+		 * Called when the player drops a pawn. The destination may lie off the board.
+		 * @param sourceRow - row the pawn was picked up from.
+		 * @param sourceCol - column the pawn was picked up from.
+		 * @param destRow - row the pawn was dropped on.
+		 * @param destCol - column the pawn was dropped on.
+		 * @return true if the move was made, false to return the pawn to its square.
+		 */
+		public boolean onMove(int sourceRow, int sourceCol, int destRow, int destCol);
+
+		/**
+		 * Called when an animated move has been shown, and the board shows its new position.
+		 */
+		public void onMoveShown();
+	}
+
+	/**
+	 * Colors of the squares.
+	 */
+	private static final int LIGHT_SQUARE = 0xffffffff;
+	private static final int DARK_SQUARE = 0xff000000;
+
+	/**
+	 * Duration of a move animation, and the time between frames
+	 * where vsync is not available, in ms.
+	 */
+	private static final long MOVE_DURATION = 250;
+	private static final long FRAME_DELAY = 16;
+
+	/**
+	 * The number of rows and columns of the board.
+	 */
+	private final int dimension = Board.SIZE;
+
+	/**
+	 * The bitboards of the position shown.
+	 */
+	private int black, white;
+
+	/**
+	 * The size of each square, in pixels.
+	 */
+	private int squareSize;
+
+	/**
+	 * The pawn images at the square size, or null until needed.
+	 */
+	private Bitmap blackPawn, whitePawn;
+
+	private final Paint lightPaint = new Paint();
+	private final Paint darkPaint = new Paint();
+	private final Paint pawnPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+	private final Paint capturePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+	/**
+	 * The pawn being dragged, the square it was picked up from,
+	 * or -1 if none, and the last touch coordinates, in pixels.
+	 */
+	private Bitmap dragPawn;
+	private int dragRow = -1, dragCol = -1;
+	private int dragX, dragY;
+
+	private OnMoveListener listener;
+
+	/**
+	 * The area to be redrawn, reused by every frame.
+	 */
+	private final Rect clip = new Rect();
+
+	/**
+	 * Measures frames while dragging, or null if not measuring.
+	 */
+	private FrameMonitor frameMonitor;
+
+	/**
+	 * The move being animated: its squares, the position shown once it is
+	 * done, the time it starts, in ns on the System.nanoTime() clock, and
+	 * the current coordinates of the moving pawn, in pixels.
+	 * animSourceRow is -1 if no move is being animated.
+	 */
+	private int animSourceRow = -1, animSourceCol, animDestRow, animDestCol;
+	private int animBlack, animWhite;
+	private long animStart;
+	private int animX, animY;
+
+	/**
+	 * Delivers animation frames: a vsync callback from Jelly Bean on,
+	 * or a timer before. Created once, and reused for every move.
+	 */
+	private FrameTicker frameTicker;
+	private final Runnable frameTimer = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			BoardView.this.onAnimationFrame(System.nanoTime());
+		}
+	};
+
+	// Constructors
+
+	public BoardView(Context context)
+	{
+		super(context);
+		this.init();
+	}
+
+	/**
+	 * Constructor to inflate the view from xml.
+	 * @param context
+	 * @param attrs
+	 */
+	public BoardView(Context context, AttributeSet attrs)
+	{
+		super(context, attrs);
+		this.init();
+	}
+
+	// Accessors
+
+	public int getBlack()
+	{
+		return this.black;
+	}
+
+	public int getWhite()
+	{
+		return this.white;
+	}
+
+	/**
+	 * Gets the size of the squares.
+	 * @return the size of each square, in pixels.
+	 */
+	public int getSquareSize()
+	{
+		return this.squareSize;
+	}
+
+	// Modifiers
+
+	public void setOnMoveListener(OnMoveListener listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * Shows a position, dropping any pawn being dragged, and cutting short any move being animated.
+	 * @param black - the bitboard of the BLACK pawns.
+	 * @param white - the bitboard of the WHITE pawns.
+	 */
+	public void setPosition(int black, int white)
+	{
+		if (this.dragPawn != null)
+			this.endDrag();
+		this.stopAnimation();
+		this.black = black;
+		this.white = white;
+		this.invalidate();
+	}
+
+	/**
+	 * Animates a move from the position shown. The pawn glides from the source to
+	 * the destination, fading out any pawn it captures, after which the board
+	 * shows the new position and the OnMoveListener is told. The player cannot
+	 * pick up a pawn until then.
+	 * @param sourceRow - row of the pawn moved.
+	 * @param sourceCol - column of the pawn moved.
+	 * @param destRow - row the pawn moves to.
+	 * @param destCol - column the pawn moves to.
+	 * @param black - the bitboard of the BLACK pawns after the move.
+	 * @param white - the bitboard of the WHITE pawns after the move.
+	 * @param delay - the time to hold the position before the move starts, in ms.
+	 */
+	public void animateMove(int sourceRow, int sourceCol, int destRow, int destCol, int black, int white, long delay)
+	{
+		if (this.dragPawn != null)
+			this.endDrag();
+		this.stopAnimation();
+		this.animSourceRow = sourceRow;
+		this.animSourceCol = sourceCol;
+		this.animDestRow = destRow;
+		this.animDestCol = destCol;
+		this.animBlack = black;
+		this.animWhite = white;
+		this.animStart = System.nanoTime() + delay * 1000000L;
+		this.animX = sourceCol * this.squareSize;
+		this.animY = sourceRow * this.squareSize;
+		this.capturePaint.setAlpha(255);
+		this.scheduleFrame();
+	}
+
+	/**
+	 * Lets go of the pawn images, eg. when the system runs low on memory.
+	 * They are fetched again the next time the board is drawn.
+	 */
+	public void releaseBitmaps()
+	{
+		this.blackPawn = null;
+		this.whitePawn = null;
+		if (this.dragPawn != null)
+			this.endDrag();
+	}
+
+	/**
+	 * Stops measuring frames and animating once the view is gone.
+	 */
+	@Override
+	protected void onDetachedFromWindow()
+	{
+		super.onDetachedFromWindow();
+		if (this.frameMonitor != null)
+			this.frameMonitor.stop();
+		this.stopAnimation();
+	}
+
+	/**
+	 * Keeps the board square, taking up as much of the space given as it can.
+	 */
+	@Override
+	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
+	{
+		int size = Math.min(MeasureSpec.getSize(widthMeasureSpec), MeasureSpec.getSize(heightMeasureSpec));
+		this.setMeasuredDimension(size, size);
+	}
+
+	/**
+	 * Fetches the pawn images at the new square size.
+	 */
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh)
+	{
+		super.onSizeChanged(w, h, oldw, oldh);
+		this.squareSize = Math.min(w, h) / this.dimension;
+		if (this.squareSize > 0)
+			this.loadBitmaps();
+	}
+
+	/**
+	 * Draws the squares, the pawns in their squares, and the pawn being dragged on top.
+	 */
+	@Override
+	protected void onDraw(Canvas canvas)
+	{
+		int size = this.squareSize;
+		if (size == 0 || ! canvas.getClipBounds(this.clip))
+			return;
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		if (this.blackPawn == null)
+			this.loadBitmaps();
+
+		// Only draw the squares in need of it.
+		int firstRow = this.clip.top / size, lastRow = Math.min((this.clip.bottom - 1) / size, this.dimension - 1);
+		int firstCol = this.clip.left / size, lastCol = Math.min((this.clip.right - 1) / size, this.dimension - 1);
+		for (int row = firstRow, top = row * size; row <= lastRow; row++, top += size)
+		{
+			for (int col = firstCol, left = col * size; col <= lastCol; col++, left += size)
+			{
+				canvas.drawRect(left, top, left + size, top + size,
+						((row + col) & 1) == 0 ? this.lightPaint : this.darkPaint);
+				if (row == this.dragRow && col == this.dragCol
+						|| row == this.animSourceRow && col == this.animSourceCol)
+					continue;
+				Bitmap pawn = this.getPawn(row, col);
+				if (pawn != null)
+				{
+					boolean captured = row == this.animDestRow && col == this.animDestCol && this.animSourceRow >= 0;
+					canvas.drawBitmap(pawn, left, top, captured ? this.capturePaint : this.pawnPaint);
+				}
+			}
+		}
+
+		if (this.animSourceRow >= 0)
+		{
+			Bitmap pawn = this.getPawn(this.animSourceRow, this.animSourceCol);
+			if (pawn != null)
+				canvas.drawBitmap(pawn, this.animX, this.animY, this.pawnPaint);
+		}
+
+		if (this.dragPawn != null)
+			canvas.drawBitmap(this.dragPawn, this.dragX - size / 2, this.dragY - size, this.pawnPaint);
+		Metrics.stop(Metrics.DRAW, start, allocations);
+	}
+
+	/**
+	 * Picks up, drags and drops pawns.
+	 */
+	@Override
+	public boolean onTouchEvent(MotionEvent event)
+	{
+		int size = this.squareSize;
+		if (size == 0)
+			return false;
+
+		int x = (int) event.getX(), y = (int) event.getY();
+		switch (event.getAction())
+		{
+			// Pick up the pawn under the finger, if any.
+			case MotionEvent.ACTION_DOWN:
+				if (this.animSourceRow >= 0)
+					return false;
+				int row = y / size, col = x / size;
+				Bitmap pawn = row < this.dimension && col < this.dimension ? this.getPawn(row, col) : null;
+				if (pawn == null)
+					return false;
+				this.dragPawn = pawn;
+				this.dragRow = row;
+				this.dragCol = col;
+				this.dragX = x;
+				this.dragY = y;
+				this.invalidateSquare(row, col);
+				this.invalidateDrag();
+				if (this.frameMonitor != null)
+					this.frameMonitor.start();
+				return true;
+
+			// Follow the finger.
+			case MotionEvent.ACTION_MOVE:
+				if (this.dragPawn == null)
+					return false;
+				this.invalidateDrag();
+				this.dragX = x;
+				this.dragY = y;
+				this.invalidateDrag();
+				return true;
+
+			// Drop the pawn on the square under its center.
+			case MotionEvent.ACTION_UP:
+				if (this.dragPawn == null)
+					return false;
+				int sourceRow = this.dragRow, sourceCol = this.dragCol;
+				int centerY = y - size / 2;
+				int destRow = centerY < 0 ? -1 : centerY / size, destCol = x < 0 ? -1 : x / size;
+				this.endDrag();
+				if (this.listener != null)
+					this.listener.onMove(sourceRow, sourceCol, destRow, destCol);
+				return true;
+
+			// Return the pawn to its square.
+			case MotionEvent.ACTION_CANCEL:
+				if (this.dragPawn != null)
+					this.endDrag();
+				return true;
+		}
+		return false;
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Sets up the paints, the animation frames, and the frame measurements if enabled.
+	 */
+	private void init()
+	{
+		this.lightPaint.setColor(BoardView.LIGHT_SQUARE);
+		this.darkPaint.setColor(BoardView.DARK_SQUARE);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+			this.frameTicker = new FrameTicker(this);
+
+		if (Metrics.isEnabled() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+		{
+			WindowManager windowManager = (WindowManager) this.getContext().getSystemService(Context.WINDOW_SERVICE);
+			this.frameMonitor = new FrameMonitor(windowManager.getDefaultDisplay().getRefreshRate());
+		}
+	}
+
+	/**
+	 * Advances the move being animated to the time of a frame.
+	 * @param frameTime - the time of the frame, in ns on the System.nanoTime() clock.
+	 */
+	private void onAnimationFrame(long frameTime)
+	{
+		if (this.animSourceRow < 0)
+			return;
+
+		// Hold the position until the move starts.
+		long elapsed = frameTime - this.animStart;
+		if (elapsed < 0)
+		{
+			this.scheduleFrame();
+			return;
+		}
+
+		int size = this.squareSize;
+		this.invalidate(this.animX, this.animY, this.animX + size, this.animY + size);
+		if (elapsed >= BoardView.MOVE_DURATION * 1000000L)
+		{
+			// Done: show the new position.
+			this.invalidateSquare(this.animSourceRow, this.animSourceCol);
+			this.invalidateSquare(this.animDestRow, this.animDestCol);
+			this.animSourceRow = -1;
+			this.black = this.animBlack;
+			this.white = this.animWhite;
+			if (this.listener != null)
+				this.listener.onMoveShown();
+			return;
+		}
+
+		// Accelerate, then decelerate into the destination, while any captured pawn fades out.
+		float fraction = (float) elapsed / (BoardView.MOVE_DURATION * 1000000L);
+		float eased = (float) (Math.cos((fraction + 1) * Math.PI) / 2) + 0.5f;
+		this.animX = Math.round((this.animSourceCol + (this.animDestCol - this.animSourceCol) * eased) * size);
+		this.animY = Math.round((this.animSourceRow + (this.animDestRow - this.animSourceRow) * eased) * size);
+		this.capturePaint.setAlpha(Math.round(255 * (1 - fraction)));
+		this.invalidate(this.animX, this.animY, this.animX + size, this.animY + size);
+		this.invalidateSquare(this.animDestRow, this.animDestCol);
+		this.scheduleFrame();
+	}
+
+	/**
+	 * Asks for the next animation frame.
+	 */
+	private void scheduleFrame()
+	{
+		if (this.frameTicker != null)
+			this.frameTicker.post();
+		else
+			this.postDelayed(this.frameTimer, BoardView.FRAME_DELAY);
+	}
+
+	/**
+	 * Cuts short the move being animated, leaving the position as it was before the move.
+	 */
+	private void stopAnimation()
+	{
+		if (this.animSourceRow < 0)
+			return;
+		this.animSourceRow = -1;
+		if (this.frameTicker != null)
+			this.frameTicker.cancel();
+		else
+			this.removeCallbacks(this.frameTimer);
+		this.invalidate();
+	}
+
+	/**
+	 * Fetches the pawn images at the square size, from the cache shared by all boards.
+	 */
+	private void loadBitmaps()
+	{
+		BitmapCache cache = BitmapCache.getInstance();
+		this.blackPawn = cache.get(this.getResources(), R.drawable.black_pawn, this.squareSize);
+		this.whitePawn = cache.get(this.getResources(), R.drawable.white_pawn, this.squareSize);
+	}
+
+	/**
+	 * Puts the dragged pawn back on its square, and stops measuring frames.
+	 */
+	private void endDrag()
+	{
+		this.invalidateSquare(this.dragRow, this.dragCol);
+		this.invalidateDrag();
+		this.dragPawn = null;
+		this.dragRow = -1;
+		this.dragCol = -1;
+		if (this.frameMonitor != null)
+			this.frameMonitor.stop();
+	}
+
+	/**
+	 * Marks a square to be redrawn.
+	 * @param row - the row of the square.
+	 * @param col - the column of the square.
+	 */
+	private void invalidateSquare(int row, int col)
+	{
+		int size = this.squareSize;
+		this.invalidate(col * size, row * size, (col + 1) * size, (row + 1) * size);
+	}
+
+	/**
+	 * Marks the area under the dragged pawn to be redrawn.
+	 */
+	private void invalidateDrag()
+	{
+		int left = this.dragX - this.squareSize / 2, top = this.dragY - this.squareSize;
+		this.invalidate(left, top, left + this.squareSize, top + this.squareSize);
+	}
+
+	/**
+	 * Gets the image of the pawn on a square.
+	 * @param row - the row of the square.
+	 * @param col - the column of the square.
+	 * @return the scaled pawn image, or null if the square is empty.
+	 */
+	private Bitmap getPawn(int row, int col)
+	{
+		int square = Board.square(row, col);
+		if ((this.black & square) != 0)
+			return this.blackPawn;
+		if ((this.white & square) != 0)
+			return this.whitePawn;
+		return null;
+	}
+
+	/**
+	 * Delivers animation frames on vsync, with the Choreographer, which is only
+	 * available from Jelly Bean on. Kept in its own class, so that older versions never load it.
+	 */
+	private static class FrameTicker implements Choreographer.FrameCallback
+	{
+		private final BoardView view;
+
+		public FrameTicker(BoardView view)
+		{
+			this.view = view;
+		}
+
+		public void post()
+		{
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+
+		public void cancel()
+		{
+			Choreographer.getInstance().removeFrameCallback(this);
+		}
+
+		/* (non-Javadoc)
+		 * @see android.view.Choreographer.FrameCallback#doFrame(long)
+		 */
+		@Override
+		public void doFrame(long frameTimeNanos)
+		{
+			this.view.onAnimationFrame(frameTimeNanos);
+		}
+	}
+
+	/**
+	 * Measures the intervals between frames while a pawn is dragged, and counts
+	 * the frames dropped, with the Choreographer. Only created on Jelly Bean and later, as FrameTicker.
+	 */
+	private static class FrameMonitor implements Choreographer.FrameCallback
+	{
+		/**
+		 * Frames dropped so far, over all drags.
+		 */
+		private static long dropped;
+
+		/**
+		 * The time between frames at the refresh rate of the display, in ns.
+		 */
+		private final long frameInterval;
+
+		/**
+		 * The time of the last frame, or 0 at the start of a drag.
+		 */
+		private long lastFrame;
+		private boolean running;
+
+		/**
+		 * Constructor.
+		 * @param refreshRate - the refresh rate of the display, in frames per second.
+		 */
+		public FrameMonitor(float refreshRate)
+		{
+			this.frameInterval = (long) (1000000000L / refreshRate);
+		}
+
+		public void start()
+		{
+			if (this.running)
+				return;
+			this.running = true;
+			this.lastFrame = 0;
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+
+		public void stop()
+		{
+			this.running = false;
+			Choreographer.getInstance().removeFrameCallback(this);
+		}
+
+		/* (non-Javadoc)
+		 * @see android.view.Choreographer.FrameCallback#doFrame(long)
+		 */
+		@Override
+		public void doFrame(long frameTimeNanos)
+		{
+			if (! this.running)
+				return;
+			if (this.lastFrame != 0)
+			{
+				long interval = frameTimeNanos - this.lastFrame;
+				Metrics.record(Metrics.FRAME, interval);
+				// Every whole frame interval skipped is a dropped frame, rounding off jitter.
+				long missed = (interval + this.frameInterval / 2) / this.frameInterval - 1;
+				if (missed > 0)
+				{
+					FrameMonitor.dropped += missed;
+					Metrics.gauge(Metrics.DROPPED_FRAMES, FrameMonitor.dropped);
+				}
+			}
+			this.lastFrame = frameTimeNanos;
+			Choreographer.getInstance().postFrameCallback(this);
+		}
+	}
+}
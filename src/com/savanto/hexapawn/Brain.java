@@ -0,0 +1,458 @@
+package com.savanto.hexapawn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * @author savanto
+ *
+ * One AI profile: the learning of a computer player, kept as an overlay on
+ * the shared, immutable GameGraph. The overlay is a bitset with one 'active'
+ * bit per edge, so each Brain costs (e + 7) / 8 bytes, and switching between
+ * loaded Brains is just a matter of playing from a different one.
+ *
+ * Each Brain is stored in its own file, and records its learning in its
+ * own LearningJournal. The file is only rewritten, in place, when the
+ * journal is compacted.
+ *
+ * Layout of the file (all integers big-endian):
+ *
+ * HEADER		magic, version, edge count (e)
+ * LEARNING		(e + 7) / 8 bytes, bit set if the edge has not been pruned
+ */
+public class Brain
+{
+	/**
+	 * Name of the Brain played by default, and by versions before there were several.
+	 */
+	public static final String DEFAULT = "classic";
+
+	/**
+	 * Version of the file format, see the layout above.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Brain file signature, "HXPB".
+	 */
+	private static final int MAGIC = 0x48585042;
+
+	/**
+	 * Size of the header, in bytes.
+	 */
+	private static final int HEADER_SIZE = 12;
+
+	/**
+	 * The name of this Brain, also naming its files.
+	 */
+	private final String name;
+
+	/**
+	 * The shared game graph.
+	 */
+	private final GameGraph graph;
+
+	/**
+	 * The learning bitset, one bit per edge, set if the edge is active.
+	 */
+	private final byte[] learning;
+
+	/**
+	 * The file this Brain is stored in, or null if it is held in memory.
+	 */
+	private final RandomAccessFile file;
+
+	/**
+	 * The journal recording the learning, or null if it is not kept.
+	 */
+	private LearningJournal journal;
+
+	// Constructors
+
+	/**
+	 * Constructor. Produces a Brain held in memory only, starting out
+	 * from the learning state stored with the graph's snapshot.
+	 * @param name - the name of the Brain.
+	 * @param graph - the game graph.
+	 */
+	public Brain(String name, GameGraph graph)
+	{
+		this(name, graph, graph.readLearning(), null);
+	}
+
+	/**
+	 * Constructor.
+	 * @param name - the name of the Brain.
+	 * @param graph - the game graph.
+	 * @param learning - the learning bitset.
+	 * @param file - the file the Brain is stored in, or null.
+	 */
+	private Brain(String name, GameGraph graph, byte[] learning, RandomAccessFile file)
+	{
+		this.name = name;
+		this.graph = graph;
+		this.learning = learning;
+		this.file = file;
+	}
+
+	/**
+	 * Opens a stored Brain. A Brain not stored yet is created, starting
+	 * out from the learning state stored with the graph's snapshot.
+	 * @param dir - the directory holding the Brain files.
+	 * @param name - the name of the Brain.
+	 * @param graph - the game graph.
+	 * @return the Brain.
+	 * @throws IOException if the file cannot be created or read, or does not match the graph.
+	 */
+	public static Brain open(File dir, String name, GameGraph graph) throws IOException
+	{
+		File file = new File(dir, Brain.getFileName(name));
+		if (! file.exists())
+			Brain.create(file, graph);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			int size = (graph.getEdgeCount() + 7) / 8;
+			ByteBuffer contents = ByteBuffer.allocate(HEADER_SIZE + size);
+			FileChannel channel = raf.getChannel();
+			while (contents.hasRemaining())
+			{
+				if (channel.read(contents, contents.position()) < 0)
+					throw new IOException("Truncated brain " + name);
+			}
+			if (contents.getInt(0) != MAGIC)
+				throw new IOException("Not a brain: " + name);
+			if (contents.getInt(4) != VERSION)
+				throw new IOException("Unsupported brain version " + contents.getInt(4));
+			if (contents.getInt(8) != graph.getEdgeCount())
+				throw new IOException("Brain " + name + " does not match the game graph");
+
+			byte[] learning = new byte[size];
+			contents.position(HEADER_SIZE);
+			contents.get(learning);
+			return new Brain(name, graph, learning, raf);
+		}
+		catch (IOException ex)
+		{
+			raf.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Opens the journal of this Brain, creating it if it does not exist,
+	 * and replays the learning recorded since it was last compacted.
+	 * @param dir - the directory holding the Brain files.
+	 * @throws IOException if the journal cannot be opened or read.
+	 */
+	public void openJournal(File dir) throws IOException
+	{
+		LearningJournal journal = new LearningJournal(new File(dir, Brain.getJournalName(this.name)));
+		try
+		{
+			journal.replay(this);
+		}
+		catch (IOException ex)
+		{
+			journal.close();
+			throw ex;
+		}
+		this.journal = journal;
+	}
+
+	/**
+	 * Closes the files of this Brain.
+	 */
+	public void close()
+	{
+		if (this.journal != null)
+			this.journal.close();
+		if (this.file != null)
+		{
+			try
+			{
+				this.file.close();
+			}
+			catch (IOException ex)
+			{
+				// Nothing left to release.
+			}
+		}
+	}
+
+	// Accessors
+
+	public String getName()
+	{
+		return this.name;
+	}
+
+	public GameGraph getGraph()
+	{
+		return this.graph;
+	}
+
+	public LearningJournal getJournal()
+	{
+		return this.journal;
+	}
+
+	/**
+	 * Produces the filename of a Brain, in the application's files directory.
+	 * @param name - the name of the Brain.
+	 * @return the filename.
+	 */
+	public static String getFileName(String name)
+	{
+		return "Hexapawn." + name + ".brain";
+	}
+
+	/**
+	 * Produces the filename of the journal of a Brain, in the application's files directory.
+	 * @param name - the name of the Brain.
+	 * @return the filename.
+	 */
+	public static String getJournalName(String name)
+	{
+		return "Hexapawn." + name + ".journal";
+	}
+
+	/**
+	 * Checks whether the computer may still play the given edge.
+	 * @param edge - the edge id.
+	 * @return true if the edge has not been pruned.
+	 */
+	public boolean isActive(int edge)
+	{
+		return (this.learning[edge >> 3] & (1 << (edge & 7))) != 0;
+	}
+
+	/**
+	 * Counts the edges of a position which have not been pruned.
+	 * @param position - the position id.
+	 * @return the number of active edges.
+	 */
+	public int getActiveCount(int position)
+	{
+		int count = 0;
+		for (int edge = this.graph.getFirstEdge(position), end = this.graph.getEdgeEnd(position); edge < end; edge++)
+		{
+			if (this.isActive(edge))
+				count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Checks whether the given position is a victory position, ie.
+	 * the side to move has no moves left to play.
+	 * @param position - the position id.
+	 * @return true if there are no active edges leaving the position.
+	 */
+	public boolean isVictory(int position)
+	{
+		return this.getActiveCount(position) == 0;
+	}
+
+	/**
+	 * Choose an active edge at random from among a position's edges.
+	 * @param position - the position id.
+	 * @param rng - a seeded pseudorandom number generator.
+	 * @return a randomly chosen active edge id, or -1 if none are available.
+	 */
+	public int pickEdge(int position, Random rng)
+	{
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		int n = this.getActiveCount(position), picked = -1;
+		if (n > 0)
+		{
+			int pick = rng.nextInt(n);
+			for (int edge = this.graph.getFirstEdge(position); picked < 0; edge++)
+			{
+				if (this.isActive(edge) && pick-- == 0)
+					picked = edge;
+			}
+		}
+		Metrics.stop(Metrics.PICK, start, allocations);
+		return picked;
+	}
+
+	/**
+	 * Calculates the AI skill based on how many losing positions
+	 * can still be reached through active edges.
+	 * @return skill of AI, as a percentage of 100
+	 */
+	public int getSkill()
+	{
+		// skill = (total_white_wins - active_white_wins) / total_white_wins * 100%
+		// where a white win is a position with BLACK to move, and no moves at all.
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		GraphWalk finals = new GraphWalk(this.graph).terminalOnly();
+		int total_white_wins = this.countWhiteWins(finals);
+
+		// Only the final positions reachable through active edges remain.
+		int active_white_wins = this.countWhiteWins(finals.through(this));
+
+		Metrics.stop(Metrics.SKILL, start, allocations);
+		return (int) (((float) total_white_wins - active_white_wins) / total_white_wins * 100.0);
+	}
+
+	/**
+	 * Copies the learning state, eg. for exporting it.
+	 * @return the learning bitset, one bit per edge, set if the edge is active.
+	 */
+	public synchronized byte[] getLearning()
+	{
+		return this.learning.clone();
+	}
+
+	// Modifiers
+
+	/**
+	 * Takes over a learning state, eg. one imported from another device.
+	 * @param learning - the learning bitset, one bit per edge, set if the edge is active.
+	 * @param merge - true to also keep the edges this Brain has pruned, ie.
+	 * 					the union of both sets of prunes, false to replace them.
+	 */
+	public synchronized void setLearning(byte[] learning, boolean merge)
+	{
+		for (int i = 0; i < this.learning.length; i++)
+			this.learning[i] = merge ? (byte) (this.learning[i] & learning[i]) : learning[i];
+	}
+
+	/**
+	 * Removes a losing edge from the computer's available moves.
+	 * @param edge - the edge id to prune.
+	 */
+	public synchronized void prune(int edge)
+	{
+		this.learning[edge >> 3] &= ~(1 << (edge & 7));
+	}
+
+	/**
+	 * Copies the learning state of a moves tree loaded from elsewhere, eg. the
+	 * legacy Boards database. Any edge missing from the loaded tree is pruned.
+	 * @param learned - the root of a moves tree holding only active Boards.
+	 */
+	public void importLearning(Board learned)
+	{
+		this.importLearning(learned, this.graph.getRoot());
+	}
+
+	/**
+	 * "Reset" the AI skill level by marking all edges as active.
+	 */
+	public synchronized void resetLearning()
+	{
+		byte[] active = Brain.allActive(this.graph.getEdgeCount());
+		System.arraycopy(active, 0, this.learning, 0, active.length);
+	}
+
+	/**
+	 * Writes the current learning state into the Brain file, in place,
+	 * and waits for it to reach the disk.
+	 * @throws IOException if the bits cannot be written to the file.
+	 */
+	public synchronized void save() throws IOException
+	{
+		if (this.file == null)
+			return;
+		ByteBuffer src = ByteBuffer.wrap(this.learning);
+		long offset = HEADER_SIZE;
+		FileChannel channel = this.file.getChannel();
+		while (src.hasRemaining())
+			offset += channel.write(src, offset);
+		channel.force(false);
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Recursive helper function to walk a loaded moves tree alongside the graph.
+	 * @param learned - the loaded Board.
+	 * @param position - the id of the matching position.
+	 */
+	private void importLearning(Board learned, int position)
+	{
+		for (int edge = this.graph.getFirstEdge(position), end = this.graph.getEdgeEnd(position); edge < end; edge++)
+		{
+			int target = this.graph.getTarget(edge);
+			Board child = learned.getLegal(this.graph.toBoard(target));
+			if (child == null)
+				this.prune(edge);
+			else
+				this.importLearning(child, target);
+		}
+	}
+
+	/**
+	 * Creates a Brain file, starting out from the learning state stored with the
+	 * graph's snapshot. The file is first written to a temporary file, which then
+	 * takes its place, so that a partially written Brain is never left behind.
+	 * @param file - the Brain file.
+	 * @param graph - the game graph.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static void create(File file, GameGraph graph) throws IOException
+	{
+		byte[] learning = graph.readLearning();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putInt(graph.getEdgeCount());
+
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try
+		{
+			out.write(header.array());
+			out.write(learning);
+			out.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+		if (! temp.renameTo(file))
+		{
+			temp.delete();
+			throw new IOException("Unable to create " + file);
+		}
+	}
+
+	/**
+	 * Produces a learning bitset with every edge active.
+	 * @param edges - the number of edges.
+	 * @return the bitset, with the unused bits of the last byte clear.
+	 */
+	static byte[] allActive(int edges)
+	{
+		byte[] learning = new byte[(edges + 7) / 8];
+		for (int i = 0; i < learning.length; i++)
+			learning[i] = (byte) 0xff;
+		if ((edges & 7) != 0)
+			learning[learning.length - 1] = (byte) ((1 << (edges & 7)) - 1);
+		return learning;
+	}
+
+	/**
+	 * Counts the white wins among the positions of a walk over the final positions.
+	 * @param finals - the walk.
+	 * @return the number of positions with BLACK to move.
+	 */
+	private int countWhiteWins(GraphWalk finals)
+	{
+		int[] positions = finals.toArray();
+		int wins = 0;
+		for (int i = 0; i < positions.length; i++)
+		{
+			if (this.graph.getTurn(positions[i]) == Board.Color.BLACK)
+				wins++;
+		}
+		return wins;
+	}
+}
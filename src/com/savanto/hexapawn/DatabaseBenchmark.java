@@ -0,0 +1,313 @@
+package com.savanto.hexapawn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+
+/**
+ * @author savanto
+ *
+ * Benchmark and regression check of the game history in the DatabaseHelper.
+ *
+ * Random games are written to a scratch database, in histories of several
+ * sizes, so that each operation is measured at several sizes: insertGames(),
+ * in batches of GameHistory.BATCH_SIZE as the GameHistory writes them, then
+ * the queries of the history screen, getWinRate(), getLosingLines() and
+ * getOpenings(), each REPEAT times. For each operation, the median time is
+ * measured, along with the statements executed, and the cursors left open.
+ * Queries and cursors are counted by the CursorFactory of the database,
+ * and the other statements by the DatabaseHelper.
+ *
+ * The Boards table of older versions is only read once, by the migration
+ * in the GameLoader, and is not measured.
+ *
+ * The first run records its results as the baseline, in the preferences
+ * named BASELINE_NAME. Later runs fail on a regression past the baseline:
+ * taking longer than TIME_TOLERANCE times its time, plus TIME_SLACK_NS,
+ * or executing more statements, or leaving more cursors open.
+ * The statements and cursors do not depend on the device, unlike the times,
+ * so the baseline should be recorded again on a new device.
+ */
+public class DatabaseBenchmark
+{
+	/**
+	 * Filename of the scratch database.
+	 */
+	public static final String DATABASE_NAME = "Hexapawn.benchmark.db";
+
+	/**
+	 * Name of the preferences holding the baseline.
+	 */
+	public static final String BASELINE_NAME = "Hexapawn.benchmark";
+
+	/**
+	 * The number of games in each history measured.
+	 */
+	public static final int[] HISTORY_SIZES = { 64, 512, 4096 };
+
+	/**
+	 * Number of times each query is repeated, after the games are written.
+	 */
+	public static final int REPEAT = 5;
+
+	/**
+	 * The time allowed for an operation, as a multiple of its baseline time, plus a slack.
+	 */
+	public static final float TIME_TOLERANCE = 1.5f;
+	public static final long TIME_SLACK_NS = 2000000L;
+
+	/**
+	 * The operations measured.
+	 */
+	public static final String[] OPERATIONS = { "insertGames", "getWinRate", "getLosingLines", "getOpenings" };
+	private static final int INSERT = 0, WIN_RATE = 1, LOSING_LINES = 2, OPENINGS = 3;
+
+	/**
+	 * The queries of the history screen: a week of daily win rates, and the three most frequent losing lines.
+	 */
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+	private static final int DAYS = 7;
+	private static final int LINES = 3;
+
+	/**
+	 * The measurements of one operation, at one size.
+	 */
+	public static class Result
+	{
+		private final String operation;
+		private final int games;
+		private final long nanos;
+		private final int statements;
+		private final int openCursors;
+		private String regression;
+
+		Result(String operation, int games, long nanos, int statements, int openCursors)
+		{
+			this.operation = operation;
+			this.games = games;
+			this.nanos = nanos;
+			this.statements = statements;
+			this.openCursors = openCursors;
+		}
+
+		/**
+		 * Gets the regression found by check().
+		 * @return a description of the regression, or null if there is none.
+		 */
+		public String getRegression()
+		{
+			return this.regression;
+		}
+
+		/**
+		 * Describes the measurements, as one line of the report.
+		 */
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.US, "%-14s %6d %9.2f ms %6d stmts %3d open%s", this.operation, this.games,
+					this.nanos / 1e6, this.statements, this.openCursors,
+					this.regression == null ? "" : "  REGRESSION: " + this.regression);
+		}
+
+		/**
+		 * Produces the prefix of the baseline keys of this operation and size.
+		 */
+		private String getKey()
+		{
+			return this.operation + "." + this.games + ".";
+		}
+	}
+
+	/**
+	 * Counts the cursors created for queries, and those closed since.
+	 */
+	private static class CountingFactory implements SQLiteDatabase.CursorFactory
+	{
+		private int created, closed;
+
+		/* (non-Javadoc)
+		 * @see android.database.sqlite.SQLiteDatabase.CursorFactory#newCursor(android.database.sqlite.SQLiteDatabase, android.database.sqlite.SQLiteCursorDriver, java.lang.String, android.database.sqlite.SQLiteQuery)
+		 */
+		@Override
+		@SuppressWarnings("deprecation")
+		public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable, SQLiteQuery query)
+		{
+			this.created++;
+			return new SQLiteCursor(db, masterQuery, editTable, query)
+			{
+				@Override
+				public void close()
+				{
+					if (! this.isClosed())
+						CountingFactory.this.closed++;
+					super.close();
+				}
+			};
+		}
+	}
+
+	private final Context context;
+
+	// Constructors
+
+	/**
+	 * Constructor.
+	 * @param context - the context holding the scratch database and the baseline.
+	 */
+	public DatabaseBenchmark(Context context)
+	{
+		this.context = context;
+	}
+
+	// Modifiers
+
+	/**
+	 * Measures every operation, at every size. Takes seconds, and should not run on the UI thread.
+	 * @return the measurements, by size, then by operation.
+	 */
+	public ArrayList<Result> run()
+	{
+		Board root = new Board(Board.RANK_3, Board.RANK_1, Board.Color.WHITE);
+		root.generate();
+		GameGraph graph = GameGraph.build(root);
+		long now = System.currentTimeMillis();
+		ArrayList<Result> results = new ArrayList<Result>();
+		for (int i = 0; i < HISTORY_SIZES.length; i++)
+		{
+			int games = HISTORY_SIZES[i];
+			ArrayList<ArrayList<GameRecord>> batches = DatabaseBenchmark.playGames(graph, games, now);
+			this.context.deleteDatabase(DATABASE_NAME);
+			CountingFactory factory = new CountingFactory();
+			DatabaseHelper dbHelper = new DatabaseHelper(this.context, DATABASE_NAME, factory);
+			try
+			{
+				// Create the database before measuring.
+				dbHelper.getWritableDatabase();
+				for (int operation = INSERT; operation <= OPENINGS; operation++)
+				{
+					int repeat = operation == INSERT ? 1 : REPEAT;
+					long[] nanos = new long[repeat];
+					int created = factory.created, closed = factory.closed, writes = dbHelper.getWriteCount();
+					for (int r = 0; r < repeat; r++)
+					{
+						long start = System.nanoTime();
+						switch (operation)
+						{
+							case INSERT:
+								for (int b = 0; b < batches.size(); b++)
+									dbHelper.insertGames(batches.get(b));
+								break;
+							case WIN_RATE:
+								dbHelper.getWinRate(now - DAYS * DAY, DAY);
+								break;
+							case LOSING_LINES:
+								dbHelper.getLosingLines(LINES);
+								break;
+							case OPENINGS:
+								dbHelper.getOpenings();
+								break;
+						}
+						nanos[r] = System.nanoTime() - start;
+					}
+					Arrays.sort(nanos);
+					int statements = factory.created - created + dbHelper.getWriteCount() - writes;
+					int open = (factory.created - created) - (factory.closed - closed);
+					results.add(new Result(OPERATIONS[operation], games, nanos[repeat / 2],
+							statements / repeat, open / repeat));
+				}
+			}
+			finally
+			{
+				dbHelper.close();
+				this.context.deleteDatabase(DATABASE_NAME);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Compares measurements against the baseline, marking the regressions
+	 * found, and records them as the baseline if there is none yet.
+	 * @param results - the measurements of run().
+	 * @param record - true to record the measurements as the new baseline, without comparing.
+	 * @return the number of regressions found.
+	 */
+	public int check(ArrayList<Result> results, boolean record)
+	{
+		SharedPreferences baseline = this.context.getSharedPreferences(BASELINE_NAME, Context.MODE_PRIVATE);
+		SharedPreferences.Editor editor = baseline.edit();
+		int regressions = 0;
+		for (int i = 0; i < results.size(); i++)
+		{
+			Result result = results.get(i);
+			String key = result.getKey();
+			if (record || ! baseline.contains(key + "nanos"))
+			{
+				editor.putLong(key + "nanos", result.nanos)
+					.putInt(key + "statements", result.statements)
+					.putInt(key + "cursors", result.openCursors);
+				continue;
+			}
+
+			long nanos = baseline.getLong(key + "nanos", 0);
+			int statements = baseline.getInt(key + "statements", 0), cursors = baseline.getInt(key + "cursors", 0);
+			if (result.statements > statements)
+				result.regression = "statements, baseline " + statements;
+			else if (result.openCursors > cursors)
+				result.regression = "open cursors, baseline " + cursors;
+			else if (result.nanos > nanos * TIME_TOLERANCE + TIME_SLACK_NS)
+				result.regression = String.format(Locale.US, "time, baseline %.2f ms", nanos / 1e6);
+			if (result.regression != null)
+				regressions++;
+		}
+		editor.commit();
+		return regressions;
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Plays random games, always the same ones, finished over the last DAYS days.
+	 * @param graph - the game graph.
+	 * @param games - the number of games.
+	 * @param now - the current time, in ms since the epoch.
+	 * @return the games, in batches of GameHistory.BATCH_SIZE.
+	 */
+	private static ArrayList<ArrayList<GameRecord>> playGames(GameGraph graph, int games, long now)
+	{
+		Random rng = new Random(0);
+		byte[] moves = new byte[graph.getDepth()];
+		ArrayList<ArrayList<GameRecord>> batches = new ArrayList<ArrayList<GameRecord>>();
+		for (int i = 0; i < games; i++)
+		{
+			if (i % GameHistory.BATCH_SIZE == 0)
+				batches.add(new ArrayList<GameRecord>(GameHistory.BATCH_SIZE));
+
+			int position = graph.getRoot(), length = 0;
+			for (int first, end; (first = graph.getFirstEdge(position)) != (end = graph.getEdgeEnd(position)); )
+			{
+				int edge = first + rng.nextInt(end - first);
+				moves[length++] = graph.getMove(position, edge).pack();
+				position = graph.getTarget(edge);
+			}
+
+			// The side to move in the final position has lost.
+			Board.Color winner = graph.getTurn(position) == Board.Color.WHITE ? Board.Color.BLACK : Board.Color.WHITE;
+			long finished = now - (long) (rng.nextDouble() * DAYS * DAY);
+			byte[] game = new byte[length];
+			System.arraycopy(moves, 0, game, 0, length);
+			batches.get(batches.size() - 1).add(new GameRecord(Brain.DEFAULT, finished - 60000, finished, winner, game));
+		}
+		return batches;
+	}
+}
@@ -0,0 +1,89 @@
+package com.savanto.hexapawn;
+
+import java.util.ArrayList;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.pm.ApplicationInfo;
+import android.os.Bundle;
+import android.util.Log;
+
+/**
+ * @author savanto
+ *
+ * Runs the DatabaseBenchmark on a device, in debuggable builds only,
+ * as an instrumentation, so that the result can fail a build:
+ *
+ * adb shell am instrument -w [-e record true] com.savanto.hexapawn/.DatabaseBenchmarkRunner
+ *
+ * With record, the results are recorded as the new baseline. The report
+ * is printed and logged, and the instrumentation finishes with
+ * INSTRUMENTATION_CODE -1 (RESULT_OK) if no operation regressed, or else 0,
+ * along with the number of regressions. See the database-benchmark target.
+ */
+public class DatabaseBenchmarkRunner extends Instrumentation
+{
+	/**
+	 * Argument: "true" to record the results as the new baseline.
+	 */
+	public static final String ARG_RECORD = "record";
+
+	/**
+	 * Result: the number of regressions.
+	 */
+	public static final String RESULT_REGRESSIONS = "regressions";
+
+	private boolean record;
+
+	/* (non-Javadoc)
+	 * @see android.app.Instrumentation#onCreate(android.os.Bundle)
+	 */
+	@Override
+	public void onCreate(Bundle arguments)
+	{
+		super.onCreate(arguments);
+		this.record = arguments != null && "true".equals(arguments.getString(ARG_RECORD));
+		this.start();
+	}
+
+	/* (non-Javadoc)
+	 * @see android.app.Instrumentation#onStart()
+	 */
+	@Override
+	public void onStart()
+	{
+		Bundle results = new Bundle();
+		if ((this.getTargetContext().getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0)
+		{
+			results.putString(Instrumentation.REPORT_KEY_STREAMRESULT, "Database benchmark runs in debuggable builds only\n");
+			this.finish(Activity.RESULT_CANCELED, results);
+			return;
+		}
+
+		DatabaseBenchmark benchmark = new DatabaseBenchmark(this.getTargetContext());
+		ArrayList<DatabaseBenchmark.Result> list = benchmark.run();
+		int regressions = benchmark.check(list, this.record);
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < list.size(); i++)
+		{
+			DatabaseBenchmark.Result result = list.get(i);
+			if (result.getRegression() == null)
+				Log.i(HexapawnActivity.TAG, result.toString());
+			else
+				Log.e(HexapawnActivity.TAG, result.toString());
+			text.append(result).append('\n');
+		}
+		String verdict = this.record ? "Database benchmark recorded as the baseline"
+				: regressions == 0 ? "Database benchmark passed"
+				: "Database benchmark FAILED: " + regressions + " regressions";
+		if (regressions == 0)
+			Log.i(HexapawnActivity.TAG, verdict);
+		else
+			Log.e(HexapawnActivity.TAG, verdict);
+
+		results.putString(Instrumentation.REPORT_KEY_STREAMRESULT, text.append(verdict).append('\n').toString());
+		results.putInt(RESULT_REGRESSIONS, regressions);
+		this.finish(regressions == 0 ? Activity.RESULT_OK : Activity.RESULT_CANCELED, results);
+	}
+}
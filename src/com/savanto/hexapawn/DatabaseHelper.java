@@ -1,12 +1,13 @@
 package com.savanto.hexapawn;
 
 import java.util.ArrayList;
+import java.util.List;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
 
 /**
@@ -19,7 +20,7 @@ public class DatabaseHelper extends SQLiteOpenHelper
 	/**
 	 * Version of the database. If the schema is changed, the version number must be incremented.
 	 */
-	private static final int DATABASE_VERSION = 1;
+	private static final int DATABASE_VERSION = 2;
 
 	/**
 	 * Filename of the database.
@@ -27,10 +28,10 @@ public class DatabaseHelper extends SQLiteOpenHelper
 	public static final String DATABASE_NAME = "Hexapawn.db";
 
 	/**
-	 * The Board, holding all game Boards, either passed in
-	 * after move generation, or retrieved from the database.
+	 * The number of statements executed other than queries, for the DatabaseBenchmark,
+	 * which counts the queries through the CursorFactory of its database.
 	 */
-	private Board board;
+	private int writes;
 
 	/* SELECT criteria */
 	/**
@@ -43,7 +44,6 @@ public class DatabaseHelper extends SQLiteOpenHelper
 			DatabaseSchema.BoardsTable.FIELD_NAME_WHITE,
 			DatabaseSchema.BoardsTable.FIELD_NAME_TURN
 		};
-	private static final String[] SELECT_ID = { DatabaseSchema.BoardsTable._ID };
 
 	/**
 	 * WHERE clauses
@@ -52,19 +52,37 @@ public class DatabaseHelper extends SQLiteOpenHelper
 			DatabaseSchema.BoardsTable.FIELD_NAME_ACTIVE + " = 1"
 			+ " AND "
 			+ DatabaseSchema.BoardsTable.FIELD_NAME_PARENT + " = ?";
-	private static final String PRUNE_WHERE =
-			DatabaseSchema.BoardsTable.FIELD_NAME_BLACK + " = ? AND "
-			+ DatabaseSchema.BoardsTable.FIELD_NAME_WHITE + " = ? AND "
-			+ DatabaseSchema.BoardsTable.FIELD_NAME_TURN  + " = ?";
-	private static final String WHERE_WHITE_WINS =
-			DatabaseSchema.BoardsTable.FIELD_NAME_VICTORY + " = 1 AND "
-			+ DatabaseSchema.BoardsTable.FIELD_NAME_TURN + " = 0";
-	private static final String WHERE_WHITE_WINS_ACTIVE =
-			WHERE_WHITE_WINS + " AND " + DatabaseSchema.BoardsTable.FIELD_NAME_ACTIVE + " = 1";
-	private static final String WHERE_ID = 
-			DatabaseSchema.BoardsTable._ID + " = ?";
-	private static final String WHERE_PARENT =
-			DatabaseSchema.BoardsTable.FIELD_NAME_PARENT + " = ?";
+
+	/**
+	 * Game history statements and queries.
+	 * Each query is answered from one of the indices on the Games table.
+	 */
+	private static final String INSERT_GAME =
+			"INSERT INTO " + DatabaseSchema.GamesTable.TABLE_NAME + " ("
+			+ DatabaseSchema.GamesTable.FIELD_NAME_STARTED + ", "
+			+ DatabaseSchema.GamesTable.FIELD_NAME_FINISHED + ", "
+			+ DatabaseSchema.GamesTable.FIELD_NAME_BRAIN + ", "
+			+ DatabaseSchema.GamesTable.FIELD_NAME_WINNER + ", "
+			+ DatabaseSchema.GamesTable.FIELD_NAME_OPENING + ", "
+			+ DatabaseSchema.GamesTable.FIELD_NAME_MOVES
+			+ ") VALUES (?, ?, ?, ?, ?, ?)";
+	private static final String QUERY_WIN_RATE =
+			"SELECT " + DatabaseSchema.GamesTable.FIELD_NAME_FINISHED + " / ? AS period, COUNT(*), "
+			+ "SUM(" + DatabaseSchema.GamesTable.FIELD_NAME_WINNER + ")"
+			+ " FROM " + DatabaseSchema.GamesTable.TABLE_NAME
+			+ " WHERE " + DatabaseSchema.GamesTable.FIELD_NAME_FINISHED + " >= ?"
+			+ " GROUP BY period ORDER BY period";
+	private static final String QUERY_LOSING_LINES =
+			"SELECT " + DatabaseSchema.GamesTable.FIELD_NAME_MOVES + ", COUNT(*) AS games"
+			+ " FROM " + DatabaseSchema.GamesTable.TABLE_NAME
+			+ " WHERE " + DatabaseSchema.GamesTable.FIELD_NAME_WINNER + " = 1"
+			+ " GROUP BY " + DatabaseSchema.GamesTable.FIELD_NAME_MOVES
+			+ " ORDER BY games DESC LIMIT ?";
+	private static final String QUERY_OPENINGS =
+			"SELECT " + DatabaseSchema.GamesTable.FIELD_NAME_OPENING + ", COUNT(*), "
+			+ "SUM(" + DatabaseSchema.GamesTable.FIELD_NAME_WINNER + ")"
+			+ " FROM " + DatabaseSchema.GamesTable.TABLE_NAME
+			+ " GROUP BY " + DatabaseSchema.GamesTable.FIELD_NAME_OPENING;
 
 	// Constructors
 
@@ -77,6 +95,17 @@ public class DatabaseHelper extends SQLiteOpenHelper
 		super(context, DatabaseHelper.DATABASE_NAME, null, DatabaseHelper.DATABASE_VERSION);
 	}
 
+	/**
+	 * Constructor for the DatabaseBenchmark, opening a scratch database.
+	 * @param context
+	 * @param name - the filename of the database.
+	 * @param factory - the factory of the cursors of every query.
+	 */
+	DatabaseHelper(Context context, String name, SQLiteDatabase.CursorFactory factory)
+	{
+		super(context, name, factory, DatabaseHelper.DATABASE_VERSION);
+	}
+
 	/* (non-Javadoc)
 	 * @see android.database.sqlite.SQLiteOpenHelper#onCreate(android.database.sqlite.SQLiteDatabase)
 	 */
@@ -84,12 +113,10 @@ public class DatabaseHelper extends SQLiteOpenHelper
 	public void onCreate(SQLiteDatabase db)
 	{
 		// Create database for the first time.
-		// Create the tables.
+		// Create the tables. The Boards table of older versions is only
+		// ever read, by the migration of their learning, see loadBoards().
 		db.execSQL(DatabaseSchema.BoardsTable.SQL_CREATE_TABLE_BOARDS);
-
-		// Populate boards table from Board.
-		// Traverse the Board tree recursively, inserting Boards into the database.
-		this.insertBoards(this.board, 0, db);
+		this.createGames(db);
 	}
 
 	/* (non-Javadoc)
@@ -99,24 +126,19 @@ public class DatabaseHelper extends SQLiteOpenHelper
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
 	{
 		// Upgrade policy:
-		// Create moves tree from stored data,
-		// drop old tables, and call onCreate to recreate db from moves tree.
-
-		// Load all moves
-		this.board = this.loadBoards();
-		db.execSQL(DatabaseSchema.BoardsTable.SQL_DROP_TABLE_BOARDS);
-		this.onCreate(db);
+		// Add the tables and indices introduced since the old version,
+		// the stored Boards and games are kept as they are.
+		if (oldVersion < 2)
+			this.createGames(db);
 	}
 
 	/**
-	 * Called if moves tree has been generated and needs to be
-	 * stored in the database.
-	 * @param board
+	 * Counts the statements executed other than queries, see DatabaseBenchmark.
+	 * @return the number of inserts and updates so far.
 	 */
-	public void storeBoards(Board board)
+	int getWriteCount()
 	{
-		this.board = board;
-		this.getWritableDatabase();
+		return this.writes;
 	}
 
 	/**
@@ -126,6 +148,7 @@ public class DatabaseHelper extends SQLiteOpenHelper
 	public Board loadBoards()
 	{
 		// Load root Board with id = 1
+		long start = Metrics.start(), allocations = Metrics.allocations();
 		String[] whereArgs = { Integer.toString(0) };
 
 		Cursor c = this.getReadableDatabase().query(
@@ -140,7 +163,10 @@ public class DatabaseHelper extends SQLiteOpenHelper
 
 		// Error, no root Board found in db.
 		if (c.getCount() == 0)
+		{
+			Metrics.stop(Metrics.DB_LOAD, start, allocations);
 			return null;
+		}
 
 		// Otherwise, create new root Board from row
 		c.moveToFirst();
@@ -153,6 +179,7 @@ public class DatabaseHelper extends SQLiteOpenHelper
 		// Recursively look up the root Board's children and add them
 		this.loadBoards(root, c.getInt(c.getColumnIndexOrThrow(DatabaseSchema.BoardsTable._ID)));
 
+		Metrics.stop(Metrics.DB_LOAD, start, allocations);
 		return root;
 	}
 
@@ -198,169 +225,116 @@ public class DatabaseHelper extends SQLiteOpenHelper
 	}
 
 	/**
-	 * Recursively inserts given Board and its children into the database. 
-	 * @param board - the parent Board being inserted.
-	 * @param rowid - the rowid of the parent Board.
+	 * Creates the game history table and its indices.
 	 * @param db - the database
 	 */
-	private void insertBoards(Board board, long rowid, SQLiteDatabase db)
+	private void createGames(SQLiteDatabase db)
 	{
-		// Insert given Board.
-		ContentValues values = new ContentValues();
-		values.put(DatabaseSchema.BoardsTable.FIELD_NAME_BLACK, board.getBlack());
-		values.put(DatabaseSchema.BoardsTable.FIELD_NAME_WHITE, board.getWhite());
-		values.put(DatabaseSchema.BoardsTable.FIELD_NAME_TURN, board.getTurn() == Board.Color.BLACK ? 0 : 1);
-		values.put(DatabaseSchema.BoardsTable.FIELD_NAME_PARENT, rowid);
-		values.put(DatabaseSchema.BoardsTable.FIELD_NAME_VICTORY, board.isVictory() ? 1 : 0);
-		values.put(DatabaseSchema.BoardsTable.FIELD_NAME_ACTIVE, 1);
-		rowid = db.insert(DatabaseSchema.BoardsTable.TABLE_NAME, null, values);
-
-		// Pass over children array, insert them into db, recursively
-		// traversing down each child's tree.
-		ArrayList<Board> children = board.getChildren();
-		int n = children.size();
-
-		// Base case: no children to insert
-		if (n == 0)
-			return;
-
-		for (int i = 0; i < n; i++)
-			this.insertBoards(children.get(i), rowid, db);
+		db.execSQL(DatabaseSchema.GamesTable.SQL_CREATE_TABLE_GAMES);
+		db.execSQL(DatabaseSchema.GamesTable.SQL_CREATE_INDEX_FINISHED);
+		db.execSQL(DatabaseSchema.GamesTable.SQL_CREATE_INDEX_LINES);
+		db.execSQL(DatabaseSchema.GamesTable.SQL_CREATE_INDEX_OPENINGS);
 	}
 
 	/**
-	 * Update the database, setting the given Board and all child
-	 * Boards as inactive, and not eligible for loading in the future.
-	 * @param board - the parent Board to prune, along with all children.
+	 * Inserts a batch of finished games into the game history,
+	 * in a single transaction.
+	 * @param games - the games to insert.
 	 */
-	public void pruneBoards(Board board)
+	public void insertGames(List<GameRecord> games)
 	{
-		// Query database for given Board
-		String[] whereArgs =
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		SQLiteDatabase db = this.getWritableDatabase();
+		SQLiteStatement insert = db.compileStatement(INSERT_GAME);
+		db.beginTransaction();
+		try
+		{
+			for (int i = 0; i < games.size(); i++)
 			{
-				Integer.toString(board.getBlack()),
-				Integer.toString(board.getWhite()),
-				Integer.toString(board.getTurn() == Board.Color.BLACK ? 0 : 1)
-			};
-
-		Cursor c = this.getReadableDatabase().query(
-				DatabaseSchema.BoardsTable.TABLE_NAME,
-				SELECT_ID,
-				PRUNE_WHERE,
-				whereArgs,
-				null,	// don't group rows
-				null,	// don't filter by row groups
-				null	// don't order
-		);
-
-		// No Boards found, cancel pruning.
-		if (c.getCount() == 0)
-			return;
-		// Otherwise, recursively prune all children.
-		c.moveToFirst();
-		int rowid = c.getInt(c.getColumnIndexOrThrow(DatabaseSchema.BoardsTable._ID));
-
-		ContentValues values = new ContentValues();
-		values.put(DatabaseSchema.BoardsTable.FIELD_NAME_ACTIVE, 0);
-
-		this.pruneBoards(rowid, values);
-
-		// Finally, update this Board.
-		whereArgs = new String[]{ Integer.toString(rowid) };
-
-		this.getWritableDatabase().update(
-				DatabaseSchema.BoardsTable.TABLE_NAME,
-				values,
-				WHERE_ID,
-				whereArgs
-		);
+				GameRecord game = games.get(i);
+				byte[] moves = game.getMoves();
+				insert.bindLong(1, game.getStarted());
+				insert.bindLong(2, game.getFinished());
+				insert.bindString(3, game.getBrain());
+				insert.bindLong(4, game.getWinner() == Board.Color.BLACK ? 0 : 1);
+				insert.bindLong(5, moves.length == 0 ? -1 : moves[0] & 0xff);
+				insert.bindBlob(6, moves);
+				insert.executeInsert();
+				this.writes++;
+			}
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+			insert.close();
+		}
+		Metrics.stop(Metrics.DB_GAMES, start, allocations);
 	}
 
 	/**
-	 * Update the database recursively, updating all child records to be inactive
-	 * and ineligible for loading in the future.
-	 * @param rowid - the parent id to use in the WHERE clause.
-	 * @param values - update values.
+	 * Queries the number of games and WHITE victories over time.
+	 * @param since - the earliest finish time to include, in ms since the epoch.
+	 * @param period - the length of each period, in ms.
+	 * @return one row per period with games, oldest first, keyed by the start of the period.
 	 */
-	private void pruneBoards(int rowid, ContentValues values)
+	public ArrayList<GameStats> getWinRate(long since, long period)
 	{
-		// Update all children records to be inactive.
-		String[] whereArgs = { Integer.toString(rowid) };
-
-		this.getWritableDatabase().update(
-				DatabaseSchema.BoardsTable.TABLE_NAME,
-				values,
-				WHERE_PARENT,
-				whereArgs
-		);
-
-		// Query database for all children of the given Board.
-		Cursor c = this.getReadableDatabase().query(
-				DatabaseSchema.BoardsTable.TABLE_NAME,
-				SELECT_ID,
-				WHERE_PARENT,
-				whereArgs,
-				null,	// don't group rows
-				null,	// don't filter by row groups
-				null	// don't order
-		);
-
-		// Recursively update all of the childrens' children.
-		c.moveToFirst();
-		while (! c.isAfterLast())
+		String[] args = { Long.toString(period), Long.toString(since) };
+		Cursor c = this.getReadableDatabase().rawQuery(QUERY_WIN_RATE, args);
+		ArrayList<GameStats> stats = new ArrayList<GameStats>();
+		try
 		{
-			this.pruneBoards(c.getInt(c.getColumnIndexOrThrow(DatabaseSchema.BoardsTable._ID)), values);
-			c.moveToNext();
+			while (c.moveToNext())
+				stats.add(new GameStats(c.getLong(0) * period, null, c.getInt(1), c.getInt(2)));
 		}
+		finally
+		{
+			c.close();
+		}
+		return stats;
 	}
 
 	/**
-	 * Calculates the AI skill based on how many losing moves remain
-	 * @return skill of AI, as a percentage of 100
+	 * Queries the lines of play the computer has lost most often.
+	 * @param limit - the maximum number of lines.
+	 * @return one row per line, most frequent first, with the packed Moves of the line.
 	 */
-	public int getSkill()
+	public ArrayList<GameStats> getLosingLines(int limit)
 	{
-		// Calculate the AI skill:
-		// skill = (total_white_wins - active_white_wins) / total_white_wins * 100%
-		int total_white_wins = this.getReadableDatabase().query(
-				DatabaseSchema.BoardsTable.TABLE_NAME,
-				SELECT_ID,
-				WHERE_WHITE_WINS,
-				null,
-				null,
-				null,
-				null
-		).getCount();
-
-		int active_white_wins = this.getReadableDatabase().query(
-					DatabaseSchema.BoardsTable.TABLE_NAME,
-					SELECT_ID,
-					WHERE_WHITE_WINS_ACTIVE,
-					null,
-					null,
-					null,
-					null
-			).getCount();
-
-		return (int) (((float) total_white_wins - active_white_wins) / total_white_wins * 100.0);
+		String[] args = { Integer.toString(limit) };
+		Cursor c = this.getReadableDatabase().rawQuery(QUERY_LOSING_LINES, args);
+		ArrayList<GameStats> stats = new ArrayList<GameStats>();
+		try
+		{
+			while (c.moveToNext())
+				stats.add(new GameStats(0, c.getBlob(0), c.getInt(1), c.getInt(1)));
+		}
+		finally
+		{
+			c.close();
+		}
+		return stats;
 	}
 
 	/**
-	 * "Reset" the AI skill level by marking all Boards as active
-	 * in the database. Then reload the game moves tree.
+	 * Queries the number of games and WHITE victories after each opening Move.
+	 * @return one row per opening, keyed by the packed opening Move, or -1 for games without Moves.
 	 */
-	public Board resetAI()
+	public ArrayList<GameStats> getOpenings()
 	{
-		// Update all Boards to be active.
-		ContentValues values = new ContentValues();
-		values.put(DatabaseSchema.BoardsTable.FIELD_NAME_ACTIVE, 1);
-		this.getWritableDatabase().update(
-				DatabaseSchema.BoardsTable.TABLE_NAME,
-				values,
-				null,
-				null
-		);
-		return this.loadBoards();
+		Cursor c = this.getReadableDatabase().rawQuery(QUERY_OPENINGS, null);
+		ArrayList<GameStats> stats = new ArrayList<GameStats>();
+		try
+		{
+			while (c.moveToNext())
+				stats.add(new GameStats(c.getLong(0), null, c.getInt(1), c.getInt(2)));
+		}
+		finally
+		{
+			c.close();
+		}
+		return stats;
 	}
 
 	/**
@@ -419,5 +393,59 @@ public class DatabaseHelper extends SQLiteOpenHelper
 			private static final String SQL_DROP_TABLE_BOARDS
 					= "DROP TABLE IF EXISTS " + TABLE_NAME;
 		}
+
+		/**
+		 * TABLE Games: the history of every finished game, appended to in batches.
+		 * The Moves of a game are packed one per byte, see Move.pack(),
+		 * and the opening Move is repeated in its own column, for indexing.
+		 */
+		private abstract class GamesTable implements BaseColumns
+		{
+			private static final String TABLE_NAME				= "Games";
+
+			private static final String FIELD_ID_TYPE			= " INTEGER PRIMARY KEY";
+
+			private static final String FIELD_NAME_STARTED		= "started";
+			private static final String FIELD_TYPE_STARTED		= " INTEGER";
+
+			private static final String FIELD_NAME_FINISHED		= "finished";
+			private static final String FIELD_TYPE_FINISHED		= " INTEGER";
+
+			private static final String FIELD_NAME_BRAIN		= "brain";
+			private static final String FIELD_TYPE_BRAIN		= " TEXT";
+
+			private static final String FIELD_NAME_WINNER		= "winner";
+			private static final String FIELD_TYPE_WINNER		= " INTEGER";
+
+			private static final String FIELD_NAME_OPENING		= "opening";
+			private static final String FIELD_TYPE_OPENING		= " INTEGER";
+
+			private static final String FIELD_NAME_MOVES		= "moves";
+			private static final String FIELD_TYPE_MOVES		= " BLOB";
+
+			// SQL create table string
+			private static final String SQL_CREATE_TABLE_GAMES
+					= "CREATE TABLE " + TABLE_NAME
+					+ "( "
+					+ _ID 					+ FIELD_ID_TYPE 		+ COMMA
+					+ FIELD_NAME_STARTED	+ FIELD_TYPE_STARTED	+ COMMA
+					+ FIELD_NAME_FINISHED	+ FIELD_TYPE_FINISHED	+ COMMA
+					+ FIELD_NAME_BRAIN		+ FIELD_TYPE_BRAIN		+ COMMA
+					+ FIELD_NAME_WINNER		+ FIELD_TYPE_WINNER		+ COMMA
+					+ FIELD_NAME_OPENING	+ FIELD_TYPE_OPENING	+ COMMA
+					+ FIELD_NAME_MOVES		+ FIELD_TYPE_MOVES
+					+ " )";
+
+			// SQL create index strings, covering the history queries
+			private static final String SQL_CREATE_INDEX_FINISHED
+					= "CREATE INDEX games_finished ON " + TABLE_NAME
+					+ " (" + FIELD_NAME_FINISHED + COMMA + FIELD_NAME_WINNER + ")";
+			private static final String SQL_CREATE_INDEX_LINES
+					= "CREATE INDEX games_lines ON " + TABLE_NAME
+					+ " (" + FIELD_NAME_WINNER + COMMA + FIELD_NAME_MOVES + ")";
+			private static final String SQL_CREATE_INDEX_OPENINGS
+					= "CREATE INDEX games_openings ON " + TABLE_NAME
+					+ " (" + FIELD_NAME_OPENING + COMMA + FIELD_NAME_WINNER + ")";
+		}
 	}
 }
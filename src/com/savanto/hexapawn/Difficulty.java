@@ -0,0 +1,285 @@
+package com.savanto.hexapawn;
+
+import java.util.Random;
+
+/**
+ * @author savanto
+ *
+ * A level of play of the computer. Above the lowest level, the computer
+ * does not pick at random among the moves its Brain has not pruned,
+ * but searches ahead and plays the best of them, save for a set rate
+ * of deliberate errors, in which it plays a worse move instead.
+ *
+ * The search is a depth-limited negamax with alpha-beta pruning over the game
+ * graph, deepened one move at a time until the level's depth or node budget
+ * is reached, so the work done per move is bounded by the level, whatever
+ * the size of the board. Positions left at the horizon are judged by the
+ * pawns each side has, and how far they have advanced.
+ *
+ * Values are those of the Solver: a position whose outcome is found within
+ * the search is worth +-(Solver.WIN - n) for a win or loss in n moves.
+ * Search time is measured as the SEARCH metric.
+ */
+public class Difficulty
+{
+	/**
+	 * The levels, from easiest to hardest, in the order of the difficulty_names resource.
+	 * The first level only relies on the Brain's learning, and does not search at all.
+	 */
+	public static final Difficulty[] LEVELS =
+		{
+			new Difficulty(0, 0, 0f),
+			new Difficulty(1, 16, 0.4f),
+			new Difficulty(3, 256, 0.15f),
+			new Difficulty(16, 4096, 0f)
+		};
+
+	/**
+	 * The level played unless another is chosen.
+	 */
+	public static final int DEFAULT = 0;
+
+	/**
+	 * Bounds of the values, beyond any win or loss.
+	 */
+	private static final int INFINITY = Solver.WIN + 1;
+
+	/**
+	 * The number of moves searched ahead, or 0 not to search.
+	 */
+	private final int depth;
+
+	/**
+	 * The most positions visited per move.
+	 */
+	private final int nodeBudget;
+
+	/**
+	 * The chance of playing a worse move than the best one found.
+	 */
+	private final float errorRate;
+
+	// Constructors
+
+	/**
+	 * Constructor.
+	 * @param depth - the number of moves searched ahead, or 0 not to search.
+	 * @param nodeBudget - the most positions visited per move.
+	 * @param errorRate - the chance of playing a worse move than the best one found, from 0 to 1.
+	 */
+	public Difficulty(int depth, int nodeBudget, float errorRate)
+	{
+		this.depth = depth;
+		this.nodeBudget = nodeBudget;
+		this.errorRate = errorRate;
+	}
+
+	// Accessors
+
+	public int getDepth()
+	{
+		return this.depth;
+	}
+
+	public int getNodeBudget()
+	{
+		return this.nodeBudget;
+	}
+
+	public float getErrorRate()
+	{
+		return this.errorRate;
+	}
+
+	/**
+	 * Gets a level by its index, falling back to the default level
+	 * for an index no longer known, eg. one stored by another version.
+	 * @param index - the index of the level in LEVELS.
+	 * @return the level.
+	 */
+	public static Difficulty getLevel(int index)
+	{
+		return Difficulty.LEVELS[index >= 0 && index < Difficulty.LEVELS.length ? index : Difficulty.DEFAULT];
+	}
+
+	/**
+	 * Chooses a move among the active edges of a position.
+	 * @param brain - the Brain whose pruned moves are not played.
+	 * @param position - the position id.
+	 * @param rng - a seeded pseudorandom number generator.
+	 * @return the chosen active edge id, or -1 if none are available.
+	 */
+	public int pickEdge(Brain brain, int position, Random rng)
+	{
+		if (this.depth == 0)
+			return brain.pickEdge(position, rng);
+
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		GameGraph graph = brain.getGraph();
+		int first = graph.getFirstEdge(position), end = graph.getEdgeEnd(position);
+		int[] values = new int[end - first], completed = new int[end - first];
+		boolean searched = false;
+
+		// Deepen one move at a time, keeping the values of the deepest
+		// search completed within the node budget.
+		Search search = new Search(graph, this.nodeBudget);
+		for (int depth = 1; depth <= this.depth && ! search.isExhausted(); depth++)
+		{
+			search.deepen();
+			for (int edge = first; edge < end && ! search.isExhausted(); edge++)
+			{
+				if (brain.isActive(edge))
+					values[edge - first] = -search.negamax(graph.getTarget(edge), depth - 1, -INFINITY, INFINITY);
+			}
+			if (search.isExhausted())
+				break;
+			System.arraycopy(values, 0, completed, 0, values.length);
+			searched = true;
+			if (! search.isCutOff())
+				break;
+		}
+
+		int picked = searched ? this.choose(brain, first, end, completed, rng) : brain.pickEdge(position, rng);
+		Metrics.stop(Metrics.SEARCH, start, allocations);
+		return picked;
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Chooses the best active edge, or at the error rate, a worse one at random.
+	 * @param brain - the Brain whose pruned moves are not played.
+	 * @param first - the first edge of the position.
+	 * @param end - one past the last edge of the position.
+	 * @param values - the value of each edge, for the side to move.
+	 * @param rng - a seeded pseudorandom number generator.
+	 * @return the chosen active edge id, or -1 if none are available.
+	 */
+	private int choose(Brain brain, int first, int end, int[] values, Random rng)
+	{
+		int best = -1, worse = 0;
+		for (int edge = first; edge < end; edge++)
+		{
+			if (brain.isActive(edge) && (best < 0 || values[edge - first] > values[best - first]))
+				best = edge;
+		}
+		if (best < 0 || this.errorRate <= 0f || rng.nextFloat() >= this.errorRate)
+			return best;
+
+		for (int edge = first; edge < end; edge++)
+		{
+			if (brain.isActive(edge) && values[edge - first] < values[best - first])
+				worse++;
+		}
+		if (worse == 0)
+			return best;
+		int pick = rng.nextInt(worse);
+		for (int edge = first; edge < end; edge++)
+		{
+			if (brain.isActive(edge) && values[edge - first] < values[best - first] && pick-- == 0)
+				return edge;
+		}
+		return best;
+	}
+
+	/**
+	 * A single search, counting the positions visited against the node budget.
+	 */
+	private static class Search
+	{
+		private final GameGraph graph;
+		private final int nodeBudget;
+		private int nodes;
+
+		/**
+		 * Set when a position was judged at the horizon, ie. when searching
+		 * deeper may change the values.
+		 */
+		private boolean cutOff;
+
+		public Search(GameGraph graph, int nodeBudget)
+		{
+			this.graph = graph;
+			this.nodeBudget = nodeBudget;
+		}
+
+		public boolean isExhausted()
+		{
+			return this.nodes > this.nodeBudget;
+		}
+
+		public boolean isCutOff()
+		{
+			return this.cutOff;
+		}
+
+		/**
+		 * Starts searching one move deeper.
+		 */
+		public void deepen()
+		{
+			this.cutOff = false;
+		}
+
+		/**
+		 * Searches a position.
+		 * @param position - the position id.
+		 * @param depth - the number of moves left to search ahead.
+		 * @param alpha - the value the side to move is already assured of.
+		 * @param beta - the value the opponent is already assured of, negated.
+		 * @return the value of the position for the side to move, if within (alpha, beta),
+		 * 			or else a bound of it; meaningless once the node budget is exhausted.
+		 */
+		public int negamax(int position, int depth, int alpha, int beta)
+		{
+			this.nodes++;
+			int first = this.graph.getFirstEdge(position), end = this.graph.getEdgeEnd(position);
+			if (first == end)
+				return -Solver.WIN;
+			if (depth == 0)
+			{
+				this.cutOff = true;
+				return Search.evaluate(this.graph, position);
+			}
+
+			int value = -INFINITY;
+			for (int edge = first; edge < end && alpha < beta && ! this.isExhausted(); edge++)
+			{
+				int score = -this.negamax(this.graph.getTarget(edge), depth - 1, -beta, -alpha);
+				// One move further from the end than the position it reaches.
+				if (score > Solver.WIN / 2)
+					score--;
+				else if (score < -Solver.WIN / 2)
+					score++;
+				value = Math.max(value, score);
+				alpha = Math.max(alpha, score);
+			}
+			return value;
+		}
+
+		/**
+		 * Judges a position without searching it: each pawn is worth the
+		 * size of the board, plus the number of ranks it has advanced.
+		 * @param graph - the game graph.
+		 * @param position - the position id.
+		 * @return the difference in worth of the pawns, for the side to move.
+		 */
+		private static int evaluate(GameGraph graph, int position)
+		{
+			int black = graph.getBlack(position), white = graph.getWhite(position), score = 0;
+			for (int row = 0; row < Board.SIZE; row++)
+			{
+				for (int col = 0; col < Board.SIZE; col++)
+				{
+					int square = Board.square(row, col);
+					// WHITE advances towards row 0, BLACK away from it.
+					if ((white & square) != 0)
+						score += Board.SIZE + (Board.SIZE - 1 - row);
+					else if ((black & square) != 0)
+						score -= Board.SIZE + row;
+				}
+			}
+			return graph.getTurn(position) == Board.Color.WHITE ? score : -score;
+		}
+	}
+}
@@ -0,0 +1,528 @@
+package com.savanto.hexapawn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * @author savanto
+ *
+ * The complete game graph in a compact, versioned binary snapshot.
+ * Every distinct position reached from the starting Board appears exactly once,
+ * and is identified by its index in the position array. Moves are stored
+ * as edges in compressed sparse row (CSR) form, followed by an initial
+ * learning state, a bitset with one 'active' bit per edge.
+ *
+ * Layout of the snapshot (all integers big-endian):
+ *
+ * HEADER		magic, version, position count (n), edge count (e)
+ * POSITIONS	n records of (black, white), the turn is stored in the
+ * 				top bit of the white word, since no pawn mask reaches it
+ * OFFSETS		n + 1 ints, edges of position p are [offsets[p], offsets[p + 1])
+ * TARGETS		e ints, the position reached by each edge
+ * LEARNING		(e + 7) / 8 bytes, bit set if the edge has not been pruned
+ *
+ * The root position, ie. the starting Board, always has id 0.
+ *
+ * A snapshot opened from a file is memory-mapped read-only, and queried in place:
+ * no Boards are created when the graph is loaded. The graph never changes
+ * once built, and is shared by every Brain: each Brain starts out from the
+ * learning bits of the snapshot, and keeps its own learning separately.
+ */
+public class GameGraph
+{
+	/**
+	 * Filename of the snapshot, in the application's files directory.
+	 */
+	public static final String FILE_NAME = "Hexapawn.graph";
+
+	/**
+	 * Version of the snapshot format. If the layout is changed, the version number must be incremented.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Snapshot file signature, "HXPW".
+	 */
+	private static final int MAGIC = 0x48585057;
+
+	/**
+	 * Sizes of the fixed parts of the snapshot, in bytes.
+	 */
+	private static final int HEADER_SIZE = 16;
+	private static final int POSITION_SIZE = 8;
+
+	/**
+	 * The bit of the white word which marks WHITE to move.
+	 */
+	private static final int TURN_WHITE = 1 << 31;
+
+	/**
+	 * The snapshot contents, either mapped from a file or held in memory.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The file the snapshot was mapped from, or null if the snapshot is held in memory.
+	 */
+	private final RandomAccessFile file;
+
+	/**
+	 * Dimensions of the graph.
+	 */
+	private final int positionCount;
+	private final int edgeCount;
+
+	/**
+	 * Byte offsets of each section in the snapshot.
+	 */
+	private final int positionsOffset;
+	private final int offsetsOffset;
+	private final int targetsOffset;
+	private final int learningOffset;
+
+	// Constructors
+
+	/**
+	 * Constructor. Wraps and validates snapshot contents.
+	 * @param buffer - the snapshot contents.
+	 * @param file - the file the contents are mapped from, or null.
+	 * @throws IOException if the contents are not a valid snapshot.
+	 */
+	private GameGraph(ByteBuffer buffer, RandomAccessFile file) throws IOException
+	{
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a game graph snapshot");
+		if (buffer.getInt(4) != VERSION)
+			throw new IOException("Unsupported game graph version " + buffer.getInt(4));
+
+		this.buffer = buffer;
+		this.file = file;
+		this.positionCount = buffer.getInt(8);
+		this.edgeCount = buffer.getInt(12);
+		this.positionsOffset = HEADER_SIZE;
+		this.offsetsOffset = this.positionsOffset + this.positionCount * POSITION_SIZE;
+		this.targetsOffset = this.offsetsOffset + (this.positionCount + 1) * 4;
+		this.learningOffset = this.targetsOffset + this.edgeCount * 4;
+
+		if (buffer.capacity() != GameGraph.size(this.positionCount, this.edgeCount))
+			throw new IOException("Truncated game graph snapshot");
+	}
+
+	/**
+	 * Builds an in-memory snapshot from a generated moves tree.
+	 * Identical positions reached by different move orders are merged,
+	 * and positions are numbered in breadth-first order from the root,
+	 * so the same tree always produces the same snapshot.
+	 * All edges start out active.
+	 * @param root - the starting Board, with all children generated.
+	 * @return the game graph of the tree.
+	 */
+	public static GameGraph build(Board root)
+	{
+		// Number the positions breadth-first, recording the edges of each
+		// position as it is visited. Since positions are visited in the order
+		// of their ids, the edges come out already sorted by source position.
+		HashMap<Long, Integer> ids = new HashMap<Long, Integer>();
+		ArrayList<Board> positions = new ArrayList<Board>();
+		ArrayList<Integer> offsets = new ArrayList<Integer>();
+		ArrayList<Integer> targets = new ArrayList<Integer>();
+
+		ids.put(GameGraph.key(root), 0);
+		positions.add(root);
+		for (int p = 0; p < positions.size(); p++)
+		{
+			offsets.add(targets.size());
+			ArrayList<Board> children = positions.get(p).getChildren();
+			for (int i = 0; i < children.size(); i++)
+			{
+				Board child = children.get(i);
+				Long key = GameGraph.key(child);
+				Integer id = ids.get(key);
+				if (id == null)
+				{
+					id = positions.size();
+					ids.put(key, id);
+					positions.add(child);
+				}
+				targets.add(id);
+			}
+		}
+		offsets.add(targets.size());
+
+		// Lay out the snapshot.
+		int n = positions.size(), e = targets.size();
+		ByteBuffer buffer = ByteBuffer.allocate(GameGraph.size(n, e));
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(e);
+		for (int p = 0; p < n; p++)
+		{
+			Board board = positions.get(p);
+			buffer.putInt(board.getBlack()).putInt(GameGraph.whiteWord(board));
+		}
+		for (int p = 0; p <= n; p++)
+			buffer.putInt(offsets.get(p));
+		for (int i = 0; i < e; i++)
+			buffer.putInt(targets.get(i));
+		buffer.put(Brain.allActive(e));
+
+		try
+		{
+			return new GameGraph(buffer, null);
+		}
+		catch (IOException ex)
+		{
+			// Cannot happen, the snapshot was laid out above.
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Opens a snapshot file by mapping it into memory.
+	 * @param file - the snapshot file.
+	 * @return the game graph stored in the file.
+	 * @throws IOException if the file cannot be mapped, or is not a valid snapshot.
+	 */
+	public static GameGraph open(File file) throws IOException
+	{
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			GameGraph graph = new GameGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), raf);
+			Metrics.stop(Metrics.GRAPH_OPEN, start, allocations);
+			if (Metrics.isEnabled())
+			{
+				Metrics.gauge(Metrics.POSITIONS, graph.getPositionCount());
+				Metrics.gauge(Metrics.EDGES, graph.getEdgeCount());
+				Metrics.gauge(Metrics.DEPTH, graph.getDepth());
+			}
+			return graph;
+		}
+		catch (IOException ex)
+		{
+			raf.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Copies a snapshot, eg. the one bundled with the application, to a file.
+	 * The snapshot is first written to a temporary file, which then replaces
+	 * the given file, so that a partially written snapshot is never left behind.
+	 * @param in - the snapshot contents, closed once copied.
+	 * @param file - the destination file.
+	 * @throws IOException if the snapshot cannot be read, or the file cannot be written.
+	 */
+	public static void install(InputStream in, File file) throws IOException
+	{
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try
+		{
+			byte[] chunk = new byte[4096];
+			int n;
+			while ((n = in.read(chunk)) >= 0)
+				out.write(chunk, 0, n);
+			out.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+			in.close();
+		}
+		GameGraph.replace(temp, file);
+	}
+
+	/**
+	 * Writes this snapshot to a file. The snapshot is first written to
+	 * a temporary file, which then replaces the given file, so that
+	 * a partially written snapshot is never left behind.
+	 * @param file - the destination file.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void writeTo(File file) throws IOException
+	{
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try
+		{
+			this.writeTo(out);
+			out.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+		GameGraph.replace(temp, file);
+	}
+
+	/**
+	 * Writes this snapshot to a stream.
+	 * @param out - the destination stream.
+	 * @throws IOException if the stream cannot be written.
+	 */
+	public void writeTo(OutputStream out) throws IOException
+	{
+		ByteBuffer contents = this.buffer.duplicate();
+		contents.clear();
+		byte[] chunk = new byte[4096];
+		while (contents.hasRemaining())
+		{
+			int n = Math.min(chunk.length, contents.remaining());
+			contents.get(chunk, 0, n);
+			out.write(chunk, 0, n);
+		}
+	}
+
+	/**
+	 * Releases the file backing this snapshot, if any.
+	 */
+	public void close()
+	{
+		if (this.file != null)
+		{
+			try
+			{
+				this.file.close();
+			}
+			catch (IOException ex)
+			{
+				// Nothing left to release.
+			}
+		}
+	}
+
+	// Accessors
+
+	public int getPositionCount()
+	{
+		return this.positionCount;
+	}
+
+	public int getEdgeCount()
+	{
+		return this.edgeCount;
+	}
+
+	/**
+	 * Gets the id of the starting position.
+	 * @return the root position id.
+	 */
+	public int getRoot()
+	{
+		return 0;
+	}
+
+	public int getBlack(int position)
+	{
+		return this.buffer.getInt(this.positionsOffset + position * POSITION_SIZE);
+	}
+
+	public int getWhite(int position)
+	{
+		return this.buffer.getInt(this.positionsOffset + position * POSITION_SIZE + 4) & ~TURN_WHITE;
+	}
+
+	public Board.Color getTurn(int position)
+	{
+		return (this.buffer.getInt(this.positionsOffset + position * POSITION_SIZE + 4) & TURN_WHITE) != 0
+				? Board.Color.WHITE : Board.Color.BLACK;
+	}
+
+	/**
+	 * Gets the first edge leaving the given position.
+	 * @param position - the position id.
+	 * @return the id of the first edge of the position.
+	 */
+	public int getFirstEdge(int position)
+	{
+		return this.buffer.getInt(this.offsetsOffset + position * 4);
+	}
+
+	/**
+	 * Gets the end of the edges leaving the given position.
+	 * @param position - the position id.
+	 * @return one past the id of the last edge of the position.
+	 */
+	public int getEdgeEnd(int position)
+	{
+		return this.buffer.getInt(this.offsetsOffset + (position + 1) * 4);
+	}
+
+	/**
+	 * Gets the position reached by following an edge.
+	 * @param edge - the edge id.
+	 * @return the id of the resulting position.
+	 */
+	public int getTarget(int edge)
+	{
+		return this.buffer.getInt(this.targetsOffset + edge * 4);
+	}
+
+	/**
+	 * Look up the edge of a position which leads to the given pawn
+	 * configuration, to see if it is the result of a legal move.
+	 * @param position - the position id.
+	 * @param black - bit array of black pawns after the move.
+	 * @param white - bit array of white pawns after the move.
+	 * @return the edge id if it is found, indicating a legal move; -1 otherwise.
+	 */
+	public int findEdge(int position, int black, int white)
+	{
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		int found = -1;
+		for (int edge = this.getFirstEdge(position), end = this.getEdgeEnd(position); edge < end && found < 0; edge++)
+		{
+			int target = this.getTarget(edge);
+			if (this.getBlack(target) == black && this.getWhite(target) == white)
+				found = edge;
+		}
+		Metrics.stop(Metrics.LEGAL, start, allocations);
+		return found;
+	}
+
+	/**
+	 * Produces a single Board for the given position. The Board has no
+	 * children, and is only meant for examining the pawns.
+	 * @param position - the position id.
+	 * @return a Board with the pawns and turn of the position.
+	 */
+	public Board toBoard(int position)
+	{
+		return new Board(this.getBlack(position), this.getWhite(position), this.getTurn(position));
+	}
+
+	/**
+	 * Determines the move made by following an edge.
+	 * @param position - the position id the edge leaves.
+	 * @param edge - the edge id.
+	 * @return the Move made.
+	 */
+	public Move getMove(int position, int edge)
+	{
+		return this.toBoard(position).getMove(this.toBoard(this.getTarget(edge)));
+	}
+
+	/**
+	 * Computes a fingerprint of the graph structure, ie. everything but the
+	 * learning state. Position and edge ids only carry over between graphs
+	 * with the same fingerprint.
+	 * @return CRC32 of the positions and edges of the snapshot.
+	 */
+	public int getFingerprint()
+	{
+		CRC32 crc = new CRC32();
+		ByteBuffer contents = this.buffer.duplicate();
+		contents.clear();
+		byte[] chunk = new byte[4096];
+		while (contents.position() < this.learningOffset)
+		{
+			int n = Math.min(chunk.length, this.learningOffset - contents.position());
+			contents.get(chunk, 0, n);
+			crc.update(chunk, 0, n);
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Measures the depth of the graph.
+	 * @return the number of moves in the longest game.
+	 */
+	public int getDepth()
+	{
+		int[] depths = new int[this.positionCount];
+		Arrays.fill(depths, -1);
+		return this.getDepth(this.getRoot(), depths);
+	}
+
+	/**
+	 * Reads the learning state stored with the snapshot, which every
+	 * Brain starts out from.
+	 * @return a copy of the learning bitset, one bit per edge, set if the edge is active.
+	 */
+	public byte[] readLearning()
+	{
+		byte[] learning = new byte[(this.edgeCount + 7) / 8];
+		ByteBuffer bits = this.buffer.duplicate();
+		bits.position(this.learningOffset);
+		bits.get(learning);
+		return learning;
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Recursively measures the depth of the graph below a position.
+	 * @param position - the position id.
+	 * @param depths - the depths measured so far, -1 where not yet measured.
+	 * @return the number of moves in the longest game from the position.
+	 */
+	private int getDepth(int position, int[] depths)
+	{
+		if (depths[position] < 0)
+		{
+			int depth = 0;
+			for (int edge = this.getFirstEdge(position), end = this.getEdgeEnd(position); edge < end; edge++)
+				depth = Math.max(depth, this.getDepth(this.getTarget(edge), depths) + 1);
+			depths[position] = depth;
+		}
+		return depths[position];
+	}
+
+	/**
+	 * Replaces a file with a completely written temporary file.
+	 * @param temp - the temporary file.
+	 * @param file - the file to replace.
+	 * @throws IOException if the file cannot be replaced.
+	 */
+	private static void replace(File temp, File file) throws IOException
+	{
+		if (! temp.renameTo(file))
+		{
+			temp.delete();
+			throw new IOException("Unable to replace " + file);
+		}
+	}
+
+	/**
+	 * Calculates the size of a snapshot.
+	 * @param positions - the number of positions.
+	 * @param edges - the number of edges.
+	 * @return the size of the snapshot, in bytes.
+	 */
+	private static int size(int positions, int edges)
+	{
+		return HEADER_SIZE + positions * POSITION_SIZE + (positions + 1) * 4 + edges * 4 + (edges + 7) / 8;
+	}
+
+	/**
+	 * Produces the white word of a position record, holding the
+	 * white pawns and the turn.
+	 * @param board - the Board being stored.
+	 * @return the white pawns, with the top bit set if WHITE is to move.
+	 */
+	private static int whiteWord(Board board)
+	{
+		return board.getWhite() | (board.getTurn() == Board.Color.WHITE ? TURN_WHITE : 0);
+	}
+
+	/**
+	 * Produces a key identifying a position, for merging identical positions.
+	 * @param board - the Board being keyed.
+	 * @return the black pawns, white pawns and turn packed into one value.
+	 */
+	private static Long key(Board board)
+	{
+		return Long.valueOf(((long) board.getBlack() << 32) | (GameGraph.whiteWord(board) & 0xffffffffL));
+	}
+}
@@ -0,0 +1,142 @@
+package com.savanto.hexapawn;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * @author savanto
+ *
+ * The history of every game played, kept in the Games table of the database.
+ * Finished games are not written one by one: they are held until a batch
+ * has built up, or the history is flushed, and then inserted together,
+ * in a single transaction on the persistence thread.
+ * Nothing is written while a game is in progress.
+ */
+public class GameHistory
+{
+	/**
+	 * Number of finished games held before they are written.
+	 */
+	public static final int BATCH_SIZE = 8;
+
+	/**
+	 * The database holding the history.
+	 */
+	private final DatabaseHelper dbHelper;
+
+	/**
+	 * The thread on which the history is written and queried.
+	 */
+	private final PersistenceExecutor persistence;
+
+	/**
+	 * Finished games not yet written.
+	 */
+	private ArrayList<GameRecord> pending = new ArrayList<GameRecord>(BATCH_SIZE);
+
+	// Constructors
+
+	/**
+	 * Constructor.
+	 * @param dbHelper - the database holding the history.
+	 * @param persistence - the thread on which the history is written.
+	 */
+	public GameHistory(DatabaseHelper dbHelper, PersistenceExecutor persistence)
+	{
+		this.dbHelper = dbHelper;
+		this.persistence = persistence;
+	}
+
+	// Accessors
+
+	/**
+	 * Queries the computer's win rate over time, on the persistence thread,
+	 * after every game recorded so far has been written.
+	 * @param since - the earliest finish time to include, in ms since the epoch.
+	 * @param period - the length of each period, in ms.
+	 * @return a future holding one row per period with games, oldest first.
+	 */
+	public Future<ArrayList<GameStats>> getWinRate(final long since, final long period)
+	{
+		this.flush();
+		return this.persistence.submit(new Callable<ArrayList<GameStats>>()
+		{
+			@Override
+			public ArrayList<GameStats> call()
+			{
+				return GameHistory.this.dbHelper.getWinRate(since, period);
+			}
+		});
+	}
+
+	/**
+	 * Queries the lines of play the computer has lost most often, on the
+	 * persistence thread, after every game recorded so far has been written.
+	 * @param limit - the maximum number of lines.
+	 * @return a future holding one row per line, most frequent first.
+	 */
+	public Future<ArrayList<GameStats>> getLosingLines(final int limit)
+	{
+		this.flush();
+		return this.persistence.submit(new Callable<ArrayList<GameStats>>()
+		{
+			@Override
+			public ArrayList<GameStats> call()
+			{
+				return GameHistory.this.dbHelper.getLosingLines(limit);
+			}
+		});
+	}
+
+	/**
+	 * Queries the computer's win rate after each opening Move, on the
+	 * persistence thread, after every game recorded so far has been written.
+	 * @return a future holding one row per opening.
+	 */
+	public Future<ArrayList<GameStats>> getOpenings()
+	{
+		this.flush();
+		return this.persistence.submit(new Callable<ArrayList<GameStats>>()
+		{
+			@Override
+			public ArrayList<GameStats> call()
+			{
+				return GameHistory.this.dbHelper.getOpenings();
+			}
+		});
+	}
+
+	// Modifiers
+
+	/**
+	 * Records a finished game. The game is written once a batch has built up.
+	 * @param game - the finished game.
+	 */
+	public synchronized void record(GameRecord game)
+	{
+		this.pending.add(game);
+		if (this.pending.size() >= GameHistory.BATCH_SIZE)
+			this.flush();
+	}
+
+	/**
+	 * Queues a write of all finished games not yet written, eg. when the app is paused.
+	 */
+	public synchronized void flush()
+	{
+		if (this.pending.isEmpty())
+			return;
+
+		final ArrayList<GameRecord> games = this.pending;
+		this.pending = new ArrayList<GameRecord>(GameHistory.BATCH_SIZE);
+		this.persistence.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				GameHistory.this.dbHelper.insertGames(games);
+			}
+		});
+	}
+}
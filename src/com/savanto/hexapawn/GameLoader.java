@@ -0,0 +1,493 @@
+package com.savanto.hexapawn;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteException;
+import android.os.AsyncTask;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * @author savanto
+ *
+ * Loads the game graph, the Brains of the computer, the game history and the statistics
+ * off the UI thread, so the activity can show its empty board at once.
+ * Once the graph is loaded, the hint engine is started on it.
+ *
+ * The loader outlives configuration changes: the activity hands it over
+ * to its next instance, which attaches to it as the new Listener. The result
+ * is delivered to whichever Listener is attached when loading completes,
+ * or on attaching, if loading has already completed.
+ */
+public class GameLoader extends AsyncTask<Void, Integer, Void>
+{
+	/**
+	 * Receives the progress and result of loading, on the UI thread.
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called as loading moves on to the next stage.
+		 * @param stage - STAGE_GRAPH or STAGE_LEARNING.
+		 */
+		public void onLoadProgress(int stage);
+
+		/**
+		 * Called once loading has completed.
+		 * @param loader - the loader holding the results.
+		 */
+		public void onLoaded(GameLoader loader);
+	}
+
+	/**
+	 * The loading stages.
+	 * STAGE_GRAPH: installing or opening the game graph snapshot.
+	 * STAGE_LEARNING: opening the Brains, replaying their journals, opening the history, and reading the statistics.
+	 */
+	public static final int STAGE_GRAPH = 0;
+	public static final int STAGE_LEARNING = 1;
+
+	/**
+	 * SharedPreferences keys
+	 */
+	public static final String KEY_GAMES_PLAYED = "games_played";
+	public static final String KEY_WHITE_WINS = "white_wins";
+	public static final String KEY_BRAIN = "brain";
+	public static final String KEY_DIFFICULTY = "difficulty";
+
+	/**
+	 * The application context, safe to hold across activity instances.
+	 */
+	private final Context context;
+
+	/**
+	 * The attached Listener, or null if none.
+	 */
+	private Listener listener;
+
+	/**
+	 * Set once loading has completed, and once the results are no longer wanted.
+	 */
+	private boolean loaded;
+	private boolean abandoned;
+
+	/**
+	 * The thread releasing an abandoned loader, or null if none has been
+	 * abandoned. Only used on the UI thread.
+	 */
+	private static Thread releasing;
+
+	/**
+	 * The release this loader waits for, before opening the same files.
+	 */
+	private final Thread previous;
+
+	/**
+	 * Set if this is the first time the app is launched.
+	 */
+	private boolean firstLaunch;
+
+	/**
+	 * The learning of an older version, kept in the Boards database,
+	 * to be carried over to the default Brain, or null if none.
+	 */
+	private Board legacyLearning;
+
+	/**
+	 * The game graph snapshot just installed, under a temporary name until
+	 * the learning of an older version has been carried over, or null if none.
+	 */
+	private File installedGraph;
+
+	/**
+	 * The results.
+	 */
+	private GameGraph graph;
+	private Brain[] brains;
+	private int brainIndex;
+	private int difficulty;
+	private PersistenceExecutor persistence;
+	private DatabaseHelper dbHelper;
+	private GameHistory history;
+	private HintEngine hints;
+	private SharedPreferences preferences;
+	private int gamesPlayed;
+	private int whiteWins;
+	private int skill;
+
+	// Constructors
+
+	/**
+	 * Constructor.
+	 * @param context - a Context of the application.
+	 */
+	public GameLoader(Context context)
+	{
+		this.context = context.getApplicationContext();
+		this.previous = GameLoader.releasing;
+	}
+
+	// Accessors
+
+	public GameGraph getGraph()
+	{
+		return this.graph;
+	}
+
+	/**
+	 * Gets the Brains, in the order of the brain_keys resource.
+	 * @return the loaded Brains.
+	 */
+	public Brain[] getBrains()
+	{
+		return this.brains;
+	}
+
+	/**
+	 * Gets the Brain played when the app was last used.
+	 * @return the index of the Brain in getBrains().
+	 */
+	public int getBrainIndex()
+	{
+		return this.brainIndex;
+	}
+
+	/**
+	 * Gets the level played when the app was last used.
+	 * @return the index of the level in Difficulty.LEVELS.
+	 */
+	public int getDifficulty()
+	{
+		return this.difficulty;
+	}
+
+	public PersistenceExecutor getPersistence()
+	{
+		return this.persistence;
+	}
+
+	public GameHistory getHistory()
+	{
+		return this.history;
+	}
+
+	public HintEngine getHints()
+	{
+		return this.hints;
+	}
+
+	public SharedPreferences getPreferences()
+	{
+		return this.preferences;
+	}
+
+	public int getGamesPlayed()
+	{
+		return this.gamesPlayed;
+	}
+
+	public int getWhiteWins()
+	{
+		return this.whiteWins;
+	}
+
+	/**
+	 * Gets the AI skill of the current Brain at the time of loading.
+	 * @return skill of AI, as a percentage of 100
+	 */
+	public int getSkill()
+	{
+		return this.skill;
+	}
+
+	/**
+	 * Checks whether this is the first time the app is launched.
+	 * Only reported once, so the instructions are not shown again
+	 * after a configuration change.
+	 * @return true on the first launch of the app.
+	 */
+	public boolean takeFirstLaunch()
+	{
+		boolean firstLaunch = this.firstLaunch;
+		this.firstLaunch = false;
+		return firstLaunch;
+	}
+
+	// Modifiers
+
+	/**
+	 * Attaches a Listener, replacing any attached before. If loading
+	 * has completed, the Listener receives the results immediately.
+	 * @param listener - the Listener to attach.
+	 */
+	public void attach(Listener listener)
+	{
+		this.listener = listener;
+		if (this.loaded)
+			listener.onLoaded(this);
+	}
+
+	/**
+	 * Detaches the Listener, eg. while the activity is being re-created.
+	 */
+	public void detach()
+	{
+		this.listener = null;
+	}
+
+	/**
+	 * Gives up the results, eg. when the activity is finishing.
+	 * Everything opened is released in the background, as soon as loading completes.
+	 */
+	public void abandon()
+	{
+		this.listener = null;
+		this.abandoned = true;
+		if (this.loaded)
+			this.releaseInBackground();
+	}
+
+	/* (non-Javadoc)
+	 * @see android.os.AsyncTask#doInBackground(Params[])
+	 */
+	@Override
+	protected Void doInBackground(Void... params)
+	{
+		// The files are still being released by the loader of an earlier instance.
+		if (this.previous != null)
+		{
+			try
+			{
+				this.previous.join();
+			}
+			catch (InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		this.publishProgress(GameLoader.STAGE_GRAPH);
+		this.graph = this.openGraph();
+
+		this.publishProgress(GameLoader.STAGE_LEARNING);
+		String[] keys = this.context.getResources().getStringArray(R.array.brain_keys);
+		this.brains = new Brain[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			this.brains[i] = this.openBrain(keys[i]);
+		this.completeInstall();
+		this.persistence = new PersistenceExecutor();
+
+		// Open the game history, once any learning of older versions has been read.
+		this.dbHelper = new DatabaseHelper(this.context);
+		this.history = new GameHistory(this.dbHelper, this.persistence);
+		this.hints = new HintEngine(this.graph);
+
+		// Load the current Brain, level and stats from shared preferences
+		this.preferences = PreferenceManager.getDefaultSharedPreferences(this.context);
+		String current = this.preferences.getString(GameLoader.KEY_BRAIN, Brain.DEFAULT);
+		for (int i = 0; i < keys.length; i++)
+		{
+			if (keys[i].equals(current))
+				this.brainIndex = i;
+		}
+		this.skill = this.brains[this.brainIndex].getSkill();
+		this.difficulty = this.preferences.getInt(GameLoader.KEY_DIFFICULTY, Difficulty.DEFAULT);
+		this.gamesPlayed = this.preferences.getInt(GameLoader.KEY_GAMES_PLAYED, 0);
+		this.whiteWins = this.preferences.getInt(GameLoader.KEY_WHITE_WINS, 0);
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see android.os.AsyncTask#onProgressUpdate(Progress[])
+	 */
+	@Override
+	protected void onProgressUpdate(Integer... stage)
+	{
+		if (this.listener != null)
+			this.listener.onLoadProgress(stage[0]);
+	}
+
+	/* (non-Javadoc)
+	 * @see android.os.AsyncTask#onPostExecute(java.lang.Object)
+	 */
+	@Override
+	protected void onPostExecute(Void result)
+	{
+		this.loaded = true;
+		if (this.abandoned)
+			this.releaseInBackground();
+		else if (this.listener != null)
+			this.listener.onLoaded(this);
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Opens the game graph snapshot. If there is none yet, the snapshot
+	 * bundled with the app is installed for this and every later run.
+	 * The learning of an older version, kept in the Boards database,
+	 * is read to be carried over to the default Brain. The snapshot only
+	 * takes its final name once that is done, see completeInstall(),
+	 * so an interrupted migration starts over on the next run.
+	 * @return the game graph.
+	 */
+	private GameGraph openGraph()
+	{
+		File graphFile = this.context.getFileStreamPath(GameGraph.FILE_NAME);
+		File installed = new File(graphFile.getPath() + ".new");
+		try
+		{
+			if (graphFile.exists())
+				return GameGraph.open(graphFile);
+
+			// Install the pre-generated game graph.
+			GameGraph.install(this.context.getResources().openRawResource(R.raw.game_graph), installed);
+			GameGraph graph = GameGraph.open(installed);
+			this.installedGraph = installed;
+
+			// Check if database of a previous version exists.
+			File dbFile = this.context.getDatabasePath(DatabaseHelper.DATABASE_NAME);
+			if (dbFile.exists())
+			{
+				// Carry over the moves the computer has pruned so far.
+				DatabaseHelper dbHelper = new DatabaseHelper(this.context);
+				try
+				{
+					this.legacyLearning = dbHelper.loadBoards();
+				}
+				catch (SQLiteException ex)
+				{
+					// Leave the snapshot uninstalled, to try again next run.
+					Log.w(HexapawnActivity.TAG, "Unable to read learning of older version", ex);
+					this.installedGraph = null;
+				}
+				finally
+				{
+					dbHelper.close();
+				}
+			}
+			else
+				this.firstLaunch = true;
+			return graph;
+		}
+		catch (IOException ex)
+		{
+			// Discard the unusable snapshot, it will be installed again next run.
+			// Play from a freshly generated graph in the mean time.
+			Log.w(HexapawnActivity.TAG, "Unable to open game graph", ex);
+			graphFile.delete();
+			installed.delete();
+
+			// Create starting Board and generate child moves.
+			// Default starting Board:
+			// b b b	7 << 6, 111 000 000
+			// . . .
+			// w w w	7		000 000 111
+			// WHITE to move
+			Board root = new Board(Board.RANK_3, Board.RANK_1, Board.Color.WHITE);
+			root.generate();
+			return GameGraph.build(root);
+		}
+	}
+
+	/**
+	 * Opens a Brain and its journal, replaying the learning recorded
+	 * since the journal was last compacted. The default Brain takes over
+	 * the learning of older versions.
+	 * @param name - the name of the Brain.
+	 * @return the Brain, held in memory only if its file cannot be used.
+	 */
+	private Brain openBrain(String name)
+	{
+		File dir = this.context.getFilesDir();
+		if (name.equals(Brain.DEFAULT))
+		{
+			// Take over the journal of the single Brain of older versions.
+			File legacy = this.context.getFileStreamPath(LearningJournal.LEGACY_FILE_NAME);
+			File journal = this.context.getFileStreamPath(Brain.getJournalName(name));
+			if (legacy.exists() && ! journal.exists())
+				legacy.renameTo(journal);
+		}
+
+		Brain brain;
+		try
+		{
+			brain = Brain.open(dir, name, this.graph);
+			if (name.equals(Brain.DEFAULT) && this.legacyLearning != null)
+			{
+				brain.importLearning(this.legacyLearning);
+				brain.save();
+				this.legacyLearning = null;
+			}
+		}
+		catch (IOException ex)
+		{
+			// Discard the unusable Brain, it will be created again next run.
+			// Play on, learning from this run will not be kept.
+			Log.w(HexapawnActivity.TAG, "Unable to open brain " + name, ex);
+			this.context.getFileStreamPath(Brain.getFileName(name)).delete();
+			return new Brain(name, this.graph);
+		}
+
+		try
+		{
+			brain.openJournal(dir);
+		}
+		catch (IOException ex)
+		{
+			// Play on, learning from this run will not be kept.
+			Log.w(HexapawnActivity.TAG, "Unable to open learning journal of brain " + name, ex);
+		}
+		return brain;
+	}
+
+	/**
+	 * Gives the game graph snapshot just installed its final name, once
+	 * the learning of an older version has been saved in the default Brain.
+	 * Until then, the snapshot is installed again on the next run,
+	 * and the learning carried over again.
+	 */
+	private void completeInstall()
+	{
+		if (this.installedGraph == null || this.legacyLearning != null)
+			return;
+		File graphFile = this.context.getFileStreamPath(GameGraph.FILE_NAME);
+		if (! this.installedGraph.renameTo(graphFile))
+			Log.w(HexapawnActivity.TAG, "Unable to install game graph " + graphFile);
+		this.installedGraph = null;
+	}
+
+	/**
+	 * Releases everything opened on a thread of its own, so that the
+	 * UI thread does not wait for the pending writes to complete.
+	 */
+	private void releaseInBackground()
+	{
+		GameLoader.releasing = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				GameLoader.this.release();
+			}
+		}, "Hexapawn release");
+		GameLoader.releasing.start();
+	}
+
+	/**
+	 * Completes all pending writes, and closes everything opened.
+	 */
+	private void release()
+	{
+		this.hints.shutdown();
+		this.history.flush();
+		this.persistence.shutdown();
+		this.dbHelper.close();
+		for (int i = 0; i < this.brains.length; i++)
+			this.brains[i].close();
+		this.graph.close();
+	}
+}
@@ -0,0 +1,99 @@
+package com.savanto.hexapawn;
+
+/**
+ * @author savanto
+ *
+ * One finished game, as stored in the game history: the Brain played
+ * against, the packed Moves in the order they were made, the winner,
+ * and the times the game started and finished.
+ */
+public class GameRecord
+{
+	/**
+	 * The Brain the computer played with.
+	 */
+	private final String brain;
+
+	/**
+	 * Start and finish times, in ms since the epoch.
+	 */
+	private final long started;
+	private final long finished;
+
+	/**
+	 * The winner.
+	 */
+	private final Board.Color winner;
+
+	/**
+	 * The Moves made, packed one per byte.
+	 */
+	private final byte[] moves;
+
+	// Constructors
+
+	/**
+	 * Constructor.
+	 * @param brain - the name of the Brain the computer played with.
+	 * @param started - the start time, in ms since the epoch.
+	 * @param finished - the finish time, in ms since the epoch.
+	 * @param winner - the color which won.
+	 * @param moves - the packed Moves, see MoveHistory.getMoves().
+	 */
+	public GameRecord(String brain, long started, long finished, Board.Color winner, byte[] moves)
+	{
+		this.brain = brain;
+		this.started = started;
+		this.finished = finished;
+		this.winner = winner;
+		this.moves = moves;
+	}
+
+	// Accessors
+
+	public String getBrain()
+	{
+		return this.brain;
+	}
+
+	public long getStarted()
+	{
+		return this.started;
+	}
+
+	public long getFinished()
+	{
+		return this.finished;
+	}
+
+	public Board.Color getWinner()
+	{
+		return this.winner;
+	}
+
+	/**
+	 * Gets the Moves made.
+	 * @return the packed Moves, one per byte.
+	 */
+	public byte[] getMoves()
+	{
+		return this.moves;
+	}
+
+	/**
+	 * Produces a sequence of packed Moves in coordinate notation.
+	 * @param moves - the packed Moves.
+	 * @return the Moves, eg. "b1-b2 a3-b2".
+	 */
+	public static String describe(byte[] moves)
+	{
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < moves.length; i++)
+		{
+			if (i > 0)
+				line.append(' ');
+			line.append(Move.unpack(moves[i]));
+		}
+		return line.toString();
+	}
+}
@@ -0,0 +1,42 @@
+package com.savanto.hexapawn;
+
+/**
+ * @author savanto
+ *
+ * One row of a game history query: the games grouped under a key,
+ * eg. a period of time, an opening Move, or a line of play.
+ */
+public class GameStats
+{
+	/**
+	 * The grouping key: start of the period in ms, or the packed opening Move.
+	 */
+	public long key;
+
+	/**
+	 * The packed Moves of the line of play, or null if not grouped by line.
+	 */
+	public byte[] line;
+
+	/**
+	 * The number of games, and how many of them WHITE won.
+	 */
+	public int games, whiteWins;
+
+	public GameStats(long key, byte[] line, int games, int whiteWins)
+	{
+		this.key = key;
+		this.line = line;
+		this.games = games;
+		this.whiteWins = whiteWins;
+	}
+
+	/**
+	 * Calculates how often the computer (BLACK) won.
+	 * @return the computer's win rate, as a percentage of 100
+	 */
+	public int getBlackWinRate()
+	{
+		return this.games == 0 ? 0 : (this.games - this.whiteWins) * 100 / this.games;
+	}
+}
@@ -0,0 +1,185 @@
+package com.savanto.hexapawn;
+
+/**
+ * @author savanto
+ *
+ * A walk over the positions of a game graph, visiting every position
+ * reachable from a starting position exactly once, however many move
+ * orders transpose into it. The walk may be restricted:
+ *
+ * from(position)	to the positions reachable from a position, ie. its subtree,
+ * 					rather than from the root.
+ * through(brain)	to the moves a Brain may still play, ie. its active edges.
+ * terminalOnly()	to the positions ending the game, with no moves at all.
+ *
+ * A GraphWalk never changes: each restriction returns a new walk, so walks
+ * may be shared between threads. The positions are listed in ascending
+ * order of their ids, ie. breadth-first from the root of the graph, as an
+ * array which may be split into ranges, to be processed in parallel.
+ * Each listing walks the graph afresh, so it sees the current learning of the Brain.
+ */
+public class GraphWalk
+{
+	/**
+	 * Receives the positions of a walk, see forEach().
+	 */
+	public interface Visitor
+	{
+		void visit(int position);
+	}
+
+	private final GameGraph graph;
+	private final int from;
+	private final Brain brain;
+	private final boolean terminalOnly;
+
+	// Constructors
+
+	/**
+	 * Constructor. Walks every position of a graph, through all moves.
+	 * @param graph - the game graph.
+	 */
+	public GraphWalk(GameGraph graph)
+	{
+		this(graph, graph.getRoot(), null, false);
+	}
+
+	private GraphWalk(GameGraph graph, int from, Brain brain, boolean terminalOnly)
+	{
+		if (from < 0 || from >= graph.getPositionCount())
+			throw new IllegalArgumentException("No position " + from);
+		if (brain != null && brain.getGraph() != graph)
+			throw new IllegalArgumentException("Brain " + brain.getName() + " learns another graph");
+		this.graph = graph;
+		this.from = from;
+		this.brain = brain;
+		this.terminalOnly = terminalOnly;
+	}
+
+	// Accessors
+
+	public GameGraph getGraph()
+	{
+		return this.graph;
+	}
+
+	/**
+	 * Restricts the walk to the positions reachable from a position, including itself.
+	 * @param position - the position id the walk starts from.
+	 * @return the restricted walk.
+	 */
+	public GraphWalk from(int position)
+	{
+		return new GraphWalk(this.graph, position, this.brain, this.terminalOnly);
+	}
+
+	/**
+	 * Restricts the walk to the moves a Brain has not pruned. The moves are
+	 * those active when the walk is listed, not when it is restricted.
+	 * @param brain - the Brain, learning the graph of the walk.
+	 * @return the restricted walk.
+	 */
+	public GraphWalk through(Brain brain)
+	{
+		return new GraphWalk(this.graph, this.from, brain, this.terminalOnly);
+	}
+
+	/**
+	 * Restricts the walk to the positions which end the game, ie. those without moves.
+	 * A Brain having pruned every move of a position does not end the game.
+	 * @return the restricted walk.
+	 */
+	public GraphWalk terminalOnly()
+	{
+		return new GraphWalk(this.graph, this.from, this.brain, true);
+	}
+
+	/**
+	 * Lists the positions of the walk.
+	 * @return the position ids, in ascending order, each appearing once.
+	 */
+	public int[] toArray()
+	{
+		boolean[] reached = this.reach();
+		int[] positions = new int[this.count(reached)];
+		for (int p = 0, n = 0; n < positions.length; p++)
+		{
+			if (this.accepts(p, reached))
+				positions[n++] = p;
+		}
+		return positions;
+	}
+
+	/**
+	 * Counts the positions of the walk.
+	 * @return the number of positions.
+	 */
+	public int count()
+	{
+		return this.count(this.reach());
+	}
+
+	/**
+	 * Visits the positions of the walk, in ascending order.
+	 * @param visitor - the Visitor to call with each position id.
+	 */
+	public void forEach(Visitor visitor)
+	{
+		boolean[] reached = this.reach();
+		for (int p = 0; p < reached.length; p++)
+		{
+			if (this.accepts(p, reached))
+				visitor.visit(p);
+		}
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Walks the graph breadth-first from the starting position.
+	 * @return reached[p]: true if position p was reached.
+	 */
+	private boolean[] reach()
+	{
+		GameGraph graph = this.graph;
+		boolean[] reached = new boolean[graph.getPositionCount()];
+		int[] queue = new int[graph.getPositionCount()];
+		int head = 0, tail = 0;
+		queue[tail++] = this.from;
+		reached[this.from] = true;
+		while (head < tail)
+		{
+			int p = queue[head++];
+			for (int edge = graph.getFirstEdge(p), end = graph.getEdgeEnd(p); edge < end; edge++)
+			{
+				int target = graph.getTarget(edge);
+				if (! reached[target] && (this.brain == null || this.brain.isActive(edge)))
+				{
+					reached[target] = true;
+					queue[tail++] = target;
+				}
+			}
+		}
+		return reached;
+	}
+
+	/**
+	 * Checks whether a reached position belongs to the walk.
+	 */
+	private boolean accepts(int position, boolean[] reached)
+	{
+		return reached[position]
+				&& (! this.terminalOnly || this.graph.getFirstEdge(position) == this.graph.getEdgeEnd(position));
+	}
+
+	private int count(boolean[] reached)
+	{
+		int count = 0;
+		for (int p = 0; p < reached.length; p++)
+		{
+			if (this.accepts(p, reached))
+				count++;
+		}
+		return count;
+	}
+}
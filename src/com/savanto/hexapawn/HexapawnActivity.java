@@ -1,36 +1,54 @@
 package com.savanto.hexapawn;
 
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ComponentCallbacks2;
 import android.content.DialogInterface;
 import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Handler;
-import android.preference.PreferenceManager;
+import android.os.SystemClock;
+import android.os.StrictMode;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
-import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnClickListener;
-import android.view.View.OnTouchListener;
-import android.view.ViewTreeObserver;
-import android.view.ViewTreeObserver.OnGlobalLayoutListener;
 import android.widget.Button;
 import android.widget.ProgressBar;
-import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 
-public class HexapawnActivity extends Activity
+public class HexapawnActivity extends Activity implements GameLoader.Listener, BoardView.OnMoveListener
 {
 	/**
-	 * The time the computer takes to "think", in ms
-	 * This is a delay to keep the responding computer move from being
+	 * Tag for log messages.
+	 */
+	static final String TAG = "Hexapawn";
+
+	/**
+	 * The least time the computer takes to "think", in ms
+	 * Its move is shown as soon as it has been picked, but no sooner
+	 * than this, to keep the responding computer move from being
 	 * instant, and possibly confusing
 	 */
 	private static final long THINK_TIME = 500;
@@ -41,39 +59,121 @@ public class HexapawnActivity extends Activity
 	private static final long MESSAGE_TIME = 1500;
 
 	/**
-	 * SharedPreferences keys
+	 * The extent of the game history shown: the number of losing lines,
+	 * and the number of days of win rate, each day being DAY ms.
+	 */
+	private static final int HISTORY_LINES = 3;
+	private static final int HISTORY_DAYS = 7;
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	/**
+	 * Keys of the saved instance state. The game is saved as the edges and
+	 * packed Moves recorded, the number of moves made, and whether its outcome
+	 * has been accounted for, so it can be rebuilt from the graph directly.
+	 */
+	private static final String STATE_EDGES = "edges";
+	private static final String STATE_MOVES = "moves";
+	private static final String STATE_PLY = "ply";
+	private static final String STATE_FINISHED = "finished";
+	private static final String STATE_GAME_STARTED = "game_started";
+	private static final String STATE_GAMES_PLAYED = "games_played";
+	private static final String STATE_WHITE_WINS = "white_wins";
+	private static final String STATE_BRAIN = "brain";
+	private static final String STATE_DIFFICULTY = "difficulty";
+
+	/**
+	 * Loads the back-end off the UI thread, and holds it
+	 * across configuration changes.
+	 */
+	private GameLoader loader;
+
+	/**
+	 * The back-end game graph, holding all positions and moves.
+	 * New games start from its root position. Null until loaded.
+	 */
+	private GameGraph graph;
+
+	/**
+	 * The Brain the computer plays with, holding the moves it has not
+	 * yet pruned, and its index among the loader's Brains. Null and -1 until loaded.
+	 */
+	private Brain brain;
+	private int brainIndex = -1;
+
+	/**
+	 * The level the computer plays at, and its index among Difficulty.LEVELS.
+	 * Null and -1 until loaded.
+	 */
+	private Difficulty difficulty;
+	private int difficultyIndex = -1;
+
+	/**
+	 * The single thread on which learning and database writes happen.
+	 */
+	private PersistenceExecutor persistence;
+
+	/**
+	 * The history of finished games.
+	 */
+	private GameHistory history;
+
+	/**
+	 * Answers what the best move is in the current position.
+	 */
+	private HintEngine hints;
+
+	/**
+	 * The moves of the game being played, for undo and redo, and the time it started.
+	 * The last move the computer made is taken from it, to prune if a losing move.
+	 * Null until loaded.
 	 */
-	private static final String KEY_GAMES_PLAYED = "games_played";
-	private static final String KEY_WHITE_WINS = "white_wins";
+	private MoveHistory moves;
+	private long gameStarted;
 
 	/**
-	 * The root back-end Board used to start new games
+	 * The id of the current position being played, as held by the moves,
+	 * or -1 if a game has not been set up yet.
 	 */
-	private Board newBoard;
+	private int currentPosition = -1;
 
 	/**
-	 * The current back-end Board being played.
+	 * Reverts temporary status messages: the message to revert to, and the
+	 * temporary message shown, or null if none. The same Runnable is reposted
+	 * for every message.
 	 */
-	private Board currentBoard;
+	private Handler handler;
+	private CharSequence revertMessage;
+	private String temporaryMessage;
+	private final Runnable revertStatus = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			// Revert the message if it has not changed in the mean time
+			if (HexapawnActivity.this.status.getText() == HexapawnActivity.this.temporaryMessage)
+				HexapawnActivity.this.status.setText(HexapawnActivity.this.revertMessage);
+			HexapawnActivity.this.temporaryMessage = null;
+			HexapawnActivity.this.revertMessage = null;
+		}
+	};
 
 	/**
-	 * The last Board on which the computer made a move,
-	 * used to prune losing moves.
+	 * Set when the loader is handed over to the next instance of the
+	 * activity, so that it is not closed when this instance is destroyed.
 	 */
-	private Board parent;
+	private boolean retained;
 
 	/**
-	 * The last move that that the computer made,
-	 * used to prune from the parent if a losing move.
+	 * The saved instance state to restore the game from, once the back-end
+	 * is loaded, or null if there is none.
 	 */
-	private Board choice;
+	private Bundle savedGame;
 
 	/**
 	 * The graphic representation of the Board being played,
-	 * providing direct access to the objects with which 
-	 * the user will be interacting.
+	 * with which the user will be interacting.
 	 */
-	private PawnView[][] pawns;
+	private BoardView boardView;
 
 	/**
 	 * The number of players:
@@ -88,12 +188,6 @@ public class HexapawnActivity extends Activity
 	 */
 	private Random rng;
 
-	/**
-	 * The main container layout and the board squares layout.
-	 */
-	private RelativeLayout relativeLayout;
-	private SquareLayout squareLayout;
-
 	/**
 	 * Status message label. Updated with info for the player.
 	 */
@@ -109,13 +203,9 @@ public class HexapawnActivity extends Activity
 	 */
 	private int gamesPlayed;
 	private int whiteWins;
+	private boolean statsRestored;
 	private TextView statGamesPlayed, statWhiteWins, statBlackWins;
 
-	/**
-	 * The database helper to interact with the Boards database.
-	 */
-	private DatabaseHelper dbHelper;
-
 	/**
 	 * Instructions dialog, shown at startup and when instructions are requested.
 	 */
@@ -129,6 +219,27 @@ public class HexapawnActivity extends Activity
 	public void onCreate(Bundle savedInstanceState)
 	{
 		super.onCreate(savedInstanceState);
+
+		// Report any disk access on the UI thread while developing.
+		boolean debuggable = (this.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+		if (debuggable && Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+			StrictModeSetup.enable();
+
+		// Measure the engine and the database while developing.
+		if (debuggable && ! Metrics.isEnabled())
+		{
+			Debug.startAllocCounting();
+			Metrics.setAllocationCounter(new Metrics.AllocationCounter()
+			{
+				@Override
+				public long count()
+				{
+					return Debug.getThreadAllocCount();
+				}
+			});
+			Metrics.setSink(new Metrics.Recorder());
+		}
+
 		this.setContentView(R.layout.main);
 
 		// Create the instructions dialog.
@@ -139,60 +250,32 @@ public class HexapawnActivity extends Activity
 			.setNeutralButton("Ok", new DialogInterface.OnClickListener(){ @Override public void onClick(DialogInterface dialog, int which) { dialog.dismiss(); } })
 			.create();
 
-		// Create the initial back-end board.
-		// If this is the first time the app is launched,
-		// generate all boards and create database.
-		// Otherwise, load all boards from database.
-		this.dbHelper = new DatabaseHelper(this);
-
-		// Check if this is a saved instance, and if it is, load the new and current Boards,
-		// or else go on to do database checking and loading, or new move tree generation.
-		Board[] savedBoards = (Board[]) this.getLastNonConfigurationInstance();
-		if (savedBoards != null)
+		// Check if this is a restarted instance, and if it is, take over the loader,
+		// or else start loading the back-end.
+		// The graph snapshot, learning journal and statistics are all loaded in the background,
+		// while the empty board is shown.
+		this.loader = (GameLoader) this.getLastNonConfigurationInstance();
+		if (this.loader == null)
 		{
-			this.newBoard = savedBoards[0];
-			this.currentBoard = savedBoards[1];
+			this.loader = new GameLoader(this);
+			this.loader.execute();
 		}
-		if (this.newBoard == null)
-		{
-			// It is not.
-			// Check if database exists.
-			File dbFile = this.getApplicationContext().getDatabasePath(DatabaseHelper.DATABASE_NAME);
-			// If database file exists, load boards from database
-			if (dbFile.exists())
-				this.newBoard = this.dbHelper.loadBoards();
 
-			// No database found, or there was an error loading it.
-			// Generate Boards and store them.
-			if (this.newBoard == null)
+		// Check if this is a saved instance, after a configuration change or the
+		// process being killed, and if it is, restore the stats and the AI now,
+		// and the current game once the back-end is loaded.
+		if (savedInstanceState != null)
+		{
+			this.savedGame = savedInstanceState;
+			this.brainIndex = savedInstanceState.getInt(HexapawnActivity.STATE_BRAIN, -1);
+			this.difficultyIndex = savedInstanceState.getInt(HexapawnActivity.STATE_DIFFICULTY, -1);
+			if (savedInstanceState.containsKey(HexapawnActivity.STATE_GAMES_PLAYED))
 			{
-				// Create starting Board and generate child moves.
-				// Default starting Board:
-				// b b b	7 << 6, 111 000 000
-				// . . .
-				// w w w	7		000 000 111
-				// WHITE to move
-				this.newBoard = new Board(Board.RANK_3, Board.RANK_1, Board.Color.WHITE);
-				this.newBoard.generate();
-
-				// Create and populate database with generated moves.
-				// This is a long operation, so do it on a separate thread.
-				// While the thread executes, the user will be presented with an already-complete
-				// moves tree, so they can begin playing.
-				new Thread(new Runnable()
-				{
-					@Override
-					public void run()
-					{
-						HexapawnActivity.this.dbHelper.storeBoards(HexapawnActivity.this.newBoard);
-					}
-				}).start();
-
-				// Display first time startup dialog with instructions.
-				this.instructionsDialog.show();
+				this.gamesPlayed = savedInstanceState.getInt(HexapawnActivity.STATE_GAMES_PLAYED);
+				this.whiteWins = savedInstanceState.getInt(HexapawnActivity.STATE_WHITE_WINS);
+				this.statsRestored = true;
 			}
 		}
-		
 
 		// Set player mode
 		// TODO: comp vs comp, human vs human modes.
@@ -201,30 +284,11 @@ public class HexapawnActivity extends Activity
 		// Initialize random number generator for computer move generation
 		if (this.players < 2)
 			this.rng = new Random();
+		this.handler = new Handler();
 
-		// Create the graphic pawns.
-		// This needs to be done after the board is measured and rendered,
-		// so we do it in a global layout listener.
-		this.relativeLayout = (RelativeLayout) this.findViewById(R.id.layout);
-		this.squareLayout = (SquareLayout) this.findViewById(R.id.board);
-		ViewTreeObserver vto = this.squareLayout.getViewTreeObserver();
-		vto.addOnGlobalLayoutListener(new OnGlobalLayoutListener()
-		{
-			@Override
-			public void onGlobalLayout()
-			{
-				// Use loaded current Board if not null, or
-				// set the current Board to the new game Board for new game
-				if (HexapawnActivity.this.currentBoard == null)
-					HexapawnActivity.this.currentBoard = HexapawnActivity.this.newBoard;
-				// Create new game layout.
-				HexapawnActivity.this.createGraphicBoard();
-
-				// Done setting up. Global layout listener is no longer
-				// needed, so kill it.
-				HexapawnActivity.this.squareLayout.getViewTreeObserver().removeGlobalOnLayoutListener(this);
-			}
-		});
+		// The board draws the pawns itself, and passes the player's moves back.
+		this.boardView = (BoardView) this.findViewById(R.id.board_view);
+		this.boardView.setOnMoveListener(this);
 
 		// Set up the rest of the interface, ie. buttons and labels.
 		// New game button
@@ -234,8 +298,11 @@ public class HexapawnActivity extends Activity
 			@Override
 			public void onClick(View v)
 			{
-				// Set the current Board to the new game Board
-				HexapawnActivity.this.currentBoard = HexapawnActivity.this.newBoard;
+				// Nothing to play until the back-end is loaded.
+				if (HexapawnActivity.this.graph == null)
+					return;
+				// Set the current position to the root
+				HexapawnActivity.this.newGame();
 				// Recreate graphics
 				HexapawnActivity.this.createGraphicBoard();
 			}
@@ -245,10 +312,11 @@ public class HexapawnActivity extends Activity
 		this.status = (TextView) this.findViewById(R.id.status);
 		
 		// AI skill setup.
-		// Only show skill bar if computer player is present
+		// Only show skill bar if computer player is present,
+		// and keep it busy until the skill is loaded.
 		this.skill = (ProgressBar) this.findViewById(R.id.skill);
 		if (this.players < 2)
-				HexapawnActivity.this.skill.setProgress(HexapawnActivity.this.dbHelper.getSkill());								
+			this.skill.setIndeterminate(true);
 		else
 			this.skill.setVisibility(View.GONE);
 
@@ -256,86 +324,248 @@ public class HexapawnActivity extends Activity
 		this.statGamesPlayed = (TextView) this.findViewById(R.id.stats_games);
 		this.statWhiteWins = (TextView) this.findViewById(R.id.stats_white_wins);
 		this.statBlackWins = (TextView) this.findViewById(R.id.stats_black_wins);
-		// Load stats from shared preferences
-		SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
-		this.gamesPlayed = sharedPrefs.getInt(HexapawnActivity.KEY_GAMES_PLAYED, 0);
-		this.whiteWins = sharedPrefs.getInt(HexapawnActivity.KEY_WHITE_WINS, 0);
+
+		// Receive the back-end once it is loaded,
+		// immediately if loading completed before a configuration change.
+		this.loader.attach(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.savanto.hexapawn.GameLoader.Listener#onLoadProgress(int)
+	 */
+	@Override
+	public void onLoadProgress(int stage)
+	{
+		switch (stage)
+		{
+			case GameLoader.STAGE_GRAPH:
+				this.status.setText(R.string.loading_graph);
+				break;
+			case GameLoader.STAGE_LEARNING:
+				this.status.setText(R.string.loading_learning);
+				break;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.savanto.hexapawn.GameLoader.Listener#onLoaded(com.savanto.hexapawn.GameLoader)
+	 */
+	@Override
+	public void onLoaded(GameLoader loader)
+	{
+		this.graph = loader.getGraph();
+		this.persistence = loader.getPersistence();
+		this.history = loader.getHistory();
+		this.hints = loader.getHints();
+		if (this.moves == null)
+		{
+			this.moves = new MoveHistory(this.graph);
+			this.restoreGame();
+		}
+		if (this.brainIndex < 0 || this.brainIndex >= loader.getBrains().length)
+			this.brainIndex = loader.getBrainIndex();
+		this.brain = loader.getBrains()[this.brainIndex];
+		if (this.difficultyIndex < 0)
+			this.difficultyIndex = loader.getDifficulty();
+		this.difficulty = Difficulty.getLevel(this.difficultyIndex);
+
+		if (this.players < 2)
+		{
+			this.skill.setIndeterminate(false);
+			this.skill.setProgress(this.brain.getSkill());
+		}
+
+		// Stats are only taken from the loader on a fresh start,
+		// after a configuration change they are handed over directly.
+		if (! this.statsRestored)
+		{
+			this.gamesPlayed = loader.getGamesPlayed();
+			this.whiteWins = loader.getWhiteWins();
+		}
 		this.updateStats();
+
+		// Display first time startup dialog with instructions.
+		if (loader.takeFirstLaunch())
+			this.instructionsDialog.show();
+
+		this.startGame();
 	}
 
 	/**
-	 * Create graphic pawns from the current board.
-	 * Called when creating a new game, or redrawing current game
-	 * due to orientation change.
+	 * Rebuild the game saved in the instance state, if any, from the graph.
+	 * A saved game which does not fit the graph is dropped, and a new game started.
 	 */
-	private void createGraphicBoard()
+	private void restoreGame()
 	{
-		int row, col;
-		// Initialize array of graphic pawns
-		Board.Color[][] pawnColors = this.currentBoard.toArray();
+		Bundle saved = this.savedGame;
+		this.savedGame = null;
+		if (saved == null || ! saved.containsKey(HexapawnActivity.STATE_EDGES))
+			return;
 
-		// Remove all pawns from the layout, if any.
-		if (this.pawns != null)
+		try
 		{
-			for (row = 0; row < Board.SIZE; row++)
+			this.moves.restore(saved.getIntArray(HexapawnActivity.STATE_EDGES), saved.getByteArray(HexapawnActivity.STATE_MOVES),
+					saved.getInt(HexapawnActivity.STATE_PLY), saved.getBoolean(HexapawnActivity.STATE_FINISHED));
+			this.currentPosition = this.moves.getPosition();
+			this.gameStarted = saved.getLong(HexapawnActivity.STATE_GAME_STARTED);
+		}
+		catch (IllegalArgumentException ex)
+		{
+			Log.w(HexapawnActivity.TAG, "Unable to restore saved game", ex);
+			this.moves.reset();
+		}
+	}
+
+	/**
+	 * Place the pawns of the current game, or a new game, once the
+	 * back-end has been loaded.
+	 */
+	private void startGame()
+	{
+		if (this.graph == null)
+			return;
+
+		// Use loaded current position if there is one, or
+		// set the current position to the root for new game
+		if (this.currentPosition < 0)
+			this.newGame();
+		this.createGraphicBoard();
+	}
+
+	/**
+	 * Set up the back-end for a new game, from the root position.
+	 */
+	private void newGame()
+	{
+		this.moves.reset();
+		this.currentPosition = this.moves.getPosition();
+		this.gameStarted = System.currentTimeMillis();
+	}
+
+	/**
+	 * Take back the last move. Against the computer, its reply is taken
+	 * back as well, so that it is the player's turn again.
+	 */
+	private void undoMove()
+	{
+		if (! this.moves.canUndo())
+			return;
+		do
+			this.moves.undo();
+		while (this.players < 2 && this.moves.canUndo()
+				&& this.graph.getTurn(this.moves.getPosition()) != Board.Color.WHITE);
+		this.showPosition();
+	}
+
+	/**
+	 * Make the last move taken back again. Against the computer, its reply
+	 * is made again as well, rather than picking a new one.
+	 */
+	private void redoMove()
+	{
+		if (! this.moves.canRedo())
+			return;
+		do
+			this.moves.redo();
+		while (this.players < 2 && this.moves.canRedo()
+				&& this.graph.getTurn(this.moves.getPosition()) != Board.Color.WHITE);
+		this.showPosition();
+	}
+
+	/**
+	 * Show the position the moves have been taken back or made again to.
+	 */
+	private void showPosition()
+	{
+		this.currentPosition = this.moves.getPosition();
+		this.createGraphicBoard();
+
+		Board.Color winner = this.finishGame();
+		if (winner == Board.Color.WHITE)
+			this.updateStatus(true, R.string.white_victory);
+		else if (winner == Board.Color.BLACK)
+			this.updateStatus(true, R.string.black_victory);
+		else if (this.graph.getTurn(this.currentPosition) == Board.Color.WHITE)
+			this.updateStatus(true, R.string.white_to_move);
+		else
+		{
+			this.updateStatus(true, R.string.black_to_move);
+			if (this.players < 2)
 			{
-				for (col = 0; col < Board.SIZE; col++)
-					this.relativeLayout.removeView(this.pawns[row][col]);
+				this.computerMove();
+				this.finishGame();
 			}
 		}
-		this.pawns = new PawnView[Board.SIZE][Board.SIZE];
+	}
 
-		// Traverse the board
-		for (row = 0; row < Board.SIZE; row++)
+	/**
+	 * Check whether the game is over. The first time a game reaches its end,
+	 * the computer learns from it, and it is counted in the stats and added to
+	 * the history. Taking back the last move and making it again does not
+	 * count the game again, nor prune the same move twice.
+	 * @return the color which won, or null if the game is not over.
+	 */
+	private Board.Color finishGame()
+	{
+		if (! this.brain.isVictory(this.currentPosition))
+			return null;
+
+		// Winner is player who moved last turn.
+		Board.Color winner = this.graph.getTurn(this.currentPosition) == Board.Color.BLACK
+				? Board.Color.WHITE : Board.Color.BLACK;
+		if (this.moves.isFinished())
+			return winner;
+		this.moves.markFinished();
+
+		this.gamesPlayed++;
+		int choice = this.moves.getLastEdge(Board.Color.BLACK);
+		if (winner == Board.Color.WHITE)
 		{
-			for (col = 0; col < Board.SIZE; col++)
+			if (this.players < 2 && choice >= 0)
 			{
-				// Create the graphic pawns based on the available measurements
-				if (pawnColors[row][col] != null)
-				{
-					switch (pawnColors[row][col])
-					{
-						case BLACK:
-							this.pawns[row][col]	= new PawnView(
-									Board.Color.BLACK, 
-									this, 
-									R.drawable.black_pawn, 
-									this.squareLayout.getChildSize(), 
-									row, 
-									col, 
-									new PawnListener()
-							);
-							break;
-						case WHITE:
-							this.pawns[row][col] = new PawnView(
-									Board.Color.WHITE, 
-									this, 
-									R.drawable.white_pawn, 
-									this.squareLayout.getChildSize(), 
-									row, 
-									col, 
-									new PawnListener()
-							);
-							break;
-						default:
-							this.pawns[row][col] = null;
-							break;
-					}
-
-					// Add the view to the parent layout
-					this.relativeLayout.addView(this.pawns[row][col]);
-				}
+				// Prune the losing move from the computer's moves,
+				// and record it in the journal.
+				this.brain.prune(choice);
+				this.persistence.record(this.brain, LearningJournal.PRUNE, choice);
+				// Update AI skill level
+				this.skill.setProgress(this.brain.getSkill());
 			}
+			this.whiteWins++;
+		}
+		else if (this.players < 2 && choice >= 0)
+		{
+			// Record the winning move in the journal.
+			this.persistence.record(this.brain, LearningJournal.REINFORCE, choice);
 		}
+		this.updateStats();
+
+		// Add the finished game to the history.
+		long now = System.currentTimeMillis();
+		this.history.record(new GameRecord(this.brain.getName(), this.gameStarted, now, winner, this.moves.getMoves()));
+		return winner;
+	}
+
+	/**
+	 * Show the pawns of the current board.
+	 * Called when creating a new game, or redrawing current game
+	 * due to orientation change.
+	 */
+	private void createGraphicBoard()
+	{
+		// A hint being worked out is no longer wanted
+		this.hints.cancel();
+
+		// Show the pawns of the current position
+		this.boardView.setPosition(this.graph.getBlack(this.currentPosition), this.graph.getWhite(this.currentPosition));
 
 		// Status message label.
 		// Set to appropriate string based on victory or current move
-		switch (this.currentBoard.getTurn())
+		switch (this.graph.getTurn(this.currentPosition))
 		{
 			// Black turn
 			case BLACK:
 				// White has won
-				if (this.currentBoard.isVictory())
+				if (this.brain.isVictory(this.currentPosition))
 					this.status.setText(R.string.white_victory);
 				// Black to move
 				else
@@ -345,7 +575,7 @@ public class HexapawnActivity extends Activity
 			// White turn
 			case WHITE:
 				// Black has won
-				if (this.currentBoard.isVictory())
+				if (this.brain.isVictory(this.currentPosition))
 					this.status.setText(R.string.black_victory);
 				// White to move
 				else
@@ -355,285 +585,151 @@ public class HexapawnActivity extends Activity
 		}
 	}
 
-	/**
-	 * Create a game Board from the graphical setup of pawns
-	 * given by the move of the pawn at the source to the destination.
-	 * @param sourceRow - row of the source pawn
-	 * @param sourceCol - col of the source pawn
-	 * @param destRow - row of the target coordinate
-	 * @param destCol - col of the target coordinate
-	 * @return a Board to test against the Boards tree.
+	/* (non-Javadoc)
+	 * @see com.savanto.hexapawn.BoardView.OnMoveListener#onMove(int, int, int, int)
 	 */
-	private Board makeBoard(Move move)
+	@Override
+	public boolean onMove(int sourceRow, int sourceCol, int destRow, int destCol)
 	{
-		// Produce simple array of pawns from the graphical pawns array.
-		Board.Color[][] array = new Board.Color[Board.SIZE][Board.SIZE];
-		for (int row = 0, rank = Board.RANK_3; row < Board.SIZE; row++, rank = Board.prevRank(rank))
+		// Nothing to play until the back-end is loaded.
+		if (this.graph == null)
+			return false;
+
+		// Check that the correct color was moved
+		Board.Color turn = this.graph.getTurn(this.currentPosition);
+		int black = this.graph.getBlack(this.currentPosition), white = this.graph.getWhite(this.currentPosition);
+		int source = Board.square(sourceRow, sourceCol);
+		if (((turn == Board.Color.WHITE ? white : black) & source) == 0)
 		{
-			for (int col = 0, file = Board.FILE_A; col < Board.SIZE; col++, file = Board.nextFile(file))
-			{
-				if (this.pawns[row][col] != null)
-					array[row][col] = this.pawns[row][col].getColor();
-			}
+			this.updateStatus(false, R.string.illegal_move);
+			return false;
 		}
 
-		// Apply the move, from source to destination.
-		array[move.destRow][move.destCol] = array[move.sourceRow][move.sourceCol];
-		array[move.sourceRow][move.sourceCol] = null;
-
-		return new Board(array);
-	}
-
-	/**
-	 * An extension of the OnTouchListener class for all Views,
-	 * the PawnListener is specific to PawnViews.
-	 * 
-	 * Listens for touch events to the PawnViews, interprets them,
-	 * and passes the information to the Activity, which modifies
-	 * the game Board as necessary. 
-	 */
-	private class PawnListener implements OnTouchListener
-	{
-		// The initial raw coordinates of the touched PawnView.
-		private int initialX = 0, initialY = 0;
-		// The initial coordinates of the touched PawnView.
-		private int sourceRow = 0, sourceCol = 0;
-
-		@Override
-		public boolean onTouch(View v, MotionEvent event)
+		// Check for out of bounds conditions.
+		if (destRow < 0 || destRow >= Board.SIZE || destCol < 0 || destCol >= Board.SIZE)
 		{
-			// Get the PawnView that has been touched.
-			PawnView pawn = (PawnView) v;
-
-			// Check which touch even is occuring
-			switch (event.getAction())
-			{
-				// The touch event has just started
-				case MotionEvent.ACTION_DOWN:
-					// Gesture has started on the PawnView.
-					// Bring the PawnView in front of all others.
-					pawn.bringToFront();
-					HexapawnActivity.this.relativeLayout.requestLayout();
-					HexapawnActivity.this.relativeLayout.invalidate();
-					
-					// Record the PawnView's initial position, in case move is 
-					// illegal and pawn must be returned.
-					this.initialX = pawn.getLeft();
-					this.initialY = pawn.getTop();
-					this.sourceRow = this.initialY / pawn.getSize();
-					this.sourceCol = this.initialX / pawn.getSize();
-
-					break;
-
-				// The touch event continues
-				case MotionEvent.ACTION_MOVE:
-					// The PawnView is being moved.
-					// Update the location.
-					pawn.setRawPosition(event.getRawX(), event.getRawY());
-
-					break;
-
-				// The touch event ends.
-				case MotionEvent.ACTION_UP:
-					// The PawnView is released.
-
-					// Check that the correct color was moved
-					Board.Color turn = HexapawnActivity.this.currentBoard.getTurn();
-					if (pawn.getColor() != turn)
-					{
-						switch (turn)
-						{
-							case BLACK:
-								HexapawnActivity.this.updateStatus(false, R.string.illegal_move);//, R.string.black_to_move);
-								break;
-							case WHITE:
-								HexapawnActivity.this.updateStatus(false, R.string.illegal_move);//, R.string.white_to_move);
-								break;
-						}
-						// Return PawnView to initial coorindinates, cancel move
-						pawn.setRawPosition(this.initialX, this.initialY);
-						return false;
-					}
-					// Determine target coordinates from the CENTER of the PawnView
-					int destRow = pawn.getCenterY() / pawn.getSize();
-					int destCol = pawn.getCenterX() / pawn.getSize();
-
-					// Check for out of bounds conditions.
-					if (destRow >= Board.SIZE || destCol >= Board.SIZE)
-					{
-						HexapawnActivity.this.updateStatus(false, R.string.illegal_move);//, R.string.move_instructions);
-						// Return PawnView to initial coordinates, cancel move.
-						pawn.setRawPosition(this.initialX, this.initialY);
-						return false;
-					}
+			this.updateStatus(false, R.string.illegal_move);
+			return false;
+		}
 
-					// Check that move is legal.
-					// Check if test Board is a legal move on the current game Board.
-					Board next = HexapawnActivity.this.currentBoard.getLegal(
-							HexapawnActivity.this.makeBoard(new Move(this.sourceRow, this.sourceCol, destRow, destCol)));
-					if (next == null)
-					{
-						// No matching moves found, therefore move is illegal.
-						HexapawnActivity.this.updateStatus(false, R.string.illegal_move);//, R.string.move_instructions);
-						// Return PawnView to initial coordinates, cancel move.
-						pawn.setRawPosition(this.initialX, this.initialY);
-						return false;
-					}
+		// Check that move is legal.
+		// Apply the move to the bitboards, capturing any pawn at the destination,
+		// and check if they are a legal move on the current position.
+		int dest = Board.square(destRow, destCol);
+		if (turn == Board.Color.WHITE)
+		{
+			white = (white & ~source) | dest;
+			black &= ~dest;
+		}
+		else
+		{
+			black = (black & ~source) | dest;
+			white &= ~dest;
+		}
+		int next = this.graph.findEdge(this.currentPosition, black, white);
+		if (next < 0)
+		{
+			// No matching moves found, therefore move is illegal.
+			this.updateStatus(false, R.string.illegal_move);
+			return false;
+		}
 
-					// Otherwise move is legal.
-					// Make back-end move, preserving the parent Board for pruning later.
-					HexapawnActivity.this.currentBoard = next;
-
-					// Finalize graphical changes:
-					// If capture, make pawn at destination disappear
-					if (HexapawnActivity.this.pawns[destRow][destCol] != null)
-						HexapawnActivity.this.pawns[destRow][destCol].capture();
-					// Move pawn from source to destination
-					HexapawnActivity.this.pawns[destRow][destCol] = pawn;
-					// Remove reference to pawn at source
-					HexapawnActivity.this.pawns[this.sourceRow][this.sourceCol] = null;
-					// Set the pawn neatly in the destination square
-					pawn.setPosition(destRow, destCol);
-
-					// Update turn instruction
-					switch (HexapawnActivity.this.currentBoard.getTurn())
-					{
-						case BLACK:
-							HexapawnActivity.this.updateStatus(true, R.string.black_to_move);
-							break;
-						case WHITE:
-							HexapawnActivity.this.updateStatus(true, R.string.white_to_move);
-							break;
-					}
+		// Otherwise move is legal.
+		// Make back-end move, and record it.
+		this.moves.push(next, new Move(sourceRow, sourceCol, destRow, destCol).pack());
+		this.currentPosition = this.moves.getPosition();
+		this.hints.cancel();
 
-					// Check to see if playing with computer
-					if (HexapawnActivity.this.players < 2)
-					{
-						// Update current Board by having computer make a move
-						HexapawnActivity.this.computerMove();
-					}
+		// Show the pawn in its destination square
+		this.boardView.setPosition(black, white);
 
-					// Check for victory
-					if (HexapawnActivity.this.currentBoard.isVictory())
-					{
-						HexapawnActivity.this.gamesPlayed++;
-						// Update status from current turn.
-						// Winner is player who moved last turn.
-						switch (HexapawnActivity.this.currentBoard.getTurn())
-						{
-							case BLACK:	// current turn black, so white won
-								HexapawnActivity.this.updateStatus(true, R.string.white_victory);
-								if (HexapawnActivity.this.players < 2)
-								{
-									// Prune the losing move and all children from the computer's move tree,
-									// and from the database.
-									HexapawnActivity.this.parent.prune(HexapawnActivity.this.choice);
-									// Database access in its own thread
-									new Thread(new Runnable()
-									{
-										@Override
-										public void run()
-										{
-											HexapawnActivity.this.dbHelper.pruneBoards(HexapawnActivity.this.choice);
-											// Update AI skill level
-											HexapawnActivity.this.skill.setProgress(HexapawnActivity.this.dbHelper.getSkill());
-										}
-									}).start();
+		// Update turn instruction
+		switch (this.graph.getTurn(this.currentPosition))
+		{
+			case BLACK:
+				this.updateStatus(true, R.string.black_to_move);
+				break;
+			case WHITE:
+				this.updateStatus(true, R.string.white_to_move);
+				break;
+		}
 
-								}
-								HexapawnActivity.this.whiteWins++;
-								break;
-							case WHITE:	// current turn white, so black won
-								HexapawnActivity.this.updateStatus(true, R.string.black_to_move);
-								break;
-						}
-						HexapawnActivity.this.updateStats();
-					}
-					break;
-			}
-			return true;
+		// Check to see if playing with computer
+		if (this.players < 2)
+		{
+			// Update current Board by having computer make a move
+			this.computerMove();
 		}
-	};
+
+		// Check for victory
+		if (this.finishGame() == Board.Color.WHITE)
+			this.updateStatus(true, R.string.white_victory);
+		return true;
+	}
 
 	/**
 	 * Have the computer (BLACK) pick an available move and perform it.
 	 */
 	private void computerMove()
 	{
-		// TODO: animate computer move
-
-		// Make the back-end move instantly, to prevent human players from trying to
-		// move during computer's turn.
-
-		// Make a computer move on the back-end Board by choosing
-		// a random available move
-		Board next = this.currentBoard.pickBoard(this.rng);
-		if (next != null)
+		// Make the back-end move instantly; the board lets no pawn be
+		// picked up until the move has been shown.
+		long thinking = SystemClock.uptimeMillis();
+
+		// Make a computer move on the back-end graph by choosing
+		// among the available moves, as the level allows
+		int next = this.difficulty.pickEdge(this.brain, this.currentPosition, this.rng);
+		if (next >= 0)
 		{
-			final Move move = this.currentBoard.getMove(next);
+			Move move = this.graph.getMove(this.currentPosition, next);
 
-			// Record the current Board: it is the latest parent from which the computer makes a move.
-			this.parent = this.currentBoard;
-			// Update current Board with chosen move
-			this.currentBoard = next;
-			// Record the chosen move: it is the move that the computer has picked.
-			this.choice = this.currentBoard;
+			// Record the chosen move, and update current position with it
+			this.moves.push(next, move.pack());
+			this.currentPosition = this.moves.getPosition();
 
-			// Make the graphic move on a separate, delayed thread,
-			// so that there can be a slight "thinking" delay
-			new Handler().postDelayed(new Runnable()
-			{
-				@Override
-				public void run()
-				{
-					// Make the changes to the graphics
-					// If capture, make pawn at destination disappear
-					if (HexapawnActivity.this.pawns[move.destRow][move.destCol] != null)
-						HexapawnActivity.this.pawns[move.destRow][move.destCol].capture();
-					// Move pawn from source to destination
-					HexapawnActivity.this.pawns[move.destRow][move.destCol] = HexapawnActivity.this.pawns[move.sourceRow][move.sourceCol];
-					// Remove reference to pawn at source
-					HexapawnActivity.this.pawns[move.sourceRow][move.sourceCol] = null;
-					// Set the pawn neatly in the destination square
-					HexapawnActivity.this.pawns[move.destRow][move.destCol].setPosition(move.destRow, move.destCol);
-
-					// Check for victory/turn
-					// If victory, update stats
-					if (HexapawnActivity.this.currentBoard.isVictory())
-						HexapawnActivity.this.updateStatus(true, R.string.black_victory);
-					else
-						HexapawnActivity.this.updateStatus(true, R.string.white_to_move);
-				}
-			}, HexapawnActivity.THINK_TIME);
+			// Animate the move as soon as it has been picked, but after no less
+			// than the think time, so that there is a slight "thinking" delay
+			long delay = Math.max(0, HexapawnActivity.THINK_TIME - (SystemClock.uptimeMillis() - thinking));
+			this.boardView.animateMove(move.sourceRow, move.sourceCol, move.destRow, move.destCol,
+					this.graph.getBlack(this.currentPosition), this.graph.getWhite(this.currentPosition), delay);
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see com.savanto.hexapawn.BoardView.OnMoveListener#onMoveShown()
+	 */
+	@Override
+	public void onMoveShown()
+	{
+		// Check for victory/turn
+		// The victory itself has been accounted for with the back-end move
+		if (this.brain.isVictory(this.currentPosition))
+			this.updateStatus(true, R.string.black_victory);
+		else
+			this.updateStatus(true, R.string.white_to_move);
+	}
+
 	/**
 	 * Update the status message with info for the player.
 	 * @param persist - true to make the message permanent (until next call of updateStatus),
 	 * 					or false to revert the message to the previous after MESSAGE_TIME
 	 * @param message - the message to set
 	 */
-	private void updateStatus(boolean persist, final String message)
+	private void updateStatus(boolean persist, String message)
 	{
 		if (persist)
 			this.status.setText(message);
 		else
 		{
-			// Save the old message, and set to the new message
-			final String oldMessage = (String) this.status.getText();
+			// Save the old message, unless it is itself a temporary message
+			// still waiting to be reverted, and set to the new message
+			if (this.temporaryMessage == null || this.status.getText() != this.temporaryMessage)
+				this.revertMessage = this.status.getText();
+			this.temporaryMessage = message;
 			this.status.setText(message);
 			// Set a timer to revert the message
-			new Handler().postDelayed(new Runnable()
-			{
-				@Override
-				public void run()
-				{
-					// Revert the message if it has not changed in the mean time
-					if (HexapawnActivity.this.status.getText() == message)
-						HexapawnActivity.this.status.setText(oldMessage);
-				}
-			}, HexapawnActivity.MESSAGE_TIME);
+			this.handler.removeCallbacks(this.revertStatus);
+			this.handler.postDelayed(this.revertStatus, HexapawnActivity.MESSAGE_TIME);
 		}
 	}
 
@@ -667,15 +763,71 @@ public class HexapawnActivity extends Activity
 	{
 		super.onPause();
 
-		// Close db connection
-		this.dbHelper.close();
+		// Nothing to save until the back-end is loaded.
+		if (this.persistence == null)
+			return;
+
+		// Commit stat info to SharedPreferences, on the persistence thread
+		final SharedPreferences sharedPrefs = this.loader.getPreferences();
+		final int gamesPlayed = this.gamesPlayed, whiteWins = this.whiteWins;
+		this.persistence.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				sharedPrefs.edit()
+					.putInt(GameLoader.KEY_GAMES_PLAYED, gamesPlayed)
+					.putInt(GameLoader.KEY_WHITE_WINS, whiteWins)
+					.commit();
+			}
+		});
+
+		// Write the finished games held back so far, and finish all pending writes
+		this.history.flush();
+		this.persistence.flush();
+		Log.d(HexapawnActivity.TAG, "Persistence: " + this.persistence);
+		if (Metrics.isEnabled())
+			Log.d(HexapawnActivity.TAG, "Metrics:\n" + Metrics.getSink());
+	}
+
+	/**
+	 * Release the cached pawn images the system asks for. Once the board is
+	 * no longer shown, the board lets go of its images as well.
+	 */
+	@Override
+	public void onTrimMemory(int level)
+	{
+		super.onTrimMemory(level);
+		BitmapCache.getInstance().trim(level);
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+			this.boardView.releaseBitmaps();
+	}
+
+	/**
+	 * Release the cached pawn images, on versions before onTrimMemory().
+	 */
+	@Override
+	public void onLowMemory()
+	{
+		super.onLowMemory();
+		BitmapCache.getInstance().clear();
+		this.boardView.releaseBitmaps();
+	}
+
+	/**
+	 * Release the back-end, unless it has been handed over to a
+	 * re-started activity.
+	 */
+	@Override
+	public void onDestroy()
+	{
+		super.onDestroy();
+		this.handler.removeCallbacks(this.revertStatus);
 
-		// Commit stat info to SharedPreferences
-		SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
-		sharedPrefs.edit()
-			.putInt(HexapawnActivity.KEY_GAMES_PLAYED, this.gamesPlayed)
-			.putInt(HexapawnActivity.KEY_WHITE_WINS, this.whiteWins)
-			.commit();
+		if (this.retained)
+			this.loader.detach();
+		else
+			this.loader.abandon();
 	}
 
 	/**
@@ -690,18 +842,92 @@ public class HexapawnActivity extends Activity
 		return true;
 	}
 
+	/**
+	 * Enables undo and redo only when there is a move to take back or make again.
+	 */
+	@Override
+	public boolean onPrepareOptionsMenu(Menu menu)
+	{
+		menu.findItem(R.id.menu_undo).setEnabled(this.moves != null && this.moves.canUndo());
+		menu.findItem(R.id.menu_redo).setEnabled(this.moves != null && this.moves.canRedo());
+		return true;
+	}
+
 	/**
 	 * Listener for menu items selected.
 	 */
 	@Override
 	public boolean onOptionsItemSelected(MenuItem item)
 	{
+		// Only the instructions are available until the back-end is loaded.
+		if (this.graph == null && item.getItemId() != R.id.menu_instructions)
+			return true;
+
 		switch(item.getItemId())
 		{
-			// Reset the AI skill level, by marking all Boards active in the database
+			// Choose the Brain to play against
+			case R.id.menu_brain:
+				new AlertDialog.Builder(this)
+					.setTitle(R.string.brain_title)
+					.setSingleChoiceItems(R.array.brain_names, this.brainIndex, new DialogInterface.OnClickListener()
+					{
+						@Override
+						public void onClick(DialogInterface dialog, int which)
+						{
+							dialog.dismiss();
+							HexapawnActivity.this.switchBrain(which);
+						}
+					})
+					.show();
+				break;
+
+			// Choose the level the computer plays at
+			case R.id.menu_difficulty:
+				new AlertDialog.Builder(this)
+					.setTitle(R.string.difficulty_title)
+					.setSingleChoiceItems(R.array.difficulty_names, this.difficultyIndex, new DialogInterface.OnClickListener()
+					{
+						@Override
+						public void onClick(DialogInterface dialog, int which)
+						{
+							dialog.dismiss();
+							HexapawnActivity.this.switchDifficulty(which);
+						}
+					})
+					.show();
+				break;
+
+			// Export the current Brain, or import one exported elsewhere
+			case R.id.menu_export:
+				this.exportBrain();
+				break;
+			case R.id.menu_import:
+				this.importBrain();
+				break;
+
+			// Take back the last move, or make it again
+			case R.id.menu_undo:
+				this.undoMove();
+				break;
+			case R.id.menu_redo:
+				this.redoMove();
+				break;
+
+			// Show the best move in the current position
+			case R.id.menu_hint:
+				this.showHint();
+				break;
+
+			// Show statistics from the history of games played
+			case R.id.menu_history:
+				this.showHistory();
+				break;
+
+			// Reset the AI skill level, by marking all moves active in the current Brain
 			case R.id.menu_reset_ai:
-				this.newBoard = this.dbHelper.resetAI();
-				this.skill.setProgress(this.dbHelper.getSkill());
+				this.brain.resetLearning();
+				this.persistence.record(this.brain, LearningJournal.RESET, 0);
+				this.skill.setProgress(this.brain.getSkill());
 				this.createGraphicBoard();
 				break;
 
@@ -726,13 +952,487 @@ public class HexapawnActivity extends Activity
 	}
 
 	/**
-	 * Pass current and new Boards to future re-started activity, in the
-	 * case of a configuration change restart. This will prevent having to
-	 * recreate the game moves tree, and the losing the current game in progress.
+	 * Show the best move in the current position as a temporary status message.
+	 * Positions not solved before are solved on the hint thread, and the hint
+	 * is only shown if the position has not changed in the mean time.
+	 */
+	private void showHint()
+	{
+		this.hints.request(this.currentPosition, new HintEngine.Listener()
+		{
+			@Override
+			public void onHint(final HintEngine.Hint hint)
+			{
+				HexapawnActivity.this.runOnUiThread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if (hint.getPosition() == HexapawnActivity.this.currentPosition)
+							HexapawnActivity.this.updateStatus(false, HexapawnActivity.this.describeHint(hint));
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Describe a hint for the status message.
+	 * @param hint - the hint for the current position.
+	 * @return the best move, and whether it wins or loses, and in how many moves.
+	 */
+	private String describeHint(HintEngine.Hint hint)
+	{
+		if (hint.getBestEdge() < 0)
+			return this.getString(R.string.hint_none);
+		String move = this.graph.getMove(hint.getPosition(), hint.getBestEdge()).toString();
+		int value = hint.getBestValue();
+		return this.getString(Solver.isWin(value) ? R.string.hint_win : R.string.hint_loss, move, Solver.getDistance(value));
+	}
+
+	/**
+	 * Play against another of the loaded Brains, starting a new game.
+	 * @param index - the index of the Brain among the loader's Brains.
+	 */
+	private void switchBrain(int index)
+	{
+		if (index == this.brainIndex)
+			return;
+		this.brainIndex = index;
+		this.brain = this.loader.getBrains()[index];
+		this.skill.setProgress(this.brain.getSkill());
+
+		// Remember the choice, on the persistence thread
+		final SharedPreferences sharedPrefs = this.loader.getPreferences();
+		final String name = this.brain.getName();
+		this.persistence.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				sharedPrefs.edit().putString(GameLoader.KEY_BRAIN, name).commit();
+			}
+		});
+
+		this.newGame();
+		this.createGraphicBoard();
+	}
+
+	/**
+	 * Play at another level from the next computer move on.
+	 * @param index - the index of the level among Difficulty.LEVELS.
+	 */
+	private void switchDifficulty(int index)
+	{
+		if (index == this.difficultyIndex)
+			return;
+		this.difficultyIndex = index;
+		this.difficulty = Difficulty.getLevel(index);
+
+		// Remember the choice, on the persistence thread
+		final SharedPreferences sharedPrefs = this.loader.getPreferences();
+		final int level = index;
+		this.persistence.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				sharedPrefs.edit().putInt(GameLoader.KEY_DIFFICULTY, level).commit();
+			}
+		});
+	}
+
+	/**
+	 * Export the learning of the current Brain to the app's external files
+	 * directory, from where it can be copied to another device.
+	 */
+	private void exportBrain()
+	{
+		// Write the file on the persistence thread, and report back on the UI thread.
+		// Even finding the directory touches the storage, and may create it.
+		final Brain brain = this.brain;
+		this.persistence.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				File dir = HexapawnActivity.this.getExternalFilesDir(null);
+				if (dir == null)
+				{
+					HexapawnActivity.this.postStatus(HexapawnActivity.this.getString(R.string.export_failed));
+					return;
+				}
+
+				File file = new File(dir, brain.getName() + LearningExchange.FILE_EXTENSION);
+				String message;
+				try
+				{
+					FileOutputStream out = new FileOutputStream(file);
+					try
+					{
+						LearningExchange.write(brain, out);
+					}
+					finally
+					{
+						out.close();
+					}
+					message = HexapawnActivity.this.getString(R.string.export_done, file.getPath());
+				}
+				catch (IOException ex)
+				{
+					Log.w(HexapawnActivity.TAG, "Unable to export brain " + brain.getName(), ex);
+					message = HexapawnActivity.this.getString(R.string.export_failed);
+				}
+				HexapawnActivity.this.postStatus(message);
+			}
+		});
+	}
+
+	/**
+	 * Offer the learning states exported to the app's external files directory
+	 * for import into the current Brain.
+	 */
+	private void importBrain()
+	{
+		// List the files on the persistence thread, and offer them on the UI thread.
+		this.persistence.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				File dir = HexapawnActivity.this.getExternalFilesDir(null);
+				final File[] files = dir == null ? null : dir.listFiles(new FilenameFilter()
+				{
+					@Override
+					public boolean accept(File dir, String filename)
+					{
+						return filename.endsWith(LearningExchange.FILE_EXTENSION);
+					}
+				});
+				HexapawnActivity.this.runOnUiThread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						HexapawnActivity.this.chooseImport(files);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Let the player pick the learning state to import, and how to combine it.
+	 * @param files - the exported learning states available, or null if none.
+	 */
+	private void chooseImport(final File[] files)
+	{
+		if (files == null || files.length == 0)
+		{
+			this.updateStatus(false, R.string.import_none);
+			return;
+		}
+		String[] names = new String[files.length];
+		for (int i = 0; i < files.length; i++)
+			names[i] = files[i].getName();
+
+		new AlertDialog.Builder(this)
+			.setTitle(R.string.import_title)
+			.setItems(names, new DialogInterface.OnClickListener()
+			{
+				@Override
+				public void onClick(DialogInterface dialog, final int which)
+				{
+					new AlertDialog.Builder(HexapawnActivity.this)
+						.setMessage(R.string.import_mode)
+						.setPositiveButton(R.string.import_merge, new DialogInterface.OnClickListener()
+						{
+							@Override
+							public void onClick(DialogInterface dialog, int button)
+							{
+								HexapawnActivity.this.readImport(files[which], true);
+							}
+						})
+						.setNegativeButton(R.string.import_replace, new DialogInterface.OnClickListener()
+						{
+							@Override
+							public void onClick(DialogInterface dialog, int button)
+							{
+								HexapawnActivity.this.readImport(files[which], false);
+							}
+						})
+						.show();
+				}
+			})
+			.show();
+	}
+
+	/**
+	 * Read and validate an exported learning state on the persistence thread,
+	 * then apply it to the current Brain on the UI thread, starting a new game.
+	 * @param file - the exported learning state.
+	 * @param merge - true to keep the current Brain's prunes as well, false to replace them.
+	 */
+	private void readImport(final File file, final boolean merge)
+	{
+		final Brain brain = this.brain;
+		this.persistence.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					InputStream in = new BufferedInputStream(new FileInputStream(file));
+					final byte[] learning;
+					try
+					{
+						learning = LearningExchange.read(in, brain.getGraph());
+					}
+					finally
+					{
+						in.close();
+					}
+					HexapawnActivity.this.runOnUiThread(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							brain.setLearning(learning, merge);
+							HexapawnActivity.this.persistence.recordState(brain);
+							if (brain == HexapawnActivity.this.brain)
+							{
+								HexapawnActivity.this.skill.setProgress(brain.getSkill());
+								HexapawnActivity.this.newGame();
+								HexapawnActivity.this.createGraphicBoard();
+							}
+							HexapawnActivity.this.updateStatus(false, R.string.import_done);
+						}
+					});
+				}
+				catch (IOException ex)
+				{
+					Log.w(HexapawnActivity.TAG, "Unable to import " + file, ex);
+					HexapawnActivity.this.postStatus(HexapawnActivity.this.getString(R.string.import_failed, ex.getMessage()));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Show the computer's win rate after each opening and over the last week,
+	 * and the lines it has lost most often. The history is queried on the
+	 * persistence thread, and shown on the UI thread.
+	 */
+	private void showHistory()
+	{
+		final long now = System.currentTimeMillis();
+		final Future<ArrayList<GameStats>> openings = this.history.getOpenings();
+		final Future<ArrayList<GameStats>> losingLines = this.history.getLosingLines(HexapawnActivity.HISTORY_LINES);
+		final Future<ArrayList<GameStats>> winRate = this.history.getWinRate(
+				now - HexapawnActivity.HISTORY_DAYS * HexapawnActivity.DAY, HexapawnActivity.DAY);
+
+		// The queries run in order on the single persistence thread,
+		// so they have all completed by the time this task runs.
+		this.persistence.submit(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				final String summary;
+				final byte[] replay;
+				try
+				{
+					ArrayList<GameStats> lines = losingLines.get();
+					summary = HexapawnActivity.this.describeHistory(openings.get(), lines, winRate.get());
+					replay = lines.isEmpty() ? null : lines.get(0).line;
+				}
+				catch (InterruptedException ex)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+				catch (ExecutionException ex)
+				{
+					Log.w(HexapawnActivity.TAG, "Unable to query game history", ex);
+					return;
+				}
+				HexapawnActivity.this.runOnUiThread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						AlertDialog.Builder builder = new AlertDialog.Builder(HexapawnActivity.this)
+							.setTitle(R.string.history_title)
+							.setMessage(summary)
+							.setNeutralButton("Ok", new DialogInterface.OnClickListener(){ @Override public void onClick(DialogInterface dialog, int which) { dialog.dismiss(); } });
+						// Offer to step through the most common loss
+						if (replay != null)
+						{
+							builder.setPositiveButton(R.string.history_replay, new DialogInterface.OnClickListener()
+							{
+								@Override
+								public void onClick(DialogInterface dialog, int which)
+								{
+									dialog.dismiss();
+									HexapawnActivity.this.replayGame(replay);
+								}
+							});
+						}
+						builder.show();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Set up a stored game from its first position, so that it can be
+	 * stepped through with undo and redo. Playing a different move from
+	 * any position of it goes on as a new game.
+	 * @param line - the packed Moves of the game.
+	 */
+	private void replayGame(byte[] line)
+	{
+		try
+		{
+			this.moves.load(line);
+		}
+		catch (IllegalArgumentException ex)
+		{
+			Log.w(HexapawnActivity.TAG, "Unable to replay " + GameRecord.describe(line), ex);
+			return;
+		}
+		this.moves.jumpTo(0);
+		this.gameStarted = System.currentTimeMillis();
+		this.showPosition();
+	}
+
+	/**
+	 * Produce a readable summary of the game history.
+	 * @param openings - the games grouped by opening Move.
+	 * @param losingLines - the lines the computer has lost most often.
+	 * @param winRate - the games grouped by day.
+	 * @return the summary.
+	 */
+	private String describeHistory(ArrayList<GameStats> openings, ArrayList<GameStats> losingLines, ArrayList<GameStats> winRate)
+	{
+		if (openings.isEmpty())
+			return this.getString(R.string.history_empty);
+
+		StringBuilder summary = new StringBuilder();
+		summary.append(this.getString(R.string.history_openings));
+		for (int i = 0; i < openings.size(); i++)
+		{
+			GameStats stats = openings.get(i);
+			String opening = stats.key < 0 ? "-" : Move.unpack((byte) stats.key).toString();
+			summary.append('\n').append(this.getString(R.string.history_games, opening, stats.games, stats.getBlackWinRate()));
+		}
+
+		if (! losingLines.isEmpty())
+		{
+			summary.append("\n\n").append(this.getString(R.string.history_losses));
+			for (int i = 0; i < losingLines.size(); i++)
+			{
+				GameStats stats = losingLines.get(i);
+				summary.append('\n').append(this.getString(R.string.history_line, GameRecord.describe(stats.line), stats.games));
+			}
+		}
+
+		if (! winRate.isEmpty())
+		{
+			DateFormat dateFormat = android.text.format.DateFormat.getDateFormat(this);
+			summary.append("\n\n").append(this.getString(R.string.history_recent));
+			for (int i = 0; i < winRate.size(); i++)
+			{
+				GameStats stats = winRate.get(i);
+				String day = dateFormat.format(new Date(stats.key));
+				summary.append('\n').append(this.getString(R.string.history_games, day, stats.games, stats.getBlackWinRate()));
+			}
+		}
+		return summary.toString();
+	}
+
+	/**
+	 * Show a temporary status message from any thread.
+	 * @param message - the message to show.
+	 */
+	private void postStatus(final String message)
+	{
+		this.runOnUiThread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				HexapawnActivity.this.updateStatus(false, message);
+			}
+		});
+	}
+
+	/**
+	 * Save the current game, stats, Brain and level as a few primitives, so that
+	 * they survive configuration changes and the process being killed alike.
+	 * The game is saved by its edges, and is rebuilt from the graph on restoring.
+	 */
+	@Override
+	protected void onSaveInstanceState(Bundle outState)
+	{
+		super.onSaveInstanceState(outState);
+
+		// Until the back-end is loaded, keep whatever game was saved before.
+		if (this.moves != null)
+		{
+			outState.putIntArray(HexapawnActivity.STATE_EDGES, this.moves.getRecordedEdges());
+			outState.putByteArray(HexapawnActivity.STATE_MOVES, this.moves.getRecordedMoves());
+			outState.putInt(HexapawnActivity.STATE_PLY, this.moves.getPly());
+			outState.putBoolean(HexapawnActivity.STATE_FINISHED, this.moves.isMarkedFinished());
+			outState.putLong(HexapawnActivity.STATE_GAME_STARTED, this.gameStarted);
+		}
+		else if (this.savedGame != null && this.savedGame.containsKey(HexapawnActivity.STATE_EDGES))
+		{
+			outState.putIntArray(HexapawnActivity.STATE_EDGES, this.savedGame.getIntArray(HexapawnActivity.STATE_EDGES));
+			outState.putByteArray(HexapawnActivity.STATE_MOVES, this.savedGame.getByteArray(HexapawnActivity.STATE_MOVES));
+			outState.putInt(HexapawnActivity.STATE_PLY, this.savedGame.getInt(HexapawnActivity.STATE_PLY));
+			outState.putBoolean(HexapawnActivity.STATE_FINISHED, this.savedGame.getBoolean(HexapawnActivity.STATE_FINISHED));
+			outState.putLong(HexapawnActivity.STATE_GAME_STARTED, this.savedGame.getLong(HexapawnActivity.STATE_GAME_STARTED));
+		}
+		// Stats are only known once loaded, or restored.
+		if (this.graph != null || this.statsRestored)
+		{
+			outState.putInt(HexapawnActivity.STATE_GAMES_PLAYED, this.gamesPlayed);
+			outState.putInt(HexapawnActivity.STATE_WHITE_WINS, this.whiteWins);
+		}
+		outState.putInt(HexapawnActivity.STATE_BRAIN, this.brainIndex);
+		outState.putInt(HexapawnActivity.STATE_DIFFICULTY, this.difficultyIndex);
+	}
+
+	/**
+	 * Pass the loader to future re-started activity, in the case of a
+	 * configuration change restart. This will prevent having to reload
+	 * the back-end; the game itself is restored from the saved instance state.
 	 */
 	@Override
 	public Object onRetainNonConfigurationInstance()
 	{
-		return new Board[] { this.newBoard, this.currentBoard };
+		this.retained = true;
+		return this.loader;
+	}
+
+	/**
+	 * Enables StrictMode, which is only available from Gingerbread on.
+	 */
+	private static class StrictModeSetup
+	{
+		/**
+		 * Log all disk reads and writes made on the UI thread.
+		 */
+		public static void enable()
+		{
+			StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+				.detectDiskReads()
+				.detectDiskWrites()
+				.penaltyLog()
+				.build());
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,257 @@
+package com.savanto.hexapawn;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author savanto
+ *
+ * Answers what the best move is, and what every move is worth, in a position.
+ * Positions are solved by a Solver on a background thread of their own, so
+ * neither the UI thread nor the persistence writes wait on them. Only the
+ * latest request is worked on: a new request, or cancel(), eg. once the
+ * position has changed, interrupts the one in progress.
+ *
+ * The hints of the most recently requested positions are kept, keyed by
+ * position id, so a position seen before is answered at once, on the
+ * calling thread, without a round trip through the background thread.
+ * Solving time is measured as the HINT metric.
+ */
+public class HintEngine
+{
+	/**
+	 * Receives hints.
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called with the hint for a requested position: on the requesting
+		 * thread if the hint was kept, or else on the hint thread.
+		 * Not called if the request is cancelled.
+		 * @param hint - the hint.
+		 */
+		public void onHint(Hint hint);
+	}
+
+	/**
+	 * The solved moves of a position.
+	 */
+	public static class Hint
+	{
+		private final int position;
+		private final int firstEdge;
+		private final int bestEdge;
+		private final int[] values;
+
+		/**
+		 * Constructor.
+		 * @param position - the position id.
+		 * @param firstEdge - the first edge of the position.
+		 * @param bestEdge - the edge id of the best move, or -1 if there are no moves.
+		 * @param values - the value of each move, in edge order.
+		 */
+		private Hint(int position, int firstEdge, int bestEdge, int[] values)
+		{
+			this.position = position;
+			this.firstEdge = firstEdge;
+			this.bestEdge = bestEdge;
+			this.values = values;
+		}
+
+		public int getPosition()
+		{
+			return this.position;
+		}
+
+		/**
+		 * Gets the best move.
+		 * @return the edge id of the best move, or -1 if the game is over.
+		 */
+		public int getBestEdge()
+		{
+			return this.bestEdge;
+		}
+
+		/**
+		 * Gets the value of the best move.
+		 * @return the value for the side to move, see Solver.
+		 */
+		public int getBestValue()
+		{
+			return this.values[this.bestEdge - this.firstEdge];
+		}
+
+		/**
+		 * Gets the value of a move.
+		 * @param edge - the edge id of a move of the position.
+		 * @return the value for the side to move, see Solver.
+		 */
+		public int getValue(int edge)
+		{
+			return this.values[edge - this.firstEdge];
+		}
+	}
+
+	/**
+	 * The number of hints kept.
+	 */
+	public static final int CAPACITY = 32;
+
+	/**
+	 * The game graph hints are given for.
+	 */
+	private final GameGraph graph;
+
+	/**
+	 * The solver, only used on the hint thread.
+	 */
+	private final Solver solver;
+
+	/**
+	 * The hint thread.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The hints, keyed by position id, least recently used first.
+	 */
+	private final LinkedHashMap<Integer, Hint> hints = new LinkedHashMap<Integer, Hint>(CAPACITY * 2, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Hint> eldest)
+		{
+			return this.size() > HintEngine.CAPACITY;
+		}
+	};
+
+	/**
+	 * The request being worked on, or null if none.
+	 */
+	private Future<?> pending;
+
+	// Constructors
+
+	/**
+	 * Constructor. Starts the hint thread.
+	 * @param graph - the game graph to give hints for.
+	 */
+	public HintEngine(GameGraph graph)
+	{
+		this.graph = graph;
+		this.solver = new Solver(graph);
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "Hexapawn hints");
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+				return thread;
+			}
+		});
+	}
+
+	// Accessors
+
+	/**
+	 * Gets the hint for a position, if it is kept.
+	 * @param position - the position id.
+	 * @return the hint, or null if the position has to be solved.
+	 */
+	public synchronized Hint getCached(int position)
+	{
+		return this.hints.get(position);
+	}
+
+	// Modifiers
+
+	/**
+	 * Requests the hint for a position, cancelling any request in progress.
+	 * @param position - the position id.
+	 * @param listener - receives the hint.
+	 */
+	public void request(final int position, final Listener listener)
+	{
+		Hint hint;
+		synchronized (this)
+		{
+			this.cancel();
+			hint = this.hints.get(position);
+			if (hint == null)
+			{
+				this.pending = this.executor.submit(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						Hint hint;
+						try
+						{
+							hint = HintEngine.this.solve(position);
+						}
+						catch (CancellationException ex)
+						{
+							return;
+						}
+						synchronized (HintEngine.this)
+						{
+							HintEngine.this.hints.put(position, hint);
+						}
+						if (! Thread.currentThread().isInterrupted())
+							listener.onHint(hint);
+					}
+				});
+			}
+		}
+		if (hint != null)
+			listener.onHint(hint);
+	}
+
+	/**
+	 * Cancels the request in progress, if any, eg. once the position has changed.
+	 */
+	public synchronized void cancel()
+	{
+		if (this.pending != null)
+		{
+			this.pending.cancel(true);
+			this.pending = null;
+		}
+	}
+
+	/**
+	 * Cancels the request in progress, and stops the hint thread.
+	 */
+	public void shutdown()
+	{
+		this.cancel();
+		this.executor.shutdownNow();
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Solves every move of a position, on the hint thread.
+	 * @param position - the position id.
+	 * @return the hint for the position.
+	 * @throws CancellationException if the request is cancelled.
+	 */
+	private Hint solve(int position)
+	{
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		int first = this.graph.getFirstEdge(position), end = this.graph.getEdgeEnd(position);
+		int[] values = new int[end - first];
+		for (int edge = first; edge < end; edge++)
+			values[edge - first] = this.solver.getEdgeValue(edge);
+		Hint hint = new Hint(position, first, this.solver.getBestEdge(position), values);
+		Metrics.stop(Metrics.HINT, start, allocations);
+		return hint;
+	}
+}
@@ -0,0 +1,119 @@
+package com.savanto.hexapawn;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * @author savanto
+ *
+ * Export and import of the learning state of a Brain, as a small versioned
+ * blob, to move a trained computer between devices, or to the simulation tools.
+ * The learning is keyed by the edge ids of the game graph, which are the same
+ * wherever the graph is generated, and the blob carries the graph's
+ * fingerprint so it is never applied to a different graph.
+ *
+ * Layout of the blob (all integers big-endian):
+ *
+ * HEADER		magic, version, graph fingerprint, edge count (e), kind
+ * LEARNING		for KIND_ACTIVE: (e + 7) / 8 bytes, bit set if the edge has not been pruned
+ * CHECKSUM		CRC32 of all the preceding bytes
+ */
+public final class LearningExchange
+{
+	/**
+	 * Extension of exported files.
+	 */
+	public static final String FILE_EXTENSION = ".hxl";
+
+	/**
+	 * Version of the blob format, refused on import if it differs.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The kinds of learning state.
+	 * KIND_ACTIVE: the 'active' bitset of a pruning Brain.
+	 */
+	public static final int KIND_ACTIVE = 1;
+
+	/**
+	 * Blob signature, "HXPL".
+	 */
+	private static final int MAGIC = 0x4858504c;
+
+	private LearningExchange()
+	{
+	}
+
+	/**
+	 * Writes the learning state of a Brain.
+	 * @param brain - the Brain to export.
+	 * @param out - the destination stream, left open.
+	 * @throws IOException if the stream cannot be written.
+	 */
+	public static void write(Brain brain, OutputStream out) throws IOException
+	{
+		GameGraph graph = brain.getGraph();
+		CRC32 crc = new CRC32();
+		DataOutputStream data = new DataOutputStream(new CheckedOutputStream(out, crc));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(graph.getFingerprint());
+		data.writeInt(graph.getEdgeCount());
+		data.writeInt(KIND_ACTIVE);
+		data.write(brain.getLearning());
+		data.flush();
+		new DataOutputStream(out).writeInt((int) crc.getValue());
+	}
+
+	/**
+	 * Reads and validates a learning state, as it streams in. The header is
+	 * checked against the graph before the learning is read, and nothing
+	 * is returned unless the whole blob is intact.
+	 * @param in - the source stream, left open.
+	 * @param graph - the game graph the learning is meant for.
+	 * @return the learning bitset, one bit per edge, set if the edge is active.
+	 * @throws IOException if the stream cannot be read, or does not hold a valid blob for the graph.
+	 */
+	public static byte[] read(InputStream in, GameGraph graph) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		DataInputStream data = new DataInputStream(new CheckedInputStream(in, crc));
+		try
+		{
+			if (data.readInt() != MAGIC)
+				throw new IOException("Not an exported learning state");
+			int version = data.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported learning state version " + version);
+			if (data.readInt() != graph.getFingerprint() || data.readInt() != graph.getEdgeCount())
+				throw new IOException("Learning state is for a different game graph");
+			int kind = data.readInt();
+			if (kind != KIND_ACTIVE)
+				throw new IOException("Unsupported learning state kind " + kind);
+
+			byte[] learning = new byte[(graph.getEdgeCount() + 7) / 8];
+			data.readFully(learning);
+			int expected = (int) crc.getValue();
+			if (new DataInputStream(in).readInt() != expected)
+				throw new IOException("Corrupt learning state");
+
+			// Bits past the last edge must be clear.
+			int unused = graph.getEdgeCount() & 7;
+			if (unused != 0 && (learning[learning.length - 1] & ~((1 << unused) - 1)) != 0)
+				throw new IOException("Corrupt learning state");
+			return learning;
+		}
+		catch (EOFException ex)
+		{
+			throw new IOException("Truncated learning state");
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package com.savanto.hexapawn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * @author savanto
+ *
+ * Append-only journal of the learning of a Brain. Every change to the
+ * learning state is recorded here first, as one small sequential write,
+ * instead of rewriting the Brain file.
+ *
+ * Periodically the journal is compacted: the learning state is folded
+ * into the Brain file, and a checkpoint in the journal header is moved past
+ * the folded records. Records are never removed, so the journal is a full
+ * audit trail of how the computer learned. After a crash, the records past
+ * the checkpoint are replayed onto the Brain. Replaying a record twice
+ * has no further effect, so a crash during compaction loses nothing.
+ *
+ * Layout of the journal (all integers big-endian):
+ *
+ * HEADER		magic, version, checkpoint offset (long)
+ * RECORDS		event (byte), edge (int), time in ms (long), CRC32 of the preceding fields (int)
+ */
+public class LearningJournal
+{
+	/**
+	 * Filename of the journal of versions with a single Brain, in the application's
+	 * files directory. It is taken over by the default Brain.
+	 */
+	public static final String LEGACY_FILE_NAME = "Hexapawn.journal";
+
+	/**
+	 * Version of the journal format.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The learning events.
+	 * PRUNE: an edge lost a game, and is removed from the computer's moves.
+	 * REINFORCE: an edge won a game. Kept for the audit trail, the
+	 * 				pruning computer has nothing to fold it into.
+	 * RESET: all edges are made active again.
+	 */
+	public static final byte PRUNE = 1;
+	public static final byte REINFORCE = 2;
+	public static final byte RESET = 3;
+
+	/**
+	 * Number of records past the checkpoint which should trigger a compaction.
+	 */
+	public static final int COMPACT_THRESHOLD = 64;
+
+	/**
+	 * Journal file signature, "HXPJ".
+	 */
+	private static final int MAGIC = 0x4858504a;
+
+	/**
+	 * Sizes of the journal parts, in bytes.
+	 */
+	private static final int HEADER_SIZE = 16;
+	private static final int RECORD_SIZE = 17;
+	private static final int CHECKSUM_OFFSET = 13;
+
+	/**
+	 * The open journal file.
+	 */
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+
+	/**
+	 * Offset past the records folded into the Brain file, and
+	 * offset of the end of the last valid record.
+	 */
+	private long checkpoint;
+	private long end;
+
+	/**
+	 * Reusable buffers for reading a single record, and writing a batch of records.
+	 */
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+	private ByteBuffer batch = ByteBuffer.allocate(RECORD_SIZE * 16);
+	private final CRC32 crc = new CRC32();
+
+	// Constructors
+
+	/**
+	 * Constructor. Opens the journal file, creating it if it does not exist.
+	 * @param file - the journal file.
+	 * @throws IOException if the file cannot be opened, or is not a valid journal.
+	 */
+	public LearningJournal(File file) throws IOException
+	{
+		this.file = new RandomAccessFile(file, "rw");
+		this.channel = this.file.getChannel();
+		try
+		{
+			if (this.channel.size() < HEADER_SIZE)
+			{
+				// New journal, nothing folded yet.
+				this.checkpoint = HEADER_SIZE;
+				this.writeHeader();
+			}
+			else
+			{
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				this.read(header, 0);
+				if (header.getInt(0) != MAGIC)
+					throw new IOException("Not a learning journal");
+				if (header.getInt(4) != VERSION)
+					throw new IOException("Unsupported learning journal version " + header.getInt(4));
+				this.checkpoint = header.getLong(8);
+			}
+			this.end = this.checkpoint;
+		}
+		catch (IOException ex)
+		{
+			this.file.close();
+			throw ex;
+		}
+	}
+
+	// Accessors
+
+	/**
+	 * Gets the number of records not yet folded into the Brain file.
+	 * @return the number of records past the checkpoint.
+	 */
+	public synchronized int getPending()
+	{
+		return (int) ((this.end - this.checkpoint) / RECORD_SIZE);
+	}
+
+	// Modifiers
+
+	/**
+	 * Replays the records past the checkpoint onto a Brain,
+	 * restoring the learning state at the time of the last record.
+	 * A torn or corrupt record ends the journal, and is cut off,
+	 * along with anything after it.
+	 * @param brain - the Brain, as loaded from its file.
+	 * @return the number of records replayed.
+	 * @throws IOException if the journal cannot be read.
+	 */
+	public synchronized int replay(Brain brain) throws IOException
+	{
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		int count = 0;
+		long size = this.channel.size();
+		this.end = this.checkpoint;
+		while (this.end + RECORD_SIZE <= size)
+		{
+			this.record.clear();
+			this.read(this.record, this.end);
+			this.crc.reset();
+			this.crc.update(this.record.array(), 0, CHECKSUM_OFFSET);
+			byte event = this.record.get(0);
+			int edge = this.record.getInt(1);
+			if ((int) this.crc.getValue() != this.record.getInt(CHECKSUM_OFFSET)
+					|| event < PRUNE || event > RESET || edge < 0 || edge >= brain.getGraph().getEdgeCount())
+				break;
+
+			switch (event)
+			{
+				case PRUNE:
+					brain.prune(edge);
+					break;
+				case REINFORCE:
+					break;
+				case RESET:
+					brain.resetLearning();
+					break;
+			}
+			this.end += RECORD_SIZE;
+			count++;
+		}
+
+		// Cut off the invalid tail, so new records follow the last valid one.
+		if (this.channel.size() > this.end)
+			this.channel.truncate(this.end);
+
+		Metrics.stop(Metrics.JOURNAL_REPLAY, start, allocations);
+		return count;
+	}
+
+	/**
+	 * Appends a learning event to the journal, and waits for it to reach the disk.
+	 * The journal must have been replayed first, to find the end of the valid records.
+	 * @param event - PRUNE, REINFORCE or RESET.
+	 * @param edge - the edge id the event applies to, ignored for RESET.
+	 * @throws IOException if the record cannot be written.
+	 */
+	public void append(byte event, int edge) throws IOException
+	{
+		this.append(new byte[] { event }, new int[] { edge }, 0, 1);
+	}
+
+	/**
+	 * Appends a batch of learning events to the journal as a single write,
+	 * and waits for them to reach the disk.
+	 * The journal must have been replayed first, to find the end of the valid records.
+	 * @param events - PRUNE, REINFORCE or RESET for each record.
+	 * @param edges - the edge id each event applies to, ignored for RESET.
+	 * @param offset - the index of the first event to append.
+	 * @param count - the number of events to append.
+	 * @throws IOException if the records cannot be written.
+	 */
+	public synchronized void append(byte[] events, int[] edges, int offset, int count) throws IOException
+	{
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		if (this.batch.capacity() < count * RECORD_SIZE)
+			this.batch = ByteBuffer.allocate(count * RECORD_SIZE);
+		this.batch.clear();
+		long time = System.currentTimeMillis();
+		for (int i = offset; i < offset + count; i++)
+		{
+			int position = this.batch.position();
+			this.batch.put(events[i]).putInt(edges[i]).putLong(time);
+			this.crc.reset();
+			this.crc.update(this.batch.array(), position, CHECKSUM_OFFSET);
+			this.batch.putInt((int) this.crc.getValue());
+		}
+		this.batch.flip();
+
+		while (this.batch.hasRemaining())
+			this.end += this.channel.write(this.batch, this.end);
+		this.channel.force(false);
+		Metrics.stop(Metrics.JOURNAL_APPEND, start, allocations);
+	}
+
+	/**
+	 * Folds the learning state of a Brain into its file,
+	 * then moves the checkpoint past all records appended so far.
+	 * @param brain - the Brain the records have been applied to.
+	 * @throws IOException if the Brain file or the journal cannot be written.
+	 */
+	public synchronized void compact(Brain brain) throws IOException
+	{
+		// The Brain must be on disk before the checkpoint moves,
+		// or a crash in between would lose the folded records.
+		long start = Metrics.start(), allocations = Metrics.allocations();
+		brain.save();
+		this.checkpoint = this.end;
+		this.writeHeader();
+		Metrics.stop(Metrics.JOURNAL_COMPACT, start, allocations);
+	}
+
+	/**
+	 * Closes the journal file.
+	 */
+	public void close()
+	{
+		try
+		{
+			this.file.close();
+		}
+		catch (IOException ex)
+		{
+			// Nothing left to release.
+		}
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Writes the journal header with the current checkpoint, and waits for it to reach the disk.
+	 * @throws IOException if the header cannot be written.
+	 */
+	private void writeHeader() throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putLong(this.checkpoint);
+		header.flip();
+		long offset = 0;
+		while (header.hasRemaining())
+			offset += this.channel.write(header, offset);
+		this.channel.force(false);
+	}
+
+	/**
+	 * Fills a buffer from the journal file.
+	 * @param dst - the buffer to fill.
+	 * @param offset - the file offset to read from.
+	 * @throws IOException if the file ends before the buffer is filled.
+	 */
+	private void read(ByteBuffer dst, long offset) throws IOException
+	{
+		while (dst.hasRemaining())
+		{
+			int n = this.channel.read(dst, offset);
+			if (n < 0)
+				throw new IOException("Unexpected end of learning journal");
+			offset += n;
+		}
+	}
+}
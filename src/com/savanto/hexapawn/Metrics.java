@@ -0,0 +1,315 @@
+package com.savanto.hexapawn;
+
+/**
+ * @author savanto
+ *
+ * Lightweight instrumentation of the engine and persistence hot paths.
+ *
+ * An instrumented operation is bracketed by start() and stop():
+ *
+ * long start = Metrics.start(), allocations = Metrics.allocations();
+ * ...
+ * Metrics.stop(Metrics.LEGAL, start, allocations);
+ *
+ * Measurements go to a pluggable Sink: a Recorder keeping counters and
+ * latency histograms in memory, or eg. a sink emitting JFR events on the JVM.
+ * With no sink installed, instrumentation is disabled, and each call
+ * costs a single field read.
+ */
+public final class Metrics
+{
+	/**
+	 * Receives every measurement while instrumentation is enabled.
+	 * Called on whichever thread performed the operation.
+	 */
+	public interface Sink
+	{
+		/**
+		 * Records one completed operation.
+		 * @param metric - the operation id.
+		 * @param nanos - time spent in the operation, in ns.
+		 * @param allocations - objects allocated by the operation, or 0 if not counted.
+		 */
+		public void record(int metric, long nanos, long allocations);
+
+		/**
+		 * Records the current value of a gauge.
+		 * @param gauge - the gauge id.
+		 * @param value - the value.
+		 */
+		public void gauge(int gauge, long value);
+	}
+
+	/**
+	 * Counts the objects allocated by the current thread so far.
+	 * Supplied by the platform, eg. from android.os.Debug.
+	 */
+	public interface AllocationCounter
+	{
+		public long count();
+	}
+
+	/**
+	 * The instrumented operations.
+	 */
+	public static final int GENERATE = 0;
+	public static final int LEGAL = 1;
+	public static final int PICK = 2;
+	public static final int MOVE = 3;
+	public static final int GRAPH_OPEN = 4;
+	public static final int SKILL = 5;
+	public static final int JOURNAL_REPLAY = 6;
+	public static final int JOURNAL_APPEND = 7;
+	public static final int JOURNAL_COMPACT = 8;
+	public static final int DB_LOAD = 9;
+	public static final int DB_GAMES = 10;
+	public static final int DRAW = 11;
+	public static final int FRAME = 12;
+	public static final int DECODE = 13;
+	public static final int HINT = 14;
+	public static final int SEARCH = 15;
+	public static final int METRIC_COUNT = 16;
+
+	/**
+	 * The gauges.
+	 */
+	public static final int POSITIONS = 0;
+	public static final int EDGES = 1;
+	public static final int DEPTH = 2;
+	public static final int DROPPED_FRAMES = 3;
+	public static final int BITMAP_BYTES = 4;
+	public static final int GAUGE_COUNT = 5;
+
+	private static final String[] METRIC_NAMES =
+		{
+			"generate", "legal", "pick", "move",
+			"graph.open", "skill",
+			"journal.replay", "journal.append", "journal.compact",
+			"db.load", "db.games",
+			"draw", "frame", "bitmap.decode", "hint", "search"
+		};
+	private static final String[] GAUGE_NAMES = { "positions", "edges", "depth", "frames.dropped", "bitmap.bytes" };
+
+	/**
+	 * The installed sink, or null if instrumentation is disabled.
+	 */
+	private static volatile Sink sink;
+
+	/**
+	 * The installed allocation counter, or null if allocations are not counted.
+	 */
+	private static volatile AllocationCounter allocationCounter;
+
+	private Metrics()
+	{
+	}
+
+	// Accessors
+
+	public static boolean isEnabled()
+	{
+		return Metrics.sink != null;
+	}
+
+	public static Sink getSink()
+	{
+		return Metrics.sink;
+	}
+
+	public static String getMetricName(int metric)
+	{
+		return METRIC_NAMES[metric];
+	}
+
+	public static String getGaugeName(int gauge)
+	{
+		return GAUGE_NAMES[gauge];
+	}
+
+	// Modifiers
+
+	/**
+	 * Installs a sink, enabling instrumentation, or removes it.
+	 * @param sink - the sink to install, or null to disable instrumentation.
+	 */
+	public static void setSink(Sink sink)
+	{
+		Metrics.sink = sink;
+	}
+
+	/**
+	 * Installs an allocation counter.
+	 * @param counter - the counter to install, or null to stop counting allocations.
+	 */
+	public static void setAllocationCounter(AllocationCounter counter)
+	{
+		Metrics.allocationCounter = counter;
+	}
+
+	/**
+	 * Marks the start of an operation.
+	 * @return the start time, in ns, or 0 if instrumentation is disabled.
+	 */
+	public static long start()
+	{
+		return Metrics.sink == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Marks the allocation count at the start of an operation.
+	 * @return the allocations so far, or 0 if they are not counted.
+	 */
+	public static long allocations()
+	{
+		AllocationCounter counter = Metrics.allocationCounter;
+		return counter == null || Metrics.sink == null ? 0 : counter.count();
+	}
+
+	/**
+	 * Marks the end of an operation, and records it.
+	 * @param metric - the operation id.
+	 * @param start - the value of start() at the start of the operation.
+	 * @param allocations - the value of allocations() at the start of the operation.
+	 */
+	public static void stop(int metric, long start, long allocations)
+	{
+		Sink sink = Metrics.sink;
+		if (sink == null || start == 0)
+			return;
+		long nanos = System.nanoTime() - start;
+		AllocationCounter counter = Metrics.allocationCounter;
+		sink.record(metric, nanos, counter == null ? 0 : counter.count() - allocations);
+	}
+
+	/**
+	 * Records an operation timed elsewhere, eg. a frame interval reported by the platform.
+	 * @param metric - the operation id.
+	 * @param nanos - time spent in the operation, in ns.
+	 */
+	public static void record(int metric, long nanos)
+	{
+		Sink sink = Metrics.sink;
+		if (sink != null)
+			sink.record(metric, nanos, 0);
+	}
+
+	/**
+	 * Records the current value of a gauge.
+	 * @param gauge - the gauge id.
+	 * @param value - the value.
+	 */
+	public static void gauge(int gauge, long value)
+	{
+		Sink sink = Metrics.sink;
+		if (sink != null)
+			sink.gauge(gauge, value);
+	}
+
+	/**
+	 * Sink keeping counters, allocation totals and a latency histogram
+	 * for each operation in memory. The histogram buckets are powers of
+	 * two ns, which is plenty to set and check latency budgets.
+	 */
+	public static class Recorder implements Sink
+	{
+		private static final int BUCKETS = 40;
+
+		private final long[] counts = new long[METRIC_COUNT];
+		private final long[] totals = new long[METRIC_COUNT];
+		private final long[] maxima = new long[METRIC_COUNT];
+		private final long[] allocations = new long[METRIC_COUNT];
+		private final long[][] histograms = new long[METRIC_COUNT][BUCKETS];
+		private final long[] gauges = new long[GAUGE_COUNT];
+
+		@Override
+		public synchronized void record(int metric, long nanos, long allocations)
+		{
+			this.counts[metric]++;
+			this.totals[metric] += nanos;
+			if (nanos > this.maxima[metric])
+				this.maxima[metric] = nanos;
+			this.allocations[metric] += allocations;
+			int bucket = 64 - Long.numberOfLeadingZeros(nanos);
+			this.histograms[metric][Math.min(bucket, BUCKETS - 1)]++;
+		}
+
+		@Override
+		public synchronized void gauge(int gauge, long value)
+		{
+			this.gauges[gauge] = value;
+		}
+
+		public synchronized long getCount(int metric)
+		{
+			return this.counts[metric];
+		}
+
+		public synchronized long getAllocations(int metric)
+		{
+			return this.allocations[metric];
+		}
+
+		public synchronized long getGauge(int gauge)
+		{
+			return this.gauges[gauge];
+		}
+
+		/**
+		 * Estimates a latency percentile from the histogram.
+		 * @param metric - the operation id.
+		 * @param percent - the percentile, eg. 99.
+		 * @return upper bound of the bucket holding the percentile, in ns.
+		 */
+		public synchronized long getPercentile(int metric, double percent)
+		{
+			long target = (long) Math.ceil(this.counts[metric] * percent / 100.0);
+			long seen = 0;
+			for (int bucket = 0; bucket < BUCKETS; bucket++)
+			{
+				seen += this.histograms[metric][bucket];
+				if (seen >= target && seen > 0)
+					return Math.min(1L << bucket, this.maxima[metric]);
+			}
+			return this.maxima[metric];
+		}
+
+		/**
+		 * Clears all measurements.
+		 */
+		public synchronized void reset()
+		{
+			for (int metric = 0; metric < METRIC_COUNT; metric++)
+			{
+				this.counts[metric] = this.totals[metric] = this.maxima[metric] = this.allocations[metric] = 0;
+				for (int bucket = 0; bucket < BUCKETS; bucket++)
+					this.histograms[metric][bucket] = 0;
+			}
+		}
+
+		/**
+		 * Dumps all recorded operations and gauges, one per line, for logging.
+		 * Latencies are in us.
+		 */
+		@Override
+		public synchronized String toString()
+		{
+			StringBuilder dump = new StringBuilder();
+			for (int metric = 0; metric < METRIC_COUNT; metric++)
+			{
+				if (this.counts[metric] == 0)
+					continue;
+				dump.append(METRIC_NAMES[metric])
+					.append(": count ").append(this.counts[metric])
+					.append(", avg ").append(this.totals[metric] / this.counts[metric] / 1000)
+					.append(", p50 ").append(this.getPercentile(metric, 50) / 1000)
+					.append(", p99 ").append(this.getPercentile(metric, 99) / 1000)
+					.append(", max ").append(this.maxima[metric] / 1000)
+					.append(", allocs ").append(this.allocations[metric])
+					.append('\n');
+			}
+			for (int gauge = 0; gauge < GAUGE_COUNT; gauge++)
+				dump.append(GAUGE_NAMES[gauge]).append(": ").append(this.gauges[gauge]).append('\n');
+			return dump.toString();
+		}
+	}
+}
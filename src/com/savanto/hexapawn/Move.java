@@ -15,4 +15,34 @@ public class Move
 		this.destRow = destRow;
 		this.destCol = destCol;
 	}
+
+	/**
+	 * Packs this Move into a single byte, two bits per coordinate,
+	 * from the high bits down: sourceRow, sourceCol, destRow, destCol.
+	 * @return the packed Move.
+	 */
+	public byte pack()
+	{
+		return (byte) (this.sourceRow << 6 | this.sourceCol << 4 | this.destRow << 2 | this.destCol);
+	}
+
+	/**
+	 * Unpacks a Move packed by pack().
+	 * @param packed - the packed Move.
+	 * @return the Move.
+	 */
+	public static Move unpack(byte packed)
+	{
+		return new Move((packed >> 6) & 3, (packed >> 4) & 3, (packed >> 2) & 3, packed & 3);
+	}
+
+	/**
+	 * Produces the Move in coordinate notation, eg. "b1-b2".
+	 */
+	@Override
+	public String toString()
+	{
+		return "" + (char) ('a' + this.sourceCol) + (Board.SIZE - this.sourceRow)
+				+ "-" + (char) ('a' + this.destCol) + (Board.SIZE - this.destRow);
+	}
 }
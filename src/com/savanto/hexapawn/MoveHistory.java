@@ -0,0 +1,309 @@
+package com.savanto.hexapawn;
+
+/**
+ * @author savanto
+ *
+ * The moves of the game being played, as the positions reached, the edges
+ * of the game graph followed and the packed Moves made, one per ply.
+ * Undone moves are kept for redo until a different move is made.
+ *
+ * The arrays are sized once, to the longest game the graph holds, so
+ * making, undoing, redoing and jumping between moves never allocates.
+ */
+public class MoveHistory
+{
+	/**
+	 * The game graph being played.
+	 */
+	private final GameGraph graph;
+
+	/**
+	 * positions[ply]: the position id reached after ply moves, positions[0] being the start.
+	 * edges[ply], moves[ply]: the edge followed and the packed Move made from positions[ply].
+	 */
+	private final int[] positions;
+	private final int[] edges;
+	private final byte[] moves;
+
+	/**
+	 * The number of moves made in the current position, and the number
+	 * of moves recorded, including those undone.
+	 */
+	private int ply;
+	private int length;
+
+	/**
+	 * Set once the outcome of the game at the end of the recorded moves
+	 * has been accounted for, ie. learned from and counted, so it is not
+	 * accounted for again when the last move is undone and redone.
+	 */
+	private boolean finished;
+
+	// Constructors
+
+	/**
+	 * Constructor. Starts at the root position of the graph.
+	 * @param graph - the game graph being played.
+	 */
+	public MoveHistory(GameGraph graph)
+	{
+		int capacity = graph.getDepth();
+		this.graph = graph;
+		this.positions = new int[capacity + 1];
+		this.edges = new int[capacity];
+		this.moves = new byte[capacity];
+		this.reset();
+	}
+
+	// Accessors
+
+	public int getPly()
+	{
+		return this.ply;
+	}
+
+	/**
+	 * Gets the current position.
+	 * @return the position id reached after getPly() moves.
+	 */
+	public int getPosition()
+	{
+		return this.positions[this.ply];
+	}
+
+	public int getLength()
+	{
+		return this.length;
+	}
+
+	/**
+	 * Gets the position reached after a number of moves.
+	 * @param ply - the number of moves, up to getLength().
+	 * @return the position id.
+	 */
+	public int getPosition(int ply)
+	{
+		return this.positions[ply];
+	}
+
+	/**
+	 * Gets the edge followed by a move.
+	 * @param ply - the number of moves before it, less than getLength().
+	 * @return the edge id.
+	 */
+	public int getEdge(int ply)
+	{
+		return this.edges[ply];
+	}
+
+	/**
+	 * Gets a move made.
+	 * @param ply - the number of moves before it, less than getLength().
+	 * @return the packed Move.
+	 */
+	public byte getMove(int ply)
+	{
+		return this.moves[ply];
+	}
+
+	/**
+	 * Finds the last move made by a color, up to the current position.
+	 * @param color - the color which moved.
+	 * @return the edge id of the move, or -1 if the color has not moved.
+	 */
+	public int getLastEdge(Board.Color color)
+	{
+		for (int ply = this.ply - 1; ply >= 0; ply--)
+		{
+			if (this.graph.getTurn(this.positions[ply]) == color)
+				return this.edges[ply];
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the moves made up to the current position, eg. to store in the game history.
+	 * @return the packed Moves, one per byte.
+	 */
+	public byte[] getMoves()
+	{
+		byte[] moves = new byte[this.ply];
+		System.arraycopy(this.moves, 0, moves, 0, this.ply);
+		return moves;
+	}
+
+	/**
+	 * Gets every edge recorded, including those of undone moves, eg. to save the game.
+	 * @return the edge ids, one per move.
+	 */
+	public int[] getRecordedEdges()
+	{
+		int[] edges = new int[this.length];
+		System.arraycopy(this.edges, 0, edges, 0, this.length);
+		return edges;
+	}
+
+	/**
+	 * Gets every move recorded, including those undone, eg. to save the game.
+	 * @return the packed Moves, one per byte.
+	 */
+	public byte[] getRecordedMoves()
+	{
+		byte[] moves = new byte[this.length];
+		System.arraycopy(this.moves, 0, moves, 0, this.length);
+		return moves;
+	}
+
+	public boolean canUndo()
+	{
+		return this.ply > 0;
+	}
+
+	public boolean canRedo()
+	{
+		return this.ply < this.length;
+	}
+
+	/**
+	 * Checks whether the outcome of the game in the current position has been accounted for.
+	 * @return true if markFinished() was called in this position, and no other move has been made since.
+	 */
+	public boolean isFinished()
+	{
+		return this.finished && this.ply == this.length;
+	}
+
+	/**
+	 * Checks whether the outcome of the game at the end of the recorded moves
+	 * has been accounted for, even if moves have been undone since.
+	 * @return true if markFinished() was called, and no other move has been made since.
+	 */
+	public boolean isMarkedFinished()
+	{
+		return this.finished;
+	}
+
+	// Modifiers
+
+	/**
+	 * Starts over from the root position of the graph, discarding all moves.
+	 */
+	public void reset()
+	{
+		this.positions[0] = this.graph.getRoot();
+		this.ply = 0;
+		this.length = 0;
+		this.finished = false;
+	}
+
+	/**
+	 * Makes a move from the current position. Any moves undone are discarded.
+	 * @param edge - the edge followed.
+	 * @param move - the packed Move made.
+	 */
+	public void push(int edge, byte move)
+	{
+		if (this.ply == this.edges.length)
+			throw new IllegalStateException("Game is longer than the game graph allows");
+		this.edges[this.ply] = edge;
+		this.moves[this.ply] = move;
+		this.ply++;
+		this.positions[this.ply] = this.graph.getTarget(edge);
+		this.length = this.ply;
+		this.finished = false;
+	}
+
+	/**
+	 * Takes back the last move.
+	 * @return false if there is no move to undo.
+	 */
+	public boolean undo()
+	{
+		if (this.ply == 0)
+			return false;
+		this.ply--;
+		return true;
+	}
+
+	/**
+	 * Makes the last undone move again.
+	 * @return false if there is no move to redo.
+	 */
+	public boolean redo()
+	{
+		if (this.ply == this.length)
+			return false;
+		this.ply++;
+		return true;
+	}
+
+	/**
+	 * Moves directly to the position after a number of moves, undoing or redoing as needed.
+	 * @param ply - the number of moves, up to getLength().
+	 */
+	public void jumpTo(int ply)
+	{
+		if (ply < 0 || ply > this.length)
+			throw new IllegalArgumentException("No position after " + ply + " moves");
+		this.ply = ply;
+	}
+
+	/**
+	 * Marks the outcome of the game at the end of the recorded moves as accounted for.
+	 */
+	public void markFinished()
+	{
+		this.finished = true;
+	}
+
+	/**
+	 * Replaces the moves with those of a saved game, as returned by
+	 * getRecordedEdges() and getRecordedMoves(). The positions are taken
+	 * straight from the edges, so no moves are searched for.
+	 * @param edges - the edge ids, one per move.
+	 * @param moves - the packed Moves, one per move.
+	 * @param ply - the number of moves made in the current position.
+	 * @param finished - true if the outcome of the game had been accounted for, see isMarkedFinished().
+	 * @throws IllegalArgumentException if the edges are not a game of the graph.
+	 */
+	public void restore(int[] edges, byte[] moves, int ply, boolean finished)
+	{
+		if (edges.length != moves.length || edges.length > this.edges.length || ply < 0 || ply > edges.length)
+			throw new IllegalArgumentException("Saved game does not fit the game graph");
+		this.reset();
+		for (int i = 0; i < edges.length; i++)
+		{
+			int position = this.getPosition();
+			if (edges[i] < this.graph.getFirstEdge(position) || edges[i] >= this.graph.getEdgeEnd(position))
+				throw new IllegalArgumentException("Edge " + edges[i] + " does not leave position " + position);
+			this.push(edges[i], moves[i]);
+		}
+		this.ply = ply;
+		this.finished = finished;
+	}
+
+	/**
+	 * Replaces the moves with a stored sequence, eg. from the game history,
+	 * and moves to the last position. The sequence can then be stepped
+	 * through with undo(), redo() and jumpTo(). Stored games have already
+	 * been accounted for, so the outcome is marked as finished.
+	 * @param moves - the packed Moves, one per move.
+	 * @throws IllegalArgumentException if the moves are not a game of the graph.
+	 */
+	public void load(byte[] moves)
+	{
+		if (moves.length > this.edges.length)
+			throw new IllegalArgumentException("Stored game is longer than the game graph allows");
+		this.reset();
+		for (int i = 0; i < moves.length; i++)
+		{
+			int position = this.getPosition(), edge = this.graph.getFirstEdge(position), end = this.graph.getEdgeEnd(position);
+			while (edge < end && this.graph.getMove(position, edge).pack() != moves[i])
+				edge++;
+			if (edge == end)
+				throw new IllegalArgumentException("Move " + Move.unpack(moves[i]) + " is not legal after " + i + " moves");
+			this.push(edge, moves[i]);
+		}
+		this.finished = true;
+	}
+}
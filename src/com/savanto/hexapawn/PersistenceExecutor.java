@@ -0,0 +1,355 @@
+package com.savanto.hexapawn;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author savanto
+ *
+ * The single thread on which all persistence writes happen, in the order
+ * they are submitted. Learning events are not written one by one: events
+ * recorded while a write is waiting or in progress are coalesced, and
+ * appended to the learning journal of their Brain together, in one write.
+ *
+ * Keeps metrics of the queue depth and the latency of each write.
+ */
+public class PersistenceExecutor
+{
+	/**
+	 * The single writer thread.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Learning events waiting to be written, and the write which will
+	 * pick them up, or null if none is queued. The two sets of arrays
+	 * are swapped on each write, so recording continues during the write.
+	 */
+	private Brain[] pendingBrains = new Brain[16];
+	private byte[] pendingEvents = new byte[16];
+	private int[] pendingEdges = new int[16];
+	private int pendingCount;
+	private Brain[] writingBrains = new Brain[16];
+	private byte[] writingEvents = new byte[16];
+	private int[] writingEdges = new int[16];
+	private Future<Void> pendingWrite;
+
+	/**
+	 * Metrics: tasks queued but not yet started, completed and failed
+	 * tasks, and the total and maximum time spent in tasks, in ns.
+	 */
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private int writeCount;
+	private int failureCount;
+	private long totalLatency;
+	private long maxLatency;
+
+	// Constructors
+
+	/**
+	 * Constructor. Starts the writer thread.
+	 */
+	public PersistenceExecutor()
+	{
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "Hexapawn persistence");
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+				return thread;
+			}
+		});
+	}
+
+	// Accessors
+
+	/**
+	 * Gets the number of tasks waiting to be started.
+	 * @return the current queue depth.
+	 */
+	public int getQueueDepth()
+	{
+		return this.queueDepth.get();
+	}
+
+	public synchronized int getWriteCount()
+	{
+		return this.writeCount;
+	}
+
+	public synchronized int getFailureCount()
+	{
+		return this.failureCount;
+	}
+
+	/**
+	 * Gets the average time spent in each task.
+	 * @return the average write latency, in ns.
+	 */
+	public synchronized long getAverageLatency()
+	{
+		return this.writeCount == 0 ? 0 : this.totalLatency / this.writeCount;
+	}
+
+	/**
+	 * Gets the longest time spent in a single task.
+	 * @return the maximum write latency, in ns.
+	 */
+	public synchronized long getMaxLatency()
+	{
+		return this.maxLatency;
+	}
+
+	/**
+	 * Produces a summary of the metrics, for logging.
+	 */
+	@Override
+	public String toString()
+	{
+		return "queue " + this.getQueueDepth()
+				+ ", writes " + this.getWriteCount()
+				+ ", failures " + this.getFailureCount()
+				+ ", latency avg " + this.getAverageLatency() / 1000 + " us"
+				+ ", max " + this.getMaxLatency() / 1000 + " us";
+	}
+
+	// Modifiers
+
+	/**
+	 * Queues a task on the writer thread.
+	 * @param task - the task performing the write.
+	 * @return a future completing when the task has run.
+	 */
+	public <T> Future<T> submit(final Callable<T> task)
+	{
+		this.queueDepth.incrementAndGet();
+		return this.executor.submit(new Callable<T>()
+		{
+			@Override
+			public T call() throws Exception
+			{
+				PersistenceExecutor.this.queueDepth.decrementAndGet();
+				long start = System.nanoTime();
+				boolean failed = true;
+				try
+				{
+					T result = task.call();
+					failed = false;
+					return result;
+				}
+				finally
+				{
+					PersistenceExecutor.this.measure(System.nanoTime() - start, failed);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Queues a task on the writer thread.
+	 * @param task - the task performing the write.
+	 * @return a future completing when the task has run.
+	 */
+	public Future<Void> submit(Runnable task)
+	{
+		return this.submit(Executors.<Void>callable(task, null));
+	}
+
+	/**
+	 * Records a learning event in the journal of a Brain. The event joins any
+	 * others not yet written, and they are all appended in the same write.
+	 * Once enough events have built up, the journal is compacted into the Brain file.
+	 * @param brain - the Brain which learned.
+	 * @param event - the LearningJournal event.
+	 * @param edge - the edge the event applies to.
+	 * @return a future completing when the event has reached the disk.
+	 */
+	public synchronized Future<Void> record(Brain brain, byte event, int edge)
+	{
+		if (this.pendingCount == this.pendingEvents.length)
+		{
+			Brain[] brains = new Brain[this.pendingCount * 2];
+			byte[] events = new byte[this.pendingCount * 2];
+			int[] edges = new int[this.pendingCount * 2];
+			System.arraycopy(this.pendingBrains, 0, brains, 0, this.pendingCount);
+			System.arraycopy(this.pendingEvents, 0, events, 0, this.pendingCount);
+			System.arraycopy(this.pendingEdges, 0, edges, 0, this.pendingCount);
+			this.pendingBrains = brains;
+			this.pendingEvents = events;
+			this.pendingEdges = edges;
+		}
+		this.pendingBrains[this.pendingCount] = brain;
+		this.pendingEvents[this.pendingCount] = event;
+		this.pendingEdges[this.pendingCount] = edge;
+		this.pendingCount++;
+
+		if (this.pendingWrite == null)
+		{
+			this.pendingWrite = this.submit(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws IOException
+				{
+					PersistenceExecutor.this.writeLearning();
+					return null;
+				}
+			});
+		}
+		return this.pendingWrite;
+	}
+
+	/**
+	 * Records the whole learning state of a Brain in its journal, eg. after
+	 * an import, as a RESET followed by a PRUNE of each inactive edge.
+	 * The events are all appended in the same write.
+	 * @param brain - the Brain whose learning changed.
+	 * @return a future completing when the state has reached the disk.
+	 */
+	public synchronized Future<Void> recordState(Brain brain)
+	{
+		Future<Void> write = this.record(brain, LearningJournal.RESET, 0);
+		for (int edge = 0; edge < brain.getGraph().getEdgeCount(); edge++)
+		{
+			if (! brain.isActive(edge))
+				write = this.record(brain, LearningJournal.PRUNE, edge);
+		}
+		return write;
+	}
+
+	/**
+	 * Saves the values learned by a QLearner into its file. The values are
+	 * copied when the write starts, so learning may continue in the mean time.
+	 * @param learner - the QLearner, opened from its file.
+	 * @return a future completing when the values have reached the disk.
+	 */
+	public Future<Void> save(final QLearner learner)
+	{
+		return this.submit(new Callable<Void>()
+		{
+			@Override
+			public Void call() throws IOException
+			{
+				learner.save();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Waits for every task submitted so far to complete.
+	 */
+	public void flush()
+	{
+		try
+		{
+			this.submit(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					// Nothing to do, all earlier tasks have run.
+				}
+			}).get();
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex)
+		{
+			// Cannot happen, the task does nothing.
+		}
+	}
+
+	/**
+	 * Completes every task submitted so far, and stops the writer thread.
+	 */
+	public void shutdown()
+	{
+		this.executor.shutdown();
+		try
+		{
+			this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Writes all pending learning events to the journals, on the writer thread.
+	 * The events of each Brain are appended to its journal in a single write.
+	 * @throws IOException if a journal cannot be written.
+	 */
+	private void writeLearning() throws IOException
+	{
+		int count;
+		synchronized (this)
+		{
+			// Take the pending events, later events start a new write.
+			Brain[] brains = this.writingBrains;
+			byte[] events = this.writingEvents;
+			int[] edges = this.writingEdges;
+			this.writingBrains = this.pendingBrains;
+			this.writingEvents = this.pendingEvents;
+			this.writingEdges = this.pendingEdges;
+			this.pendingBrains = brains.length < this.writingBrains.length ? new Brain[this.writingBrains.length] : brains;
+			this.pendingEvents = events.length < this.writingEvents.length ? new byte[this.writingEvents.length] : events;
+			this.pendingEdges = edges.length < this.writingEdges.length ? new int[this.writingEdges.length] : edges;
+			count = this.pendingCount;
+			this.pendingCount = 0;
+			this.pendingWrite = null;
+		}
+
+		try
+		{
+			// Brains are rarely switched, so the events mostly form a single run.
+			for (int first = 0, next; first < count; first = next)
+			{
+				Brain brain = this.writingBrains[first];
+				next = first + 1;
+				while (next < count && this.writingBrains[next] == brain)
+					next++;
+				LearningJournal journal = brain.getJournal();
+				if (journal == null)
+					continue;
+				journal.append(this.writingEvents, this.writingEdges, first, next - first);
+				if (journal.getPending() >= LearningJournal.COMPACT_THRESHOLD)
+					journal.compact(brain);
+			}
+		}
+		finally
+		{
+			// Let go of the Brains.
+			for (int i = 0; i < count; i++)
+				this.writingBrains[i] = null;
+		}
+	}
+
+	/**
+	 * Adds the latency of a completed task to the metrics.
+	 * @param latency - time spent in the task, in ns.
+	 * @param failed - true if the task threw an exception.
+	 */
+	private synchronized void measure(long latency, boolean failed)
+	{
+		this.writeCount++;
+		if (failed)
+			this.failureCount++;
+		this.totalLatency += latency;
+		if (latency > this.maxLatency)
+			this.maxLatency = latency;
+	}
+}
@@ -0,0 +1,323 @@
+package com.savanto.hexapawn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * @author savanto
+ *
+ * A computer player learning by temporal differences (Q-learning), rather
+ * than by pruning the moves which lose, as a Brain does. It keeps a value
+ * for every edge of the shared GameGraph, in a flat float array indexed by
+ * edge id: the value of the move for the side making it, from -1 for a
+ * certain loss, to 1 for a certain win.
+ *
+ * After each game, every move of the game, by either side, is moved towards
+ * the value of the position it reached: a win if the game ended there, or else
+ * the opposite of the best value of the opponent's moves, discounted by GAMMA
+ * so that quicker wins are worth more. The moves are updated from the last to
+ * the first, so the result of a game reaches its first move at once. Neither
+ * learning nor playing allocates.
+ *
+ * Each QLearner is stored in its own file, as a Brain is: created complete
+ * through a temporary file, and rewritten in place when saved, on the
+ * writer thread of the PersistenceExecutor.
+ *
+ * Layout of the file (all integers big-endian):
+ *
+ * HEADER		magic, version, edge count (e)
+ * VALUES		e floats, the value of each edge
+ */
+public class QLearner
+{
+	/**
+	 * Version of the file format.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The learning rate: how far a value moves towards its target on each update.
+	 */
+	public static final float ALPHA = 0.5f;
+
+	/**
+	 * The discount of the value of a position, for each move further from the end of the game.
+	 */
+	public static final float GAMMA = 0.9f;
+
+	/**
+	 * QLearner file signature, "HXPQ".
+	 */
+	private static final int MAGIC = 0x48585051;
+
+	/**
+	 * Size of the header, in bytes.
+	 */
+	private static final int HEADER_SIZE = 12;
+
+	/**
+	 * The name of this QLearner, also naming its file.
+	 */
+	private final String name;
+
+	/**
+	 * The shared game graph.
+	 */
+	private final GameGraph graph;
+
+	/**
+	 * The value of each edge, for the side making the move.
+	 */
+	private final float[] values;
+
+	/**
+	 * The file this QLearner is stored in, or null if it is held in memory.
+	 */
+	private final RandomAccessFile file;
+
+	// Constructors
+
+	/**
+	 * Constructor. Produces a QLearner held in memory only, which has not learned anything.
+	 * @param name - the name of the QLearner.
+	 * @param graph - the game graph.
+	 */
+	public QLearner(String name, GameGraph graph)
+	{
+		this(name, graph, new float[graph.getEdgeCount()], null);
+	}
+
+	/**
+	 * Constructor.
+	 * @param name - the name of the QLearner.
+	 * @param graph - the game graph.
+	 * @param values - the value of each edge.
+	 * @param file - the file the QLearner is stored in, or null.
+	 */
+	private QLearner(String name, GameGraph graph, float[] values, RandomAccessFile file)
+	{
+		this.name = name;
+		this.graph = graph;
+		this.values = values;
+		this.file = file;
+	}
+
+	/**
+	 * Opens a stored QLearner. A QLearner not stored yet is created, having learned nothing.
+	 * @param dir - the directory holding the files.
+	 * @param name - the name of the QLearner.
+	 * @param graph - the game graph.
+	 * @return the QLearner.
+	 * @throws IOException if the file cannot be created or read, or does not match the graph.
+	 */
+	public static QLearner open(File dir, String name, GameGraph graph) throws IOException
+	{
+		File file = new File(dir, QLearner.getFileName(name));
+		if (! file.exists())
+			QLearner.create(file, graph);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			ByteBuffer contents = ByteBuffer.allocate(HEADER_SIZE + graph.getEdgeCount() * 4);
+			FileChannel channel = raf.getChannel();
+			while (contents.hasRemaining())
+			{
+				if (channel.read(contents, contents.position()) < 0)
+					throw new IOException("Truncated values " + name);
+			}
+			if (contents.getInt(0) != MAGIC)
+				throw new IOException("Not a QLearner: " + name);
+			if (contents.getInt(4) != VERSION)
+				throw new IOException("Unsupported QLearner version " + contents.getInt(4));
+			if (contents.getInt(8) != graph.getEdgeCount())
+				throw new IOException("QLearner " + name + " does not match the game graph");
+
+			float[] values = new float[graph.getEdgeCount()];
+			contents.position(HEADER_SIZE);
+			contents.asFloatBuffer().get(values);
+			return new QLearner(name, graph, values, raf);
+		}
+		catch (IOException ex)
+		{
+			raf.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Closes the file of this QLearner.
+	 */
+	public void close()
+	{
+		if (this.file != null)
+		{
+			try
+			{
+				this.file.close();
+			}
+			catch (IOException ex)
+			{
+				// Nothing left to release.
+			}
+		}
+	}
+
+	// Accessors
+
+	public String getName()
+	{
+		return this.name;
+	}
+
+	public GameGraph getGraph()
+	{
+		return this.graph;
+	}
+
+	/**
+	 * Produces the filename of a QLearner, in the application's files directory.
+	 * @param name - the name of the QLearner.
+	 * @return the filename.
+	 */
+	public static String getFileName(String name)
+	{
+		return "Hexapawn." + name + ".values";
+	}
+
+	/**
+	 * Gets the value learned for a move.
+	 * @param edge - the edge id.
+	 * @return the value, for the side making the move.
+	 */
+	public synchronized float getValue(int edge)
+	{
+		return this.values[edge];
+	}
+
+	/**
+	 * Gets the value of the best move of a position.
+	 * @param position - the position id.
+	 * @return the highest value of the edges of the position, or -1 if it has none.
+	 */
+	public synchronized float getBestValue(int position)
+	{
+		float best = -1;
+		for (int edge = this.graph.getFirstEdge(position), end = this.graph.getEdgeEnd(position); edge < end; edge++)
+			best = Math.max(best, this.values[edge]);
+		return best;
+	}
+
+	/**
+	 * Chooses a move: one of the best valued, at random, or else any move,
+	 * with a small probability, to explore the moves not yet learned.
+	 * @param position - the position id.
+	 * @param epsilon - the probability of choosing any move, from 0 to 1.
+	 * @param rng - a seeded pseudorandom number generator.
+	 * @return the chosen edge id, or -1 if the position has no moves.
+	 */
+	public synchronized int pickEdge(int position, float epsilon, Random rng)
+	{
+		int first = this.graph.getFirstEdge(position), end = this.graph.getEdgeEnd(position);
+		if (first == end)
+			return -1;
+		if (epsilon > 0 && rng.nextFloat() < epsilon)
+			return first + rng.nextInt(end - first);
+
+		// One of the best moves, each kept with the probability 1 / the number seen so far.
+		float best = this.getBestValue(position);
+		int picked = -1, ties = 0;
+		for (int edge = first; edge < end; edge++)
+		{
+			if (this.values[edge] == best && rng.nextInt(++ties) == 0)
+				picked = edge;
+		}
+		return picked;
+	}
+
+	// Modifiers
+
+	/**
+	 * Learns from the moves of a finished game, by either side.
+	 * @param edges - the edges followed in the game, from the root position.
+	 * @param length - the number of moves in the game.
+	 */
+	public synchronized void learn(int[] edges, int length)
+	{
+		for (int i = length - 1; i >= 0; i--)
+		{
+			int edge = edges[i], target = this.graph.getTarget(edge);
+			float value = this.graph.getFirstEdge(target) == this.graph.getEdgeEnd(target)
+					? 1 : -GAMMA * this.getBestValue(target);
+			this.values[edge] += ALPHA * (value - this.values[edge]);
+		}
+	}
+
+	/**
+	 * Forgets everything learned.
+	 */
+	public synchronized void resetLearning()
+	{
+		for (int i = 0; i < this.values.length; i++)
+			this.values[i] = 0;
+	}
+
+	/**
+	 * Writes the current values into the file, in place,
+	 * and waits for them to reach the disk. Called on the writer thread,
+	 * see PersistenceExecutor.save().
+	 * @throws IOException if the values cannot be written to the file.
+	 */
+	public void save() throws IOException
+	{
+		if (this.file == null)
+			return;
+		ByteBuffer src = ByteBuffer.allocate(this.values.length * 4);
+		synchronized (this)
+		{
+			src.asFloatBuffer().put(this.values);
+		}
+		long offset = HEADER_SIZE;
+		FileChannel channel = this.file.getChannel();
+		while (src.hasRemaining())
+			offset += channel.write(src, offset);
+		channel.force(false);
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Creates a QLearner file, with every value 0. The file is first written
+	 * to a temporary file, which then takes its place, as for a Brain.
+	 * @param file - the QLearner file.
+	 * @param graph - the game graph.
+	 * @throws IOException if the file cannot be written.
+	 */
+	private static void create(File file, GameGraph graph) throws IOException
+	{
+		ByteBuffer contents = ByteBuffer.allocate(HEADER_SIZE + graph.getEdgeCount() * 4);
+		contents.putInt(MAGIC).putInt(VERSION).putInt(graph.getEdgeCount());
+
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try
+		{
+			out.write(contents.array());
+			out.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+		if (! temp.renameTo(file))
+		{
+			temp.delete();
+			throw new IOException("Unable to create " + file);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.savanto.hexapawn;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * @author savanto
+ *
+ * Solves positions of the game graph by exhaustive negamax search,
+ * regardless of what any Brain has learned. Every game ends in a win for
+ * one side, so the value of a position is the number of moves left until
+ * the end of the game with best play, positive if the side to move wins
+ * and negative if it loses. Winning sides take the shortest way to the end,
+ * and losing sides the longest.
+ *
+ * Each position is solved once: values are kept in a table indexed by
+ * position id, and shared by every later search. A Solver is not thread-safe.
+ */
+public class Solver
+{
+	/**
+	 * The value of a won position with no moves left, ie. the best value possible.
+	 * Values are WIN - n for a win in n moves, and -(WIN - n) for a loss in n moves.
+	 */
+	public static final int WIN = 1000;
+
+	/**
+	 * Marks positions not yet solved.
+	 */
+	private static final int UNKNOWN = Integer.MIN_VALUE;
+
+	/**
+	 * The game graph being solved.
+	 */
+	private final GameGraph graph;
+
+	/**
+	 * values[position]: the value of each position solved so far, or UNKNOWN.
+	 */
+	private final int[] values;
+
+	// Constructors
+
+	/**
+	 * Constructor.
+	 * @param graph - the game graph to solve.
+	 */
+	public Solver(GameGraph graph)
+	{
+		this.graph = graph;
+		this.values = new int[graph.getPositionCount()];
+		Arrays.fill(this.values, Solver.UNKNOWN);
+	}
+
+	// Accessors
+
+	/**
+	 * Solves a position.
+	 * @param position - the position id.
+	 * @return the value of the position, for the side to move.
+	 * @throws CancellationException if the solving thread is interrupted.
+	 */
+	public int getValue(int position)
+	{
+		if (this.values[position] == Solver.UNKNOWN)
+		{
+			if (Thread.currentThread().isInterrupted())
+				throw new CancellationException("Solving interrupted");
+
+			// The side to move loses when it has no moves.
+			int value = -Solver.WIN;
+			for (int edge = this.graph.getFirstEdge(position), end = this.graph.getEdgeEnd(position); edge < end; edge++)
+				value = Math.max(value, this.getEdgeValue(edge));
+			this.values[position] = value;
+		}
+		return this.values[position];
+	}
+
+	/**
+	 * Solves the position reached by a move.
+	 * @param edge - the edge id of the move.
+	 * @return the value of the move, for the side making it.
+	 * @throws CancellationException if the solving thread is interrupted.
+	 */
+	public int getEdgeValue(int edge)
+	{
+		// One move further from the end than the position it reaches.
+		int value = -this.getValue(this.graph.getTarget(edge));
+		return value > 0 ? value - 1 : value + 1;
+	}
+
+	/**
+	 * Finds the best move of a position.
+	 * @param position - the position id.
+	 * @return the edge id of the best move, the first of equally good moves, or -1 if there are no moves.
+	 * @throws CancellationException if the solving thread is interrupted.
+	 */
+	public int getBestEdge(int position)
+	{
+		int best = -1, bestValue = Integer.MIN_VALUE;
+		for (int edge = this.graph.getFirstEdge(position), end = this.graph.getEdgeEnd(position); edge < end; edge++)
+		{
+			int value = this.getEdgeValue(edge);
+			if (value > bestValue)
+			{
+				best = edge;
+				bestValue = value;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Checks whether a value is a win.
+	 * @param value - a value returned by getValue() or getEdgeValue().
+	 * @return true if the side the value is for wins.
+	 */
+	public static boolean isWin(int value)
+	{
+		return value > 0;
+	}
+
+	/**
+	 * Measures the length of the game a value stands for.
+	 * @param value - a value returned by getValue() or getEdgeValue().
+	 * @return the number of moves left until the end of the game, with best play.
+	 */
+	public static int getDistance(int value)
+	{
+		return Solver.WIN - Math.abs(value);
+	}
+}
@@ -1,8 +1,8 @@
 package com.savanto.hexapawn;
 
 import android.content.Context;
+import android.content.res.TypedArray;
 import android.util.AttributeSet;
-import android.view.View;
 import android.view.ViewGroup;
 
 /**
@@ -11,19 +11,23 @@ import android.view.ViewGroup;
  * http://stackoverflow.com/questions/2948212/android-layout-with-sqare-buttons
  * http://blog.tomgibara.com/post/1696552527/implement-your-own-android-layouts
  * 
- * This layout arranges all child views in a square grid.
- * The whole layout always remains square (equal height and width).
- * The child views remain the same size and are square.
- * They are positioned in a dynamically-expanding grid.
+ * This layout arranges all child views in a grid of square cells,
+ * row by row. The grid is given by the rows and columns attributes,
+ * to match eg. the board geometry, or else is the smallest square grid
+ * holding all children. The cells are as large as the space allows,
+ * and the layout wraps them exactly.
+ *
+ * Both measuring and laying out take a single pass over the children.
  *
  */
 public class SquareLayout extends ViewGroup
 {
-
 	/**
-	 * The layout size
+	 * The number of rows and columns of the grid,
+	 * or 0 to fit the grid to the number of children.
 	 */
-	private int layoutSize = 0;
+	private int rows = 0;
+	private int columns = 0;
 
 	/**
 	 * The size of each child. All children are equal in size,
@@ -32,9 +36,10 @@ public class SquareLayout extends ViewGroup
 	private int childSize = 0;
 
 	/**
-	 * The dimension of each side of the grid.
+	 * The grid used by the last measurement.
 	 */
-	private int gridDimension = 0;
+	private int gridRows = 0;
+	private int gridColumns = 0;
 
 	// Constructors
 
@@ -55,6 +60,10 @@ public class SquareLayout extends ViewGroup
 	public SquareLayout(Context context, AttributeSet attrs)
 	{
 		super(context, attrs);
+		TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.SquareLayout);
+		this.rows = a.getInt(R.styleable.SquareLayout_rows, 0);
+		this.columns = a.getInt(R.styleable.SquareLayout_columns, 0);
+		a.recycle();
 	}
 
 	/**
@@ -63,26 +72,16 @@ public class SquareLayout extends ViewGroup
 	@Override
 	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
 	{
-		// TODO: support for wrap_content or other size constrains.
-		// Currently, only able to take up the whole width/height of the screen,
-		// depending on which is smaller.
-		this.layoutSize = Math.min(MeasureSpec.getSize(widthMeasureSpec), 
-				MeasureSpec.getSize(heightMeasureSpec));
-
-		// Count the number of children and determine how to arrange them
-		// in a square grid. Arrangement is as follows:
-		// Let the number of children be n. Let s be the smallest perfect
-		// square where s >= n. Grid size is therfore sqrt(s) x sqrt(s),
-		// with sqrt(s) children taking up the full size of the smaller
-		// of the width or height, and remaining children are added below.
-		// Ie.
+		final int childCount = this.getChildCount();
+
+		// Determine the grid. Without explicit rows and columns,
+		// let the number of children be n. Let s be the smallest perfect
+		// square where s >= n. Grid size is therefore sqrt(s) x sqrt(s),
+		// and children are added row by row. Ie.
 		//  
 		// o o		n = 3
 		// o .
 		// 
-		// o o		n = 4
-		// o o
-		// 
 		// o o o	n = 5
 		// o o .
 		// . . .
@@ -91,39 +90,39 @@ public class SquareLayout extends ViewGroup
 		// o o o
 		// o o o
 		//
-		// o o o o	n = 10
-		// o o o o
-		// o o . .
-		// . . . .
-		//
-
-		final int childCount = this.getChildCount();
-		// Find the next perfect square that is >= the number of children
-		for (int i = childCount; i <= childCount * 2; i++)
+		if (this.rows > 0 && this.columns > 0)
 		{
-			int root = (int) Math.round(Math.sqrt(i));
-			if (root * root == i)
-			{
-				this.gridDimension = root;
-				break;
-			}
+			this.gridRows = this.rows;
+			this.gridColumns = this.columns;
+		}
+		else
+		{
+			int root = 1;
+			while (root * root < childCount)
+				root++;
+			this.gridRows = this.gridColumns = root;
 		}
 
+		// Make the cells as large as the space allows.
+		// TODO: support for wrap_content or other size constrains.
+		// Currently, only able to take up the whole width/height of the screen,
+		// depending on which is smaller.
+		int width = MeasureSpec.getSize(widthMeasureSpec) - this.getPaddingLeft() - this.getPaddingRight();
+		int height = MeasureSpec.getSize(heightMeasureSpec) - this.getPaddingTop() - this.getPaddingBottom();
+		this.childSize = Math.max(0, Math.min(width / this.gridColumns, height / this.gridRows));
+
 		// Ask each child to measure themselves, based on the calculated
 		// child size
-		this.childSize = this.layoutSize / this.gridDimension;
-		this.measureChildren(
-				MeasureSpec.makeMeasureSpec(this.childSize, MeasureSpec.EXACTLY), 
-				MeasureSpec.makeMeasureSpec(this.childSize, MeasureSpec.EXACTLY)
-		);
-
+		int childSpec = MeasureSpec.makeMeasureSpec(this.childSize, MeasureSpec.EXACTLY);
+		this.measureChildren(childSpec, childSpec);
 
 		// Set the measured dimensions for this layout,
 		// as required by measure.
-		this.setMeasuredDimension(this.layoutSize, this.layoutSize);
+		this.setMeasuredDimension(
+				this.gridColumns * this.childSize + this.getPaddingLeft() + this.getPaddingRight(),
+				this.gridRows * this.childSize + this.getPaddingTop() + this.getPaddingBottom());
 	}
 
-
 	/**
 	 * Lays out each child onto the grid.
 	 */
@@ -131,27 +130,23 @@ public class SquareLayout extends ViewGroup
 	protected void onLayout(boolean changed, int l, int t, int r, int b)
 	{
 		// TODO: get the LayoutParams of the children in order to honor their
-		// margins and padding settings.
+		// margins.
 
-		// Arrange children according to the grid
+		// Arrange children according to the grid.
+		// Children are laid out relative to this layout, inside its padding.
+		int left = this.getPaddingLeft(), top = this.getPaddingTop();
 		int row = 0, col = 0;
-		for (int i = 0; i < this.getChildCount(); i++)
+		for (int i = 0; i < this.getChildCount() && row < this.gridRows; i++)
 		{
-			View child = this.getChildAt(i);
-			child.layout(
-					l + col * this.childSize, 
-					t + row * this.childSize, 
-					col * this.childSize + this.childSize, 
-					row * this.childSize + this.childSize
-			);
+			int x = left + col * this.childSize, y = top + row * this.childSize;
+			this.getChildAt(i).layout(x, y, x + this.childSize, y + this.childSize);
 			col++;
 			// Check for edge
-			if (col >= this.gridDimension)
+			if (col >= this.gridColumns)
 			{
 				col = 0;
 				row++;
 			}
-
 		}
 	}
 
@@ -161,7 +156,7 @@ public class SquareLayout extends ViewGroup
 	 */
 	public int getChildSize()
 	{
-		return this.layoutSize / this.gridDimension;
+		return this.childSize;
 	}
 
 	/**
@@ -170,6 +165,6 @@ public class SquareLayout extends ViewGroup
 	 */
 	public int getLayoutSize()
 	{
-		return this.layoutSize;
+		return Math.max(this.getMeasuredWidth(), this.getMeasuredHeight());
 	}
 }
@@ -0,0 +1,119 @@
+package com.savanto.hexapawn;
+
+/**
+ * @author savanto
+ *
+ * The rules of a variant of Hexapawn, on a board of any size:
+ *
+ * doubleStep		pawns on their home rank may also move two squares forward,
+ * 					if both squares are empty.
+ * enPassant		a pawn which has just moved two squares may be captured
+ * 					by the next move, as if it had only moved one.
+ * blockadeDraw		a side left without moves draws, rather than loses.
+ * winRank			the rank a pawn wins on reaching, counted from its own
+ * 					home rank as 1, or 0 for the far rank, as in classic Hexapawn.
+ *
+ * A side also loses once all its pawns are captured. The rules are not
+ * checked move by move, but compiled into the tables of a VariantGenerator.
+ */
+public class Variant
+{
+	/**
+	 * The rules of classic Hexapawn.
+	 */
+	public static final Variant CLASSIC = new Variant(false, false, false, 0);
+
+	private final boolean doubleStep;
+	private final boolean enPassant;
+	private final boolean blockadeDraw;
+	private final int winRank;
+
+	// Constructors
+
+	/**
+	 * Constructor.
+	 * @param doubleStep - true if pawns may move two squares from their home rank.
+	 * @param enPassant - true if a pawn which has just moved two squares may be captured en passant.
+	 * @param blockadeDraw - true if a side without moves draws, false if it loses.
+	 * @param winRank - the rank a pawn wins on, counted from its home rank as 1, or 0 for the far rank.
+	 */
+	public Variant(boolean doubleStep, boolean enPassant, boolean blockadeDraw, int winRank)
+	{
+		if (winRank < 0 || winRank == 1)
+			throw new IllegalArgumentException("Pawns cannot win on rank " + winRank);
+		if (enPassant && ! doubleStep)
+			throw new IllegalArgumentException("En passant needs the double step");
+		this.doubleStep = doubleStep;
+		this.enPassant = enPassant;
+		this.blockadeDraw = blockadeDraw;
+		this.winRank = winRank;
+	}
+
+	// Accessors
+
+	public boolean isDoubleStep()
+	{
+		return this.doubleStep;
+	}
+
+	public boolean isEnPassant()
+	{
+		return this.enPassant;
+	}
+
+	public boolean isBlockadeDraw()
+	{
+		return this.blockadeDraw;
+	}
+
+	/**
+	 * Gets the rank a pawn wins on, on a board of a given size.
+	 * @param rows - the number of ranks of the board.
+	 * @return the rank, counted from the pawn's home rank as 1.
+	 */
+	public int getWinRank(int rows)
+	{
+		return this.winRank == 0 ? rows : Math.min(this.winRank, rows);
+	}
+
+	/**
+	 * Compiles the rules for a board of a given size.
+	 * @param rows - the number of ranks.
+	 * @param cols - the number of files.
+	 * @return the move generator of the variant.
+	 */
+	public VariantGenerator compile(int rows, int cols)
+	{
+		return new VariantGenerator(this, rows, cols);
+	}
+
+	/**
+	 * Compiles the rules for generating the moves of batches of positions.
+	 * @param rows - the number of ranks.
+	 * @param cols - the number of files.
+	 * @return the batch move generator of the variant.
+	 * @throws IllegalArgumentException if the variant has the double step.
+	 */
+	public BatchMoveGenerator compileBatch(int rows, int cols)
+	{
+		return new BatchMoveGenerator(this, rows, cols);
+	}
+
+	/**
+	 * Describes the rules, eg. "double-step,en-passant,draw,rank-3", or "classic".
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder name = new StringBuilder();
+		if (this.doubleStep)
+			name.append("double-step,");
+		if (this.enPassant)
+			name.append("en-passant,");
+		if (this.blockadeDraw)
+			name.append("draw,");
+		if (this.winRank != 0)
+			name.append("rank-").append(this.winRank).append(',');
+		return name.length() == 0 ? "classic" : name.substring(0, name.length() - 1);
+	}
+}
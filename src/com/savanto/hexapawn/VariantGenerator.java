@@ -0,0 +1,276 @@
+package com.savanto.hexapawn;
+
+/**
+ * @author savanto
+ *
+ * The move generator of a Variant, on a board of a given size.
+ *
+ * The rules are compiled into tables when the generator is created, so
+ * that generating moves never checks which rules are in play: eg. without
+ * the double step, its table is empty, and without en passant, no position
+ * ever has an en passant square. Squares are numbered and masked as in Board,
+ * generalized to any number of ranks and files: the square of row and col
+ * is bit (rows - 1 - row) * cols + cols - 1 - col, row 0 being BLACK's home
+ * rank, so WHITE moves up by cols bits, and BLACK down. Boards of up to
+ * 31 squares fit the bitboards.
+ *
+ * A position is given by the pawns of each side, the side to move,
+ * and the en passant square, ie. the square passed over by a double step
+ * on the last move, or 0. Generating the moves of a position allocates nothing.
+ */
+public class VariantGenerator
+{
+	/**
+	 * The results of a position, for the side to move.
+	 */
+	public static final int LOSS = -1;
+	public static final int DRAW = 0;
+	public static final int ONGOING = 1;
+
+	/**
+	 * The number of ints per move in the moves buffer: black, white, en passant square.
+	 */
+	public static final int MOVE_SIZE = 3;
+
+	private static final int BLACK = 0, WHITE = 1;
+
+	private final Variant variant;
+	private final int rows, cols;
+
+	/**
+	 * The tables, by color and square:
+	 * push: the square one forward, or 0 off the board.
+	 * doubleStep: the square two forward from the home rank, or 0.
+	 * passed: the en passant square left by the double step, or 0.
+	 * captures: the squares diagonally forward.
+	 */
+	private final int[][] push;
+	private final int[][] doubleStep;
+	private final int[][] passed;
+	private final int[][] captures;
+
+	/**
+	 * winning[color]: the squares on which a pawn of the color has won.
+	 */
+	private final int[] winning;
+
+	/**
+	 * The result of a position with no moves, for the side to move.
+	 */
+	private final int blockade;
+
+	// Constructors
+
+	/**
+	 * Constructor. Compiles the rules of a variant.
+	 * @param variant - the rules.
+	 * @param rows - the number of ranks, at least 2.
+	 * @param cols - the number of files, at least 1.
+	 */
+	VariantGenerator(Variant variant, int rows, int cols)
+	{
+		if (rows < 2 || cols < 1 || rows * cols > 31)
+			throw new IllegalArgumentException("No " + rows + "x" + cols + " board fits the bitboards");
+		this.variant = variant;
+		this.rows = rows;
+		this.cols = cols;
+		int squares = rows * cols;
+		this.push = new int[2][squares];
+		this.doubleStep = new int[2][squares];
+		this.passed = new int[2][squares];
+		this.captures = new int[2][squares];
+		this.winning = new int[2];
+
+		int winRank = variant.getWinRank(rows);
+		for (int row = 0; row < rows; row++)
+		{
+			for (int col = 0; col < cols; col++)
+			{
+				int s = this.bit(row, col);
+				for (int color = BLACK; color <= WHITE; color++)
+				{
+					// The row a pawn moves to, and its rank counted from its home rank.
+					int forward = color == WHITE ? -1 : 1;
+					int rank = color == WHITE ? rows - row : row + 1;
+					if (rank >= winRank)
+						this.winning[color] |= 1 << s;
+					if (rank >= winRank || row + forward < 0 || row + forward >= rows)
+						continue;
+
+					this.push[color][s] = this.square(row + forward, col);
+					if (col > 0)
+						this.captures[color][s] |= this.square(row + forward, col - 1);
+					if (col < cols - 1)
+						this.captures[color][s] |= this.square(row + forward, col + 1);
+					if (variant.isDoubleStep() && rank == 1 && row + 2 * forward >= 0 && row + 2 * forward < rows)
+					{
+						this.doubleStep[color][s] = this.square(row + 2 * forward, col);
+						if (variant.isEnPassant())
+							this.passed[color][s] = this.push[color][s];
+					}
+				}
+			}
+		}
+		this.blockade = variant.isBlockadeDraw() ? DRAW : LOSS;
+	}
+
+	// Accessors
+
+	public Variant getVariant()
+	{
+		return this.variant;
+	}
+
+	public int getRows()
+	{
+		return this.rows;
+	}
+
+	public int getCols()
+	{
+		return this.cols;
+	}
+
+	/**
+	 * Gets the pawns of a side at the start of a game, a full home rank.
+	 * @param color - the side.
+	 * @return the bitboard of the pawns.
+	 */
+	public int getStart(Board.Color color)
+	{
+		int row = color == Board.Color.WHITE ? this.rows - 1 : 0, pawns = 0;
+		for (int col = 0; col < this.cols; col++)
+			pawns |= this.square(row, col);
+		return pawns;
+	}
+
+	/**
+	 * Calculates the mask of a single square.
+	 * @param row - the row of the square, 0 being BLACK's home rank.
+	 * @param col - the column of the square, 0 being file a.
+	 * @return the mask of the square.
+	 */
+	public int square(int row, int col)
+	{
+		return 1 << this.bit(row, col);
+	}
+
+	/**
+	 * Determines the move made between two positions, from the pawns of the side which moved.
+	 * @param turn - the side which moved.
+	 * @param black - the black pawns before the move.
+	 * @param white - the white pawns before the move.
+	 * @param nextBlack - the black pawns after the move.
+	 * @param nextWhite - the white pawns after the move.
+	 * @return the Move made.
+	 */
+	public Move getMove(Board.Color turn, int black, int white, int nextBlack, int nextWhite)
+	{
+		int us = turn == Board.Color.WHITE ? white : black, next = turn == Board.Color.WHITE ? nextWhite : nextBlack;
+		int from = Integer.numberOfTrailingZeros(us & ~next), to = Integer.numberOfTrailingZeros(next & ~us);
+		return new Move(this.rows - 1 - from / this.cols, this.cols - 1 - from % this.cols,
+				this.rows - 1 - to / this.cols, this.cols - 1 - to % this.cols);
+	}
+
+	/**
+	 * Gets the size of a buffer holding the moves of any position.
+	 * @return the number of ints needed, see generate().
+	 */
+	public int getBufferSize()
+	{
+		// Every pawn has at most a push, a double step and two captures.
+		return this.cols * 4 * MOVE_SIZE;
+	}
+
+	/**
+	 * Judges a position before moving.
+	 * @param black - the black pawns.
+	 * @param white - the white pawns.
+	 * @param turn - the side to move.
+	 * @param ep - the en passant square, or 0.
+	 * @param moves - a buffer of getBufferSize() ints, overwritten.
+	 * @return LOSS or DRAW if the game is over, for the side to move, or else ONGOING.
+	 */
+	public int getResult(int black, int white, Board.Color turn, int ep, int[] moves)
+	{
+		if (this.isOver(black, white))
+			return LOSS;
+		return this.generate(black, white, turn, ep, moves) == 0 ? this.blockade : ONGOING;
+	}
+
+	/**
+	 * Generates the moves of a position.
+	 * @param black - the black pawns.
+	 * @param white - the white pawns.
+	 * @param turn - the side to move.
+	 * @param ep - the en passant square, or 0.
+	 * @param moves - a buffer of getBufferSize() ints, filled with the positions after
+	 * 				each move, as MOVE_SIZE ints: black, white, en passant square.
+	 * @return the number of moves, 0 if the game is over.
+	 */
+	public int generate(int black, int white, Board.Color turn, int ep, int[] moves)
+	{
+		if (this.isOver(black, white))
+			return 0;
+
+		int color = turn == Board.Color.WHITE ? WHITE : BLACK;
+		int us = color == WHITE ? white : black, them = color == WHITE ? black : white;
+		int empty = ~(black | white);
+		int[] push = this.push[color], doubleStep = this.doubleStep[color];
+		int[] passed = this.passed[color], captures = this.captures[color];
+
+		// The pawn taken by capturing on the en passant square, one square past it.
+		int epVictim = ep == 0 ? 0 : this.push[1 - color][Integer.numberOfTrailingZeros(ep)];
+
+		int n = 0;
+		for (int pawns = us; pawns != 0; pawns &= pawns - 1)
+		{
+			int s = Integer.numberOfTrailingZeros(pawns), from = 1 << s;
+			int to = push[s] & empty;
+			if (to != 0)
+			{
+				n = this.add(moves, n, color, us ^ from | to, them, 0);
+				to = doubleStep[s] & empty;
+				if (to != 0)
+					n = this.add(moves, n, color, us ^ from | to, them, passed[s]);
+			}
+			for (int targets = captures[s] & (them | ep); targets != 0; targets &= targets - 1)
+			{
+				to = targets & -targets;
+				n = this.add(moves, n, color, us ^ from | to, them & ~(to | (to == ep ? epVictim : 0)), 0);
+			}
+		}
+		return n / MOVE_SIZE;
+	}
+
+	// Internal helper functions
+
+	private int bit(int row, int col)
+	{
+		return (this.rows - 1 - row) * this.cols + this.cols - 1 - col;
+	}
+
+	/**
+	 * Checks for the end of the game before moving: a side has
+	 * no pawns left, or a pawn has reached its winning squares.
+	 * @param black - the black pawns.
+	 * @param white - the white pawns.
+	 * @return true if the game is over.
+	 */
+	private boolean isOver(int black, int white)
+	{
+		return black == 0 || white == 0 || (black & this.winning[BLACK]) != 0 || (white & this.winning[WHITE]) != 0;
+	}
+
+	/**
+	 * Adds a move to the moves buffer.
+	 * @return the index following the move.
+	 */
+	private int add(int[] moves, int n, int color, int us, int them, int ep)
+	{
+		moves[n] = color == WHITE ? them : us;
+		moves[n + 1] = color == WHITE ? us : them;
+		moves[n + 2] = ep;
+		return n + MOVE_SIZE;
+	}
+}
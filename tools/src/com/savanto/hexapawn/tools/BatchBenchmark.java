@@ -0,0 +1,251 @@
+package com.savanto.hexapawn.tools;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import com.savanto.hexapawn.BatchMoveGenerator;
+import com.savanto.hexapawn.Board;
+import com.savanto.hexapawn.Variant;
+import com.savanto.hexapawn.VariantGenerator;
+
+/**
+ * @author savanto
+ *
+ * Measures the throughput of the BatchMoveGenerator against generating
+ * the moves of one position at a time with the VariantGenerator.
+ *
+ * The positions are those reached by every game of the classic variant,
+ * breadth-first from the start, as many times over as needed to fill
+ * POOL_SIZE positions. They are first checked against the VariantGenerator:
+ * the same results, and the same positions after the moves. They are then
+ * cut into batches of each size, and the positions per second are measured
+ * for the VariantGenerator, and for counting and expanding batches.
+ *
+ * Usage:
+ * BatchBenchmark [rows cols]	the size of the board, default 4x4,
+ * 								exiting with status 1 if the generators differ.
+ */
+public class BatchBenchmark
+{
+	/**
+	 * The batch sizes measured.
+	 */
+	private static final int[] BATCH_SIZES = { 1, 4, 16, 64, 256, 1024, 4096, 16384, 65536 };
+
+	/**
+	 * The number of positions in the benchmark.
+	 */
+	private static final int POOL_SIZE = 65536;
+
+	/**
+	 * The minimum time measured for each generator and batch size, in nanoseconds.
+	 */
+	private static final long MEASURE_TIME = 200000000L;
+
+	/**
+	 * Keeps the results measured, so that the JIT cannot discard the work.
+	 */
+	private static long sink;
+
+	public static void main(String[] args)
+	{
+		int rows = 4, cols = 4;
+		try
+		{
+			if (args.length == 2)
+			{
+				rows = Integer.parseInt(args[0]);
+				cols = Integer.parseInt(args[1]);
+			}
+			else if (args.length != 0)
+				BatchBenchmark.usage();
+		}
+		catch (NumberFormatException ex)
+		{
+			BatchBenchmark.usage();
+		}
+
+		VariantGenerator single = Variant.CLASSIC.compile(rows, cols);
+		BatchMoveGenerator batch = Variant.CLASSIC.compileBatch(rows, cols);
+		int[][] pool = BatchBenchmark.pool(single);
+		BatchBenchmark.check(single, batch, pool);
+
+		System.out.println(String.format(Locale.US, "%dx%d board, %d positions (Mpositions/s)", rows, cols, POOL_SIZE));
+		System.out.println(String.format(Locale.US, "%8s %10s %10s %10s %10s %10s",
+				"batch", "single", "count", "expand", "count x", "expand x"));
+		for (int i = 0; i < BatchBenchmark.BATCH_SIZES.length; i++)
+		{
+			int size = BatchBenchmark.BATCH_SIZES[i];
+			int[][][] batches = BatchBenchmark.split(pool, size);
+			double perSingle = BatchBenchmark.measure(single, batch, batches, 0);
+			double perCount = BatchBenchmark.measure(single, batch, batches, 1);
+			double perExpand = BatchBenchmark.measure(single, batch, batches, 2);
+			System.out.println(String.format(Locale.US, "%8d %10.1f %10.1f %10.1f %9.2fx %9.2fx", size,
+					perSingle / 1e6, perCount / 1e6, perExpand / 1e6, perCount / perSingle, perExpand / perSingle));
+		}
+		if (BatchBenchmark.sink == 42)
+			System.out.println();
+	}
+
+	/**
+	 * Collects the positions of every game from the start, breadth-first.
+	 * @param generator - the generator of the variant.
+	 * @return the black pawns, white pawns and turns of POOL_SIZE positions.
+	 */
+	private static int[][] pool(VariantGenerator generator)
+	{
+		int[][] pool = new int[3][BatchBenchmark.POOL_SIZE];
+		int[] moves = new int[generator.getBufferSize()];
+		int[][] level = { { generator.getStart(Board.Color.BLACK) }, { generator.getStart(Board.Color.WHITE) },
+				{ BatchMoveGenerator.WHITE } };
+		int n = 0, levelSize = 1;
+		while (n < BatchBenchmark.POOL_SIZE)
+		{
+			int[][] next = new int[3][levelSize * generator.getBufferSize()];
+			int nextSize = 0;
+			for (int i = 0; i < levelSize && n < BatchBenchmark.POOL_SIZE; i++, n++)
+			{
+				pool[0][n] = level[0][i];
+				pool[1][n] = level[1][i];
+				pool[2][n] = level[2][i];
+				Board.Color turn = level[2][i] == BatchMoveGenerator.WHITE ? Board.Color.WHITE : Board.Color.BLACK;
+				int count = generator.generate(level[0][i], level[1][i], turn, 0, moves);
+				for (int m = 0; m < count; m++, nextSize++)
+				{
+					next[0][nextSize] = moves[m * VariantGenerator.MOVE_SIZE];
+					next[1][nextSize] = moves[m * VariantGenerator.MOVE_SIZE + 1];
+					next[2][nextSize] = 1 - level[2][i];
+				}
+			}
+
+			// Every game has ended, start over.
+			if (nextSize == 0)
+			{
+				next = new int[][] { { pool[0][0] }, { pool[1][0] }, { pool[2][0] } };
+				nextSize = 1;
+			}
+			level = next;
+			levelSize = nextSize;
+		}
+		return pool;
+	}
+
+	/**
+	 * Checks the batch generator against the single position generator, on every position of the pool.
+	 */
+	private static void check(VariantGenerator single, BatchMoveGenerator batch, int[][] pool)
+	{
+		int n = pool[0].length, max = batch.getMaxMoves();
+		int[] counts = new int[n], results = new int[n];
+		int[][] children = new int[4][n * max];
+		batch.countMoves(pool[0], pool[1], pool[2], n, counts);
+		batch.classify(pool[0], pool[1], pool[2], n, results);
+		int total = batch.expand(pool[0], pool[1], pool[2], n, children[0], children[1], children[2], children[3]);
+
+		int[] moves = new int[single.getBufferSize()];
+		int child = 0;
+		for (int i = 0; i < n; i++)
+		{
+			Board.Color turn = pool[2][i] == BatchMoveGenerator.WHITE ? Board.Color.WHITE : Board.Color.BLACK;
+			String position = pool[0][i] + " " + pool[1][i] + " " + turn;
+			int result = single.getResult(pool[0][i], pool[1][i], turn, 0, moves);
+			int count = single.generate(pool[0][i], pool[1][i], turn, 0, moves);
+			if (results[i] != result)
+				BatchBenchmark.fail(position + ": result " + results[i] + ", single " + result);
+			if (counts[i] != count)
+				BatchBenchmark.fail(position + ": " + counts[i] + " moves, single " + count);
+
+			long[] expected = new long[count], actual = new long[count];
+			for (int m = 0; m < count; m++, child++)
+			{
+				expected[m] = BatchBenchmark.key(moves[m * VariantGenerator.MOVE_SIZE], moves[m * VariantGenerator.MOVE_SIZE + 1]);
+				if (child >= total || children[3][child] != i || children[2][child] != 1 - pool[2][i])
+					BatchBenchmark.fail(position + ": children out of order");
+				actual[m] = BatchBenchmark.key(children[0][child], children[1][child]);
+			}
+			Arrays.sort(expected);
+			Arrays.sort(actual);
+			if (! Arrays.equals(expected, actual))
+				BatchBenchmark.fail(position + ": moves to " + Arrays.toString(actual) + ", single " + Arrays.toString(expected));
+		}
+		if (child != total)
+			BatchBenchmark.fail(total + " moves, single " + child);
+	}
+
+	/**
+	 * Cuts the pool into batches.
+	 * @return batches[b]: the black pawns, white pawns and turns of batch b.
+	 */
+	private static int[][][] split(int[][] pool, int size)
+	{
+		int[][][] batches = new int[(pool[0].length + size - 1) / size][3][];
+		for (int b = 0; b < batches.length; b++)
+		{
+			int from = b * size, to = Math.min(from + size, pool[0].length);
+			for (int k = 0; k < 3; k++)
+				batches[b][k] = Arrays.copyOfRange(pool[k], from, to);
+		}
+		return batches;
+	}
+
+	/**
+	 * Measures one generator over all the batches, repeatedly.
+	 * @param kind - 0 for the single position generator, 1 for counting batches, 2 for expanding batches.
+	 * @return the number of positions per second.
+	 */
+	private static double measure(VariantGenerator single, BatchMoveGenerator batch, int[][][] batches, int kind)
+	{
+		int size = batches[0][0].length, max = batch.getMaxMoves();
+		int[] moves = new int[single.getBufferSize()], counts = new int[size];
+		int[][] children = new int[4][size * max];
+
+		// Warm up, then measure whole passes over the pool.
+		long positions = 0, elapsed = 0, sum = 0;
+		for (int pass = 0; elapsed < BatchBenchmark.MEASURE_TIME; pass++)
+		{
+			long start = System.nanoTime();
+			for (int b = 0; b < batches.length; b++)
+			{
+				int[] black = batches[b][0], white = batches[b][1], turn = batches[b][2];
+				int n = black.length;
+				if (kind == 0)
+				{
+					for (int i = 0; i < n; i++)
+						sum += single.generate(black[i], white[i],
+								turn[i] == BatchMoveGenerator.WHITE ? Board.Color.WHITE : Board.Color.BLACK, 0, moves);
+				}
+				else if (kind == 1)
+				{
+					batch.countMoves(black, white, turn, n, counts);
+					sum += counts[n - 1];
+				}
+				else
+					sum += batch.expand(black, white, turn, n, children[0], children[1], children[2], children[3]);
+			}
+			if (pass >= 3)
+			{
+				elapsed += System.nanoTime() - start;
+				positions += BatchBenchmark.POOL_SIZE;
+			}
+		}
+		BatchBenchmark.sink += sum;
+		return positions / (elapsed / 1e9);
+	}
+
+	private static long key(int black, int white)
+	{
+		return ((long) black << 32) | (white & 0xffffffffL);
+	}
+
+	private static void fail(String message)
+	{
+		System.err.println("Batch generator differs: " + message);
+		System.exit(1);
+	}
+
+	private static void usage()
+	{
+		System.err.println("Usage: BatchBenchmark [rows cols]");
+		System.exit(2);
+	}
+}
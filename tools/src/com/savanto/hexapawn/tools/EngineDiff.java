@@ -0,0 +1,291 @@
+package com.savanto.hexapawn.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import com.savanto.hexapawn.Board;
+import com.savanto.hexapawn.GameGraph;
+import com.savanto.hexapawn.Move;
+import com.savanto.hexapawn.Variant;
+import com.savanto.hexapawn.VariantGenerator;
+
+/**
+ * @author savanto
+ *
+ * Build step checking the fast engines against the reference engine.
+ *
+ * The reference is the moves tree of Board.generate(), with Board.getMove()
+ * decoding moves, and a Board without children being the end of the game.
+ * The fast engines are the game graph snapshot, and the classic VariantGenerator.
+ * For every reachable position, visited breadth-first, and then along random
+ * games, the engines must agree on:
+ *
+ * - the position itself, ie. the pawns and the side to move,
+ * - whether the game is over,
+ * - the set of positions after each move,
+ * - the Move decoded for each of them.
+ *
+ * The first divergence is reported with its reproducer: the shortest
+ * sequence of moves from the start reaching the diverging position.
+ *
+ * Usage:
+ * EngineDiff [--games N] [--seed N] <snapshot>	exits with status 1 on a divergence.
+ */
+public class EngineDiff
+{
+	/**
+	 * A position of the reference moves tree, reached by the shortest sequence of moves.
+	 */
+	private static class Node
+	{
+		final Board board;
+		final int position;
+		final Node parent;
+		final Move move;
+
+		Node(Board board, int position, Node parent, Move move)
+		{
+			this.board = board;
+			this.position = position;
+			this.parent = parent;
+			this.move = move;
+		}
+	}
+
+	private final GameGraph graph;
+	private final VariantGenerator generator;
+	private final int[] moves;
+
+	/**
+	 * The positions visited, keyed as in the snapshot, to find the shortest way to each.
+	 */
+	private final HashMap<Long, Node> nodes = new HashMap<Long, Node>();
+
+	public static void main(String[] args) throws IOException
+	{
+		int games = 10000, arg = 0;
+		long seed = 1;
+		try
+		{
+			for (; arg + 1 < args.length && args[arg].startsWith("--"); arg += 2)
+			{
+				if (args[arg].equals("--games"))
+					games = Integer.parseInt(args[arg + 1]);
+				else if (args[arg].equals("--seed"))
+					seed = Long.parseLong(args[arg + 1]);
+				else
+					EngineDiff.usage();
+			}
+		}
+		catch (NumberFormatException ex)
+		{
+			EngineDiff.usage();
+		}
+		if (args.length - arg != 1)
+			EngineDiff.usage();
+
+		long start = System.nanoTime();
+		GameGraph graph = GameGraph.open(new File(args[arg]));
+		try
+		{
+			EngineDiff diff = new EngineDiff(graph, Variant.CLASSIC.compile(Board.SIZE, Board.SIZE));
+			Board root = new Board(Board.RANK_3, Board.RANK_1, Board.Color.WHITE);
+			root.generate();
+			int positions = diff.checkAll(root);
+			diff.checkGames(games, seed);
+			System.out.println(String.format("Engines agree on %d positions and %d random games, in %.1f s",
+					positions, games, (System.nanoTime() - start) / 1e9));
+		}
+		finally
+		{
+			graph.close();
+		}
+	}
+
+	// Constructors
+
+	private EngineDiff(GameGraph graph, VariantGenerator generator)
+	{
+		this.graph = graph;
+		this.generator = generator;
+		this.moves = new int[generator.getBufferSize()];
+	}
+
+	// Internal helper functions
+
+	/**
+	 * Compares every position of the reference moves tree, breadth-first,
+	 * so that each is first reached by the shortest sequence of moves.
+	 * @param root - the root of the moves tree.
+	 * @return the number of distinct positions compared.
+	 */
+	private int checkAll(Board root)
+	{
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		queue.add(new Node(root, this.graph.getRoot(), null, null));
+		while (! queue.isEmpty())
+		{
+			Node node = queue.remove();
+			Long key = EngineDiff.key(node.board);
+			if (this.nodes.containsKey(key))
+				continue;
+			this.nodes.put(key, node);
+			this.check(node);
+
+			ArrayList<Board> children = node.board.getChildren();
+			for (int i = 0; i < children.size(); i++)
+			{
+				Board child = children.get(i);
+				queue.add(new Node(child, this.graph.getTarget(this.graph.findEdge(node.position, child.getBlack(), child.getWhite())),
+						node, node.board.getMove(child)));
+			}
+		}
+		return this.nodes.size();
+	}
+
+	/**
+	 * Compares the engines along random games, each engine keeping its own
+	 * state from move to move: the reference its Board, the graph its position id.
+	 * @param games - the number of games.
+	 * @param seed - the seed of the pseudorandom number generator.
+	 */
+	private void checkGames(int games, long seed)
+	{
+		Random rng = new Random(seed);
+		Board root = new Board(Board.RANK_3, Board.RANK_1, Board.Color.WHITE);
+		root.generate();
+		for (int game = 0; game < games; game++)
+		{
+			Board board = root;
+			int position = this.graph.getRoot();
+			while (true)
+			{
+				Node node = this.nodes.get(EngineDiff.key(board));
+				if (node == null)
+					this.fail(null, "Position " + board + " was not reached breadth-first, in game " + game);
+				this.check(new Node(board, position, node.parent, node.move));
+				Board next = board.pickBoard(rng);
+				if (next == null)
+					break;
+				position = this.graph.getTarget(this.graph.findEdge(position, next.getBlack(), next.getWhite()));
+				board = next;
+			}
+		}
+	}
+
+	/**
+	 * Compares the engines on one position.
+	 * @param node - the position, and the shortest way to it.
+	 */
+	private void check(Node node)
+	{
+		Board board = node.board;
+		int black = board.getBlack(), white = board.getWhite();
+		Board.Color turn = board.getTurn();
+		ArrayList<Board> children = board.getChildren();
+
+		// The position itself.
+		if (this.graph.getBlack(node.position) != black || this.graph.getWhite(node.position) != white
+				|| this.graph.getTurn(node.position) != turn)
+			this.fail(node, "graph position " + node.position + " is " + this.graph.toBoard(node.position)
+					+ " " + this.graph.getTurn(node.position));
+
+		// The end of the game.
+		boolean over = board.isVictory();
+		if ((this.graph.getFirstEdge(node.position) == this.graph.getEdgeEnd(node.position)) != over)
+			this.fail(node, "graph says the game is " + (over ? "not over" : "over"));
+		int result = this.generator.getResult(black, white, turn, 0, this.moves);
+		if ((result != VariantGenerator.ONGOING) != over || result == VariantGenerator.DRAW)
+			this.fail(node, "generator says the result is " + result + ", reference says " + (over ? "lost" : "ongoing"));
+
+		// The positions after each move, and the moves decoded.
+		long[] expected = new long[children.size()];
+		for (int i = 0; i < children.size(); i++)
+		{
+			Board child = children.get(i);
+			expected[i] = EngineDiff.key(child.getBlack(), child.getWhite());
+			String move = board.getMove(child).toString();
+			int edge = this.graph.findEdge(node.position, child.getBlack(), child.getWhite());
+			if (edge < 0)
+				this.fail(node, "graph has no move " + move);
+			if (! this.graph.getMove(node.position, edge).toString().equals(move))
+				this.fail(node, "graph decodes " + move + " as " + this.graph.getMove(node.position, edge));
+			Move fast = this.generator.getMove(turn, black, white, child.getBlack(), child.getWhite());
+			if (! fast.toString().equals(move))
+				this.fail(node, "generator decodes " + move + " as " + fast);
+		}
+		Arrays.sort(expected);
+
+		long[] edges = new long[this.graph.getEdgeEnd(node.position) - this.graph.getFirstEdge(node.position)];
+		for (int i = 0; i < edges.length; i++)
+		{
+			int target = this.graph.getTarget(this.graph.getFirstEdge(node.position) + i);
+			edges[i] = EngineDiff.key(this.graph.getBlack(target), this.graph.getWhite(target));
+		}
+		Arrays.sort(edges);
+		if (! Arrays.equals(expected, edges))
+			this.fail(node, "graph moves to " + EngineDiff.describe(edges) + ", reference to " + EngineDiff.describe(expected));
+
+		long[] generated = new long[this.generator.generate(black, white, turn, 0, this.moves)];
+		for (int i = 0; i < generated.length; i++)
+			generated[i] = EngineDiff.key(this.moves[i * VariantGenerator.MOVE_SIZE], this.moves[i * VariantGenerator.MOVE_SIZE + 1]);
+		Arrays.sort(generated);
+		if (! Arrays.equals(expected, generated))
+			this.fail(node, "generator moves to " + EngineDiff.describe(generated) + ", reference to " + EngineDiff.describe(expected));
+	}
+
+	/**
+	 * Reports a divergence, with the moves reproducing it, and stops the build.
+	 * @param node - the diverging position, or null if it cannot be reproduced.
+	 * @param message - description of the divergence.
+	 */
+	private void fail(Node node, String message)
+	{
+		StringBuilder report = new StringBuilder("Engines diverge: ").append(message);
+		if (node != null)
+		{
+			ArrayList<String> moves = new ArrayList<String>();
+			for (Node n = node; n.move != null; n = n.parent)
+				moves.add(0, n.move.toString());
+			report.append("\n  at ").append(node.board).append(' ').append(node.board.getTurn())
+				.append("\n  reproducer: ").append(moves.isEmpty() ? "(start position)" : moves.toString());
+		}
+		System.err.println(report);
+		System.exit(1);
+	}
+
+	/**
+	 * Keys a position by its pawns and the side to move.
+	 */
+	private static Long key(Board board)
+	{
+		return EngineDiff.key(board.getBlack(), board.getWhite()) | (board.getTurn() == Board.Color.WHITE ? 1L << 63 : 0);
+	}
+
+	private static long key(int black, int white)
+	{
+		return ((long) black << 32) | (white & 0xffffffffL);
+	}
+
+	/**
+	 * Describes positions after moves, as in Board.toString().
+	 */
+	private static String describe(long[] keys)
+	{
+		StringBuilder description = new StringBuilder("[");
+		for (int i = 0; i < keys.length; i++)
+			description.append(i == 0 ? "" : ", ").append((int) (keys[i] >>> 32)).append(' ').append((int) keys[i]);
+		return description.append(']').toString();
+	}
+
+	private static void usage()
+	{
+		System.err.println("Usage: EngineDiff [--games N] [--seed N] <snapshot>");
+		System.exit(2);
+	}
+}
@@ -0,0 +1,177 @@
+package com.savanto.hexapawn.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.savanto.hexapawn.Board;
+import com.savanto.hexapawn.Brain;
+import com.savanto.hexapawn.GameGraph;
+import com.savanto.hexapawn.GraphWalk;
+
+/**
+ * @author savanto
+ *
+ * Build step producing the game graph snapshot bundled with the app,
+ * so that the app never has to generate Boards on first launch.
+ *
+ * Usage:
+ * GraphGenerator <snapshot>			writes a freshly generated snapshot.
+ * GraphGenerator --verify <snapshot>	checks the snapshot against a fresh generate(),
+ * 										exiting with status 1 if they differ.
+ *
+ * With -Dhexapawn.metrics=true, the engine metrics are printed, and emitted as JFR events.
+ */
+public class GraphGenerator
+{
+	public static void main(String[] args) throws IOException
+	{
+		boolean verify = args.length == 2 && args[0].equals("--verify");
+		if (args.length != (verify ? 2 : 1))
+		{
+			System.err.println("Usage: GraphGenerator [--verify] <snapshot>");
+			System.exit(2);
+		}
+		File file = new File(args[args.length - 1]);
+		JfrMetricsSink metrics = JfrMetricsSink.install();
+
+		// Generation must be reproducible, or the bundled snapshot
+		// could never be checked against a fresh one.
+		byte[] snapshot = GraphGenerator.generate();
+		if (! Arrays.equals(snapshot, GraphGenerator.generate()))
+			GraphGenerator.fail("Generated game graph is not reproducible");
+
+		if (! verify)
+		{
+			GameGraph.install(new ByteArrayInputStream(snapshot), file);
+			System.out.println("Wrote " + file + ", " + snapshot.length + " bytes");
+			GraphGenerator.report(metrics);
+			return;
+		}
+
+		// Compare byte for byte, then walk the bundled graph alongside a
+		// fresh moves tree, so a mismatch is reported where it occurs.
+		if (! file.exists())
+			GraphGenerator.fail(file + " is missing, regenerate it with 'ant graph'");
+		if (! Arrays.equals(snapshot, GraphGenerator.read(file)))
+			GraphGenerator.fail(file + " differs from a fresh generate(), regenerate it with 'ant graph'");
+		GameGraph graph = GameGraph.open(file);
+		long finals;
+		try
+		{
+			GraphGenerator.check(graph, GraphGenerator.root(), graph.getRoot(), "root");
+			if (new GraphWalk(graph).count() != graph.getPositionCount())
+				GraphGenerator.fail("Some positions of " + file + " cannot be reached from the root");
+			Brain brain = new Brain(Brain.DEFAULT, graph);
+			for (int edge = 0; edge < graph.getEdgeCount(); edge++)
+			{
+				if (! brain.isActive(edge))
+					GraphGenerator.fail("Edge " + edge + " is pruned in " + file);
+			}
+			finals = GraphStreams.positions(new GraphWalk(graph).terminalOnly()).parallel().count();
+		}
+		finally
+		{
+			graph.close();
+		}
+		System.out.println("Verified " + file + ": " + graph.getPositionCount() + " positions, "
+				+ graph.getEdgeCount() + " moves, " + finals + " final positions");
+		GraphGenerator.report(metrics);
+	}
+
+	/**
+	 * Creates the starting Board, with all child moves generated.
+	 * @return the root of the complete moves tree.
+	 */
+	private static Board root()
+	{
+		Board root = new Board(Board.RANK_3, Board.RANK_1, Board.Color.WHITE);
+		root.generate();
+		return root;
+	}
+
+	/**
+	 * Generates the moves tree and serializes its game graph.
+	 * @return the snapshot contents.
+	 * @throws IOException if the snapshot cannot be serialized.
+	 */
+	private static byte[] generate() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GameGraph.build(GraphGenerator.root()).writeTo(out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Recursively checks that a position of the graph has exactly the
+	 * children of the matching Board, in the same order.
+	 * @param graph - the graph being checked.
+	 * @param board - the Board from the fresh moves tree.
+	 * @param position - the id of the matching position.
+	 * @param path - description of the moves leading to the Board, for reporting.
+	 */
+	private static void check(GameGraph graph, Board board, int position, String path)
+	{
+		if (graph.getBlack(position) != board.getBlack() || graph.getWhite(position) != board.getWhite()
+				|| graph.getTurn(position) != board.getTurn())
+			GraphGenerator.fail("Position " + position + " does not match Board " + board + " at " + path);
+
+		ArrayList<Board> children = board.getChildren();
+		int first = graph.getFirstEdge(position);
+		if (graph.getEdgeEnd(position) - first != children.size())
+			GraphGenerator.fail("Position " + position + " has " + (graph.getEdgeEnd(position) - first)
+					+ " moves, Board " + board + " has " + children.size() + " at " + path);
+
+		for (int i = 0; i < children.size(); i++)
+			GraphGenerator.check(graph, children.get(i), graph.getTarget(first + i), path + " > " + children.get(i));
+	}
+
+	/**
+	 * Reads a whole file.
+	 * @param file - the file to read.
+	 * @return the file contents.
+	 * @throws IOException if the file cannot be read.
+	 */
+	private static byte[] read(File file) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = new FileInputStream(file);
+		try
+		{
+			byte[] chunk = new byte[4096];
+			int n;
+			while ((n = in.read(chunk)) >= 0)
+				out.write(chunk, 0, n);
+		}
+		finally
+		{
+			in.close();
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Prints the engine metrics, if enabled.
+	 * @param metrics - the installed sink, or null.
+	 */
+	private static void report(JfrMetricsSink metrics)
+	{
+		if (metrics != null)
+			System.out.print(metrics.getRecorder());
+	}
+
+	/**
+	 * Reports a failure and stops the build.
+	 * @param message - description of the failure.
+	 */
+	private static void fail(String message)
+	{
+		System.err.println(message);
+		System.exit(1);
+	}
+}
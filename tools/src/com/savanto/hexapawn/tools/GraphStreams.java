@@ -0,0 +1,156 @@
+package com.savanto.hexapawn.tools;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import com.savanto.hexapawn.GraphWalk;
+
+/**
+ * @author savanto
+ *
+ * Adapts the walks of the game graph to the streams of the JVM, for
+ * analytics in the tools, eg. counting the final positions on every core:
+ *
+ * GraphStreams.positions(new GraphWalk(graph).terminalOnly()).parallel().count()
+ *
+ * The positions of a walk are distinct and sorted, and split into halves
+ * of the remaining range, so a parallel stream spreads them evenly over
+ * its threads. The walk is listed when the stream starts, not when it is created.
+ */
+public class GraphStreams
+{
+	private GraphStreams()
+	{
+	}
+
+	/**
+	 * Streams the positions of a walk.
+	 * @param walk - the walk.
+	 * @return a sequential stream of the position ids, see BaseStream.parallel().
+	 */
+	public static IntStream positions(GraphWalk walk)
+	{
+		return StreamSupport.intStream(GraphStreams.spliterator(walk), false);
+	}
+
+	/**
+	 * Creates a Spliterator over the positions of a walk.
+	 * @param walk - the walk.
+	 * @return the Spliterator, listing the walk on its first use.
+	 */
+	public static Spliterator.OfInt spliterator(GraphWalk walk)
+	{
+		return new Positions(walk, null, 0, -1);
+	}
+
+	/**
+	 * Splits the ascending position ids of a walk by ranges of indices.
+	 */
+	private static class Positions implements Spliterator.OfInt
+	{
+		private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED
+				| Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+
+		private final GraphWalk walk;
+
+		/**
+		 * The positions of the walk, null until listed, and the range
+		 * [index, end) left to this Spliterator, end being -1 until listed.
+		 */
+		private int[] positions;
+		private int index, end;
+
+		Positions(GraphWalk walk, int[] positions, int index, int end)
+		{
+			this.walk = walk;
+			this.positions = positions;
+			this.index = index;
+			this.end = end;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.Spliterator.OfInt#tryAdvance(java.util.function.IntConsumer)
+		 */
+		@Override
+		public boolean tryAdvance(IntConsumer action)
+		{
+			this.list();
+			if (this.index >= this.end)
+				return false;
+			action.accept(this.positions[this.index++]);
+			return true;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.Spliterator.OfInt#forEachRemaining(java.util.function.IntConsumer)
+		 */
+		@Override
+		public void forEachRemaining(IntConsumer action)
+		{
+			this.list();
+			int[] positions = this.positions;
+			for (int i = this.index, end = this.end; i < end; i++)
+				action.accept(positions[i]);
+			this.index = this.end;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.Spliterator.OfInt#trySplit()
+		 */
+		@Override
+		public Spliterator.OfInt trySplit()
+		{
+			this.list();
+			int middle = (this.index + this.end) >>> 1;
+			if (middle <= this.index)
+				return null;
+			Positions prefix = new Positions(this.walk, this.positions, this.index, middle);
+			this.index = middle;
+			return prefix;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.Spliterator#estimateSize()
+		 */
+		@Override
+		public long estimateSize()
+		{
+			this.list();
+			return this.end - this.index;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.Spliterator#characteristics()
+		 */
+		@Override
+		public int characteristics()
+		{
+			return Positions.CHARACTERISTICS;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.Spliterator#getComparator()
+		 */
+		@Override
+		public Comparator<? super Integer> getComparator()
+		{
+			// Sorted in the natural order of the ids.
+			return null;
+		}
+
+		/**
+		 * Lists the walk, if not yet listed.
+		 */
+		private void list()
+		{
+			if (this.positions == null)
+			{
+				this.positions = this.walk.toArray();
+				this.end = this.positions.length;
+			}
+		}
+	}
+}
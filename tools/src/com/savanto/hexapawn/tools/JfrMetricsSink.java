@@ -0,0 +1,134 @@
+package com.savanto.hexapawn.tools;
+
+import java.lang.management.ManagementFactory;
+
+import com.savanto.hexapawn.Metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * @author savanto
+ *
+ * Metrics sink for the engine running on the JVM, eg. in the build tools.
+ * Every measurement is emitted as a JFR event, to be examined in a
+ * flight recording, and also kept in an in-memory Recorder.
+ *
+ * Enabled for any tool with -Dhexapawn.metrics=true, see install().
+ */
+public class JfrMetricsSink implements Metrics.Sink
+{
+	/**
+	 * System property enabling the metrics in the tools.
+	 */
+	public static final String PROPERTY = "hexapawn.metrics";
+
+	@Name("com.savanto.hexapawn.Operation")
+	@Label("Hexapawn Operation")
+	@Category("Hexapawn")
+	@Description("An instrumented engine or persistence operation")
+	static class OperationEvent extends Event
+	{
+		@Label("Operation")
+		String operation;
+
+		@Label("Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long time;
+
+		@Label("Allocated Bytes")
+		long allocated;
+	}
+
+	@Name("com.savanto.hexapawn.Gauge")
+	@Label("Hexapawn Gauge")
+	@Category("Hexapawn")
+	static class GaugeEvent extends Event
+	{
+		@Label("Gauge")
+		String gauge;
+
+		@Label("Value")
+		long value;
+	}
+
+	private final Metrics.Recorder recorder = new Metrics.Recorder();
+
+	// Accessors
+
+	public Metrics.Recorder getRecorder()
+	{
+		return this.recorder;
+	}
+
+	// Modifiers
+
+	/**
+	 * Installs a JfrMetricsSink if the metrics are enabled by the system property.
+	 * Allocations are counted in bytes, as reported by the JVM.
+	 * @return the installed sink, or null if the metrics are disabled.
+	 */
+	public static JfrMetricsSink install()
+	{
+		if (! Boolean.getBoolean(JfrMetricsSink.PROPERTY))
+			return null;
+
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)
+		{
+			final com.sun.management.ThreadMXBean threads =
+					(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			if (threads.isThreadAllocatedMemorySupported())
+			{
+				threads.setThreadAllocatedMemoryEnabled(true);
+				Metrics.setAllocationCounter(new Metrics.AllocationCounter()
+				{
+					@Override
+					public long count()
+					{
+						return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+					}
+				});
+			}
+		}
+		JfrMetricsSink sink = new JfrMetricsSink();
+		Metrics.setSink(sink);
+		return sink;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.savanto.hexapawn.Metrics.Sink#record(int, long, long)
+	 */
+	@Override
+	public void record(int metric, long nanos, long allocations)
+	{
+		this.recorder.record(metric, nanos, allocations);
+		OperationEvent event = new OperationEvent();
+		if (event.isEnabled())
+		{
+			event.operation = Metrics.getMetricName(metric);
+			event.time = nanos;
+			event.allocated = allocations;
+			event.commit();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.savanto.hexapawn.Metrics.Sink#gauge(int, long)
+	 */
+	@Override
+	public void gauge(int gauge, long value)
+	{
+		this.recorder.gauge(gauge, value);
+		GaugeEvent event = new GaugeEvent();
+		if (event.isEnabled())
+		{
+			event.gauge = Metrics.getGaugeName(gauge);
+			event.value = value;
+			event.commit();
+		}
+	}
+}
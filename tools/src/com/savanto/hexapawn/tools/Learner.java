@@ -0,0 +1,18 @@
+package com.savanto.hexapawn.tools;
+
+/**
+ * @author savanto
+ *
+ * A Player which learns from its games, and whose choice of moves can be
+ * examined, eg. to tell when it has learned to play without ever losing.
+ */
+public interface Learner extends Player
+{
+	/**
+	 * Checks whether the Player may choose a move, as it plays once it stops exploring.
+	 * @param position - the position id, with this Player to move.
+	 * @param edge - the edge id of a move of the position.
+	 * @return true if the move has a chance of being chosen.
+	 */
+	public boolean mayPlay(int position, int edge);
+}
@@ -0,0 +1,83 @@
+package com.savanto.hexapawn.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.savanto.hexapawn.Brain;
+import com.savanto.hexapawn.GameGraph;
+import com.savanto.hexapawn.LearningExchange;
+
+/**
+ * @author savanto
+ *
+ * Combines the learning states exported from several devices into one,
+ * eg. to seed the simulations, or to import back onto every device.
+ * The result avoids every move any of the devices has learned to avoid.
+ *
+ * Usage:
+ * LearningMerge <snapshot> <output> <input>...
+ */
+public class LearningMerge
+{
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 3)
+		{
+			System.err.println("Usage: LearningMerge <snapshot> <output> <input>...");
+			System.exit(2);
+		}
+
+		GameGraph graph = GameGraph.open(new File(args[0]));
+		try
+		{
+			// Start out with every edge active, and take the union of all prunes.
+			Brain merged = new Brain(Brain.DEFAULT, graph);
+			for (int i = 2; i < args.length; i++)
+			{
+				InputStream in = new BufferedInputStream(new FileInputStream(args[i]));
+				try
+				{
+					merged.setLearning(LearningExchange.read(in, graph), true);
+				}
+				catch (IOException ex)
+				{
+					System.err.println(args[i] + ": " + ex.getMessage());
+					System.exit(1);
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]));
+			try
+			{
+				LearningExchange.write(merged, out);
+			}
+			finally
+			{
+				out.close();
+			}
+
+			int pruned = 0;
+			for (int edge = 0; edge < graph.getEdgeCount(); edge++)
+			{
+				if (! merged.isActive(edge))
+					pruned++;
+			}
+			System.out.println("Merged " + (args.length - 2) + " learning states into " + args[1]
+					+ ": " + pruned + " moves pruned, skill " + merged.getSkill() + "%");
+		}
+		finally
+		{
+			graph.close();
+		}
+	}
+}
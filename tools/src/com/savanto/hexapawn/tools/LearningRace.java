@@ -0,0 +1,280 @@
+package com.savanto.hexapawn.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import com.savanto.hexapawn.Board;
+import com.savanto.hexapawn.GameGraph;
+import com.savanto.hexapawn.PersistenceExecutor;
+import com.savanto.hexapawn.QLearner;
+
+/**
+ * @author savanto
+ *
+ * Measures how quickly each learning engine learns to play BLACK, the
+ * computer's side in the app, against a random WHITE opponent.
+ *
+ * Each engine plays from scratch, once for every seed, until it has
+ * converged: from then on, as long as it plays as it has learned, without
+ * exploring, no WHITE moves can beat it. Convergence is checked after every
+ * game, by walking the game graph through the moves the engine may play and
+ * every move of WHITE. The games played, and the time spent playing and
+ * learning them, until convergence are reported for each engine.
+ *
+ * The values of the QLearner are then checked to survive being stored:
+ * it is opened from a scratch directory, learns from ROUND_GAMES games,
+ * is saved through the PersistenceExecutor, and opened again, ROUNDS times
+ * over. Exits with status 1 if the values read differ from those saved.
+ *
+ * Usage:
+ * LearningRace [--games N] [--seeds N] [--players a,b,..] <snapshot>
+ * --games N		games before giving up on a seed, default 100000.
+ * --seeds N		runs of each engine, default 100.
+ * --players a,b,..	engines taking part, default learner,beads,td, see Players.
+ */
+public class LearningRace
+{
+	/**
+	 * The states of a position in the convergence check.
+	 */
+	private static final byte UNKNOWN = 0, SAFE = 1, LOST = 2;
+
+	/**
+	 * The rounds of storing the QLearner, and the games learned from in each.
+	 */
+	private static final int ROUNDS = 3;
+	private static final int ROUND_GAMES = 200;
+
+	public static void main(String[] args) throws IOException
+	{
+		int maxGames = 100000, seeds = 100, arg = 0;
+		String names = "learner,beads,td";
+		try
+		{
+			for (; arg < args.length && args[arg].startsWith("--"); arg += 2)
+			{
+				if (arg + 1 >= args.length)
+					LearningRace.usage();
+				else if (args[arg].equals("--games"))
+					maxGames = Integer.parseInt(args[arg + 1]);
+				else if (args[arg].equals("--seeds"))
+					seeds = Integer.parseInt(args[arg + 1]);
+				else if (args[arg].equals("--players"))
+					names = args[arg + 1];
+				else
+					LearningRace.usage();
+			}
+		}
+		catch (NumberFormatException ex)
+		{
+			LearningRace.usage();
+		}
+		if (args.length - arg != 1 || maxGames < 1 || seeds < 1)
+			LearningRace.usage();
+
+		GameGraph graph = GameGraph.open(new File(args[arg]));
+		try
+		{
+			System.out.println(String.format(Locale.US, "%-10s %10s %10s %10s %10s %12s %10s",
+					"engine", "converged", "median", "mean", "p90", "median ms", "win rate"));
+			String[] list = names.split(",");
+			for (int i = 0; i < list.length; i++)
+			{
+				Player.Factory factory = Players.find(list[i]);
+				if (factory == null || ! (factory.create(graph) instanceof Learner))
+				{
+					System.err.println("Unknown learning engine " + list[i]);
+					System.exit(2);
+				}
+				LearningRace.race(graph, factory, maxGames, seeds);
+			}
+			LearningRace.checkStorage(graph);
+		}
+		finally
+		{
+			graph.close();
+		}
+	}
+
+	/**
+	 * Runs one engine from scratch for every seed, and reports how quickly it converged.
+	 * @param graph - the game graph.
+	 * @param factory - the factory of the engine.
+	 * @param maxGames - the games before giving up on a seed.
+	 * @param seeds - the number of runs.
+	 */
+	private static void race(GameGraph graph, Player.Factory factory, int maxGames, int seeds)
+	{
+		long[] games = new long[seeds], nanos = new long[seeds];
+		int[] edges = new int[graph.getDepth()];
+		byte[] states = new byte[graph.getPositionCount()];
+		long played = 0, won = 0;
+		int converged = 0;
+		for (int seed = 0; seed < seeds; seed++)
+		{
+			Random rng = new Random(seed);
+			Learner learner = (Learner) factory.create(graph);
+			Player opponent = Players.random().create(graph);
+			games[seed] = Long.MAX_VALUE;
+			long elapsed = 0;
+			for (int game = 1; game <= maxGames; game++)
+			{
+				long start = System.nanoTime();
+				int position = graph.getRoot(), length = 0;
+				while (graph.getFirstEdge(position) != graph.getEdgeEnd(position))
+				{
+					int edge = (graph.getTurn(position) == Board.Color.WHITE ? opponent : learner).pickEdge(position, rng);
+					if (edge < 0)
+						break;
+					edges[length++] = edge;
+					position = graph.getTarget(edge);
+				}
+				boolean learnerWon = graph.getTurn(position) == Board.Color.WHITE;
+				learner.learn(edges, length, Board.Color.BLACK, learnerWon);
+				elapsed += System.nanoTime() - start;
+				played++;
+				if (learnerWon)
+					won++;
+
+				Arrays.fill(states, UNKNOWN);
+				if (LearningRace.isSafe(graph, learner, graph.getRoot(), states))
+				{
+					games[seed] = game;
+					nanos[seed] = elapsed;
+					converged++;
+					break;
+				}
+			}
+		}
+
+		Arrays.sort(games);
+		Arrays.sort(nanos);
+		double mean = 0;
+		for (int seed = 0; seed < converged; seed++)
+			mean += games[seed];
+		System.out.println(String.format(Locale.US, "%-10s %5d/%-4d %10s %10s %10s %12s %9.1f%%", factory.getName(),
+				converged, seeds, LearningRace.format(games, converged, 0.5), converged == 0 ? "-"
+						: String.format(Locale.US, "%.1f", mean / converged), LearningRace.format(games, converged, 0.9),
+				converged == 0 ? "-" : String.format(Locale.US, "%.2f", nanos[seeds - converged + (converged - 1) / 2] / 1e6),
+				100.0 * won / played));
+	}
+
+	/**
+	 * Checks that the values of a QLearner are read back as they were saved.
+	 * @param graph - the game graph.
+	 * @throws IOException if the QLearner cannot be stored.
+	 */
+	private static void checkStorage(GameGraph graph) throws IOException
+	{
+		File dir = File.createTempFile("learning-race", "");
+		if (! dir.delete() || ! dir.mkdir())
+			throw new IOException("Unable to create " + dir);
+		PersistenceExecutor persistence = new PersistenceExecutor();
+		try
+		{
+			Random rng = new Random(0);
+			int[] edges = new int[graph.getDepth()];
+			float[] saved = new float[graph.getEdgeCount()];
+			for (int round = 0; round <= ROUNDS; round++)
+			{
+				QLearner learner = QLearner.open(dir, "td", graph);
+				try
+				{
+					for (int edge = 0; edge < saved.length; edge++)
+					{
+						if (Float.floatToIntBits(learner.getValue(edge)) != Float.floatToIntBits(saved[edge]))
+						{
+							System.err.println(String.format(Locale.US, "QLearner edge %d read as %f after round %d, saved as %f",
+									edge, learner.getValue(edge), round, saved[edge]));
+							System.exit(1);
+						}
+					}
+					if (round == ROUNDS)
+						break;
+
+					// Learn from games of self-play, then save.
+					for (int game = 0; game < ROUND_GAMES; game++)
+					{
+						int position = graph.getRoot(), length = 0;
+						for (int edge; (edge = learner.pickEdge(position, Players.TD_EPSILON, rng)) >= 0; )
+						{
+							edges[length++] = edge;
+							position = graph.getTarget(edge);
+						}
+						learner.learn(edges, length);
+					}
+					for (int edge = 0; edge < saved.length; edge++)
+						saved[edge] = learner.getValue(edge);
+					persistence.save(learner).get();
+				}
+				catch (InterruptedException ex)
+				{
+					throw new IOException("Interrupted saving QLearner", ex);
+				}
+				catch (ExecutionException ex)
+				{
+					throw new IOException("Unable to save QLearner", ex.getCause());
+				}
+				finally
+				{
+					learner.close();
+				}
+			}
+			System.out.println(String.format(Locale.US, "QLearner values read back as saved, %d rounds", ROUNDS));
+		}
+		finally
+		{
+			persistence.shutdown();
+			new File(dir, QLearner.getFileName("td")).delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Checks whether BLACK cannot lose from a position, playing the moves the engine may choose.
+	 * @param graph - the game graph.
+	 * @param learner - the engine playing BLACK.
+	 * @param position - the position id.
+	 * @param states - the state of each position checked so far.
+	 * @return true if every game from the position, as the engine plays, is won by BLACK.
+	 */
+	private static boolean isSafe(GameGraph graph, Learner learner, int position, byte[] states)
+	{
+		if (states[position] == UNKNOWN)
+		{
+			int first = graph.getFirstEdge(position), end = graph.getEdgeEnd(position);
+			boolean black = graph.getTurn(position) == Board.Color.BLACK, safe = ! black || first != end, moves = false;
+			for (int edge = first; edge < end && safe; edge++)
+			{
+				if (black && ! learner.mayPlay(position, edge))
+					continue;
+				moves = true;
+				safe = LearningRace.isSafe(graph, learner, graph.getTarget(edge), states);
+			}
+
+			// BLACK resigns when it may play none of its moves.
+			states[position] = safe && (moves || ! black) ? SAFE : LOST;
+		}
+		return states[position] == SAFE;
+	}
+
+	/**
+	 * Formats a quantile of the games to converge, among the sorted results.
+	 * @return the quantile, or "-" if it is beyond the runs which converged.
+	 */
+	private static String format(long[] games, int converged, double quantile)
+	{
+		int index = (int) Math.ceil(quantile * games.length) - 1;
+		return index < converged ? Long.toString(games[index]) : "-";
+	}
+
+	private static void usage()
+	{
+		System.err.println("Usage: LearningRace [--games N] [--seeds N] [--players a,b,..] <snapshot>");
+		System.exit(2);
+	}
+}
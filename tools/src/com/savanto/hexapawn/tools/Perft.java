@@ -0,0 +1,339 @@
+package com.savanto.hexapawn.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.savanto.hexapawn.Board;
+import com.savanto.hexapawn.Variant;
+import com.savanto.hexapawn.VariantGenerator;
+
+/**
+ * @author savanto
+ *
+ * Build step checking the compiled move generators of the rule variants.
+ *
+ * For every variant, on boards of several sizes, the positions reached
+ * after each number of moves (perft), and the games lost and drawn after
+ * each number of moves, are counted twice: by the VariantGenerator of the
+ * variant, and by a slow reference implementation, which plays on a grid
+ * of squares and checks every rule as it goes. The counts must match.
+ * The classic variant on the 3x3 board must also match the moves tree
+ * of Board.generate(), which the app's game graph is built from.
+ *
+ * Usage:
+ * Perft [depth]	checks up to depth moves, default 7, ie. every game of the classic 3x3 board,
+ * 				exiting with status 1 on a mismatch.
+ */
+public class Perft
+{
+	/**
+	 * The board sizes checked, as ranks and files.
+	 */
+	private static final int[][] SIZES = { { 3, 3 }, { 4, 3 }, { 3, 4 }, { 4, 4 }, { 5, 4 } };
+
+	/**
+	 * The counts of a perft, by number of moves.
+	 */
+	private static class Counts
+	{
+		final long[] nodes, losses, draws;
+
+		Counts(int depth)
+		{
+			this.nodes = new long[depth + 1];
+			this.losses = new long[depth + 1];
+			this.draws = new long[depth + 1];
+		}
+
+		boolean matches(Counts other)
+		{
+			return Arrays.equals(this.nodes, other.nodes) && Arrays.equals(this.losses, other.losses)
+					&& Arrays.equals(this.draws, other.draws);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "nodes " + Arrays.toString(this.nodes) + ", losses " + Arrays.toString(this.losses)
+					+ ", draws " + Arrays.toString(this.draws);
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		int depth = 7;
+		if (args.length > 1)
+			Perft.usage();
+		try
+		{
+			if (args.length == 1)
+				depth = Integer.parseInt(args[0]);
+		}
+		catch (NumberFormatException ex)
+		{
+			Perft.usage();
+		}
+
+		long start = System.nanoTime();
+		int checked = 0;
+		boolean failed = false;
+
+		// The classic variant against the moves tree of the app.
+		Counts tree = new Counts(depth);
+		Board root = new Board(Board.RANK_3, Board.RANK_1, Board.Color.WHITE);
+		root.generate();
+		Perft.count(root, 0, tree);
+		Counts classic = Perft.compiled(Variant.CLASSIC.compile(Board.SIZE, Board.SIZE), depth);
+		if (! classic.matches(tree))
+		{
+			System.err.println("classic 3x3 differs from Board.generate():\n  compiled  " + classic + "\n  Board     " + tree);
+			failed = true;
+		}
+
+		for (int i = 0; i < Perft.SIZES.length; i++)
+		{
+			int rows = Perft.SIZES[i][0], cols = Perft.SIZES[i][1];
+			ArrayList<Variant> variants = Perft.variants(rows);
+			for (int v = 0; v < variants.size(); v++, checked++)
+			{
+				Variant variant = variants.get(v);
+				Counts fast = Perft.compiled(variant.compile(rows, cols), depth);
+				Counts slow = new Reference(variant, rows, cols).perft(depth);
+				if (! fast.matches(slow))
+				{
+					System.err.println(variant + " " + rows + "x" + cols + " differs from the reference:\n  compiled  "
+							+ fast + "\n  reference " + slow);
+					failed = true;
+				}
+			}
+		}
+		if (failed)
+			System.exit(1);
+		System.out.println(String.format("Verified %d variants to depth %d in %.1f s", checked, depth,
+				(System.nanoTime() - start) / 1e9));
+	}
+
+	/**
+	 * Lists the variants checked on a board: every combination of the
+	 * rules, winning on the far rank, or on the one before.
+	 * @param rows - the number of ranks of the board.
+	 * @return the variants.
+	 */
+	private static ArrayList<Variant> variants(int rows)
+	{
+		ArrayList<Variant> variants = new ArrayList<Variant>();
+		for (int rules = 0; rules < 8; rules++)
+		{
+			boolean doubleStep = (rules & 1) != 0, enPassant = (rules & 2) != 0, draw = (rules & 4) != 0;
+			if (enPassant && ! doubleStep)
+				continue;
+			variants.add(new Variant(doubleStep, enPassant, draw, 0));
+			if (rows > 3)
+				variants.add(new Variant(doubleStep, enPassant, draw, rows - 1));
+		}
+		return variants;
+	}
+
+	/**
+	 * Counts the moves tree of Board.generate(), where a Board without
+	 * children is a lost game for the side to move.
+	 */
+	private static void count(Board board, int ply, Counts counts)
+	{
+		if (ply >= counts.nodes.length)
+			return;
+		counts.nodes[ply]++;
+		ArrayList<Board> children = board.getChildren();
+		if (children.isEmpty())
+			counts.losses[ply]++;
+		for (int i = 0; i < children.size(); i++)
+			Perft.count(children.get(i), ply + 1, counts);
+	}
+
+	/**
+	 * Counts the moves of a compiled generator, from the start of a game.
+	 */
+	private static Counts compiled(VariantGenerator generator, int depth)
+	{
+		Counts counts = new Counts(depth);
+		int[][] buffers = new int[depth + 1][generator.getBufferSize()];
+		Perft.compiled(generator, generator.getStart(Board.Color.BLACK), generator.getStart(Board.Color.WHITE),
+				Board.Color.WHITE, 0, 0, buffers, counts);
+		return counts;
+	}
+
+	private static void compiled(VariantGenerator generator, int black, int white, Board.Color turn, int ep,
+			int ply, int[][] buffers, Counts counts)
+	{
+		counts.nodes[ply]++;
+		int[] moves = buffers[ply];
+		int result = generator.getResult(black, white, turn, ep, moves);
+		if (result == VariantGenerator.LOSS)
+			counts.losses[ply]++;
+		else if (result == VariantGenerator.DRAW)
+			counts.draws[ply]++;
+		if (result != VariantGenerator.ONGOING || ply == counts.nodes.length - 1)
+			return;
+
+		Board.Color next = turn == Board.Color.WHITE ? Board.Color.BLACK : Board.Color.WHITE;
+		int n = generator.generate(black, white, turn, ep, moves);
+		for (int i = 0; i < n * VariantGenerator.MOVE_SIZE; i += VariantGenerator.MOVE_SIZE)
+			Perft.compiled(generator, moves[i], moves[i + 1], next, moves[i + 2], ply + 1, buffers, counts);
+	}
+
+	private static void usage()
+	{
+		System.err.println("Usage: Perft [depth]");
+		System.exit(2);
+	}
+
+	/**
+	 * The reference implementation: plays on a grid of squares, row 0 being
+	 * BLACK's home rank, and checks each rule for each move, as written.
+	 */
+	private static class Reference
+	{
+		private final Variant variant;
+		private final int rows, cols;
+
+		Reference(Variant variant, int rows, int cols)
+		{
+			this.variant = variant;
+			this.rows = rows;
+			this.cols = cols;
+		}
+
+		Counts perft(int depth)
+		{
+			Board.Color[][] grid = new Board.Color[this.rows][this.cols];
+			for (int col = 0; col < this.cols; col++)
+			{
+				grid[0][col] = Board.Color.BLACK;
+				grid[this.rows - 1][col] = Board.Color.WHITE;
+			}
+			Counts counts = new Counts(depth);
+			this.perft(grid, Board.Color.WHITE, -1, -1, 0, counts);
+			return counts;
+		}
+
+		/**
+		 * @param epRow - the row of the square passed over by a double step on the last move, or -1.
+		 * @param epCol - its column.
+		 */
+		private void perft(Board.Color[][] grid, Board.Color turn, int epRow, int epCol, int ply, Counts counts)
+		{
+			counts.nodes[ply]++;
+
+			// The game is over once a side has no pawns, or a pawn has reached its winning rank.
+			int winRank = this.variant.getWinRank(this.rows);
+			boolean black = false, white = false, won = false;
+			for (int row = 0; row < this.rows; row++)
+			{
+				for (int col = 0; col < this.cols; col++)
+				{
+					if (grid[row][col] == Board.Color.BLACK)
+					{
+						black = true;
+						won |= row + 1 >= winRank;
+					}
+					else if (grid[row][col] == Board.Color.WHITE)
+					{
+						white = true;
+						won |= this.rows - row >= winRank;
+					}
+				}
+			}
+			if (! black || ! white || won)
+			{
+				counts.losses[ply]++;
+				return;
+			}
+
+			ArrayList<Object[]> children = this.moves(grid, turn, epRow, epCol);
+			if (children.isEmpty())
+			{
+				if (this.variant.isBlockadeDraw())
+					counts.draws[ply]++;
+				else
+					counts.losses[ply]++;
+				return;
+			}
+			if (ply == counts.nodes.length - 1)
+				return;
+			Board.Color next = turn == Board.Color.WHITE ? Board.Color.BLACK : Board.Color.WHITE;
+			for (int i = 0; i < children.size(); i++)
+			{
+				Object[] child = children.get(i);
+				this.perft((Board.Color[][]) child[0], next, (Integer) child[1], (Integer) child[2], ply + 1, counts);
+			}
+		}
+
+		/**
+		 * Lists the moves of a position, as the grid after the move,
+		 * and the row and column of the en passant square after the move.
+		 */
+		private ArrayList<Object[]> moves(Board.Color[][] grid, Board.Color turn, int epRow, int epCol)
+		{
+			ArrayList<Object[]> moves = new ArrayList<Object[]>();
+			int forward = turn == Board.Color.WHITE ? -1 : 1;
+			int home = turn == Board.Color.WHITE ? this.rows - 1 : 0;
+			for (int row = 0; row < this.rows; row++)
+			{
+				for (int col = 0; col < this.cols; col++)
+				{
+					if (grid[row][col] != turn)
+						continue;
+					int to = row + forward;
+					if (to < 0 || to >= this.rows)
+						continue;
+
+					// Step forward onto an empty square.
+					if (grid[to][col] == null)
+					{
+						moves.add(this.move(grid, row, col, to, col, -1, -1, -1, -1));
+
+						// Step two squares forward from the home rank, over an empty square.
+						int two = row + 2 * forward;
+						if (this.variant.isDoubleStep() && row == home && two >= 0 && two < this.rows
+								&& grid[two][col] == null)
+						{
+							if (this.variant.isEnPassant())
+								moves.add(this.move(grid, row, col, two, col, -1, -1, to, col));
+							else
+								moves.add(this.move(grid, row, col, two, col, -1, -1, -1, -1));
+						}
+					}
+
+					// Capture diagonally forward, or en passant.
+					for (int side = -1; side <= 1; side += 2)
+					{
+						int c = col + side;
+						if (c < 0 || c >= this.cols)
+							continue;
+						if (grid[to][c] != null && grid[to][c] != turn)
+							moves.add(this.move(grid, row, col, to, c, -1, -1, -1, -1));
+						else if (this.variant.isEnPassant() && to == epRow && c == epCol)
+							moves.add(this.move(grid, row, col, to, c, to - forward, c, -1, -1));
+					}
+				}
+			}
+			return moves;
+		}
+
+		/**
+		 * Makes a move on a copy of the grid.
+		 */
+		private Object[] move(Board.Color[][] grid, int fromRow, int fromCol, int toRow, int toCol,
+				int takenRow, int takenCol, int epRow, int epCol)
+		{
+			Board.Color[][] copy = new Board.Color[this.rows][];
+			for (int row = 0; row < this.rows; row++)
+				copy[row] = grid[row].clone();
+			copy[toRow][toCol] = copy[fromRow][fromCol];
+			copy[fromRow][fromCol] = null;
+			if (takenRow >= 0)
+				copy[takenRow][takenCol] = null;
+			return new Object[] { copy, epRow, epCol };
+		}
+	}
+}
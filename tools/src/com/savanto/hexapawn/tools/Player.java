@@ -0,0 +1,52 @@
+package com.savanto.hexapawn.tools;
+
+import java.util.Random;
+
+import com.savanto.hexapawn.Board;
+import com.savanto.hexapawn.GameGraph;
+
+/**
+ * @author savanto
+ *
+ * An engine playing games on the game graph, eg. in a Tournament.
+ * A Player keeps whatever it learns from one game to the next,
+ * and is only ever used by one thread at a time.
+ */
+public interface Player
+{
+	/**
+	 * Creates Players of one kind, one for each run of games.
+	 */
+	public interface Factory
+	{
+		/**
+		 * Gets the name of the engine, as reported in the results.
+		 * @return the name.
+		 */
+		public String getName();
+
+		/**
+		 * Creates a Player, which has not learned anything yet.
+		 * @param graph - the game graph to play on.
+		 * @return the Player.
+		 */
+		public Player create(GameGraph graph);
+	}
+
+	/**
+	 * Chooses a move.
+	 * @param position - the position id, with this Player to move.
+	 * @param rng - the pseudorandom number generator of the game.
+	 * @return the edge id of the move, or -1 to resign.
+	 */
+	public int pickEdge(int position, Random rng);
+
+	/**
+	 * Learns from a finished game. Called after every game the Player took part in.
+	 * @param edges - the edges followed in the game, from the root position.
+	 * @param length - the number of moves in the game.
+	 * @param color - the color this Player played, WHITE making the first move.
+	 * @param won - true if this Player won.
+	 */
+	public void learn(int[] edges, int length, Board.Color color, boolean won);
+}
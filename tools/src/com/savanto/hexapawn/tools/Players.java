@@ -0,0 +1,304 @@
+package com.savanto.hexapawn.tools;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.savanto.hexapawn.Board;
+import com.savanto.hexapawn.Brain;
+import com.savanto.hexapawn.Difficulty;
+import com.savanto.hexapawn.GameGraph;
+import com.savanto.hexapawn.QLearner;
+import com.savanto.hexapawn.Solver;
+
+/**
+ * @author savanto
+ *
+ * The engines of the app, as Players for the tools:
+ *
+ * random		picks at random among all moves.
+ * learner		the Brain of the app, pruning the last move of every game it loses.
+ * beads		weighs its moves by beads, adding BEADS_WON to every move of
+ * 				a game it wins, and taking one from every move of a game it loses.
+ * td			the QLearner, exploring with probability TD_EPSILON.
+ * search-N		the search of Difficulty level N, over all moves.
+ * perfect		the Solver, always playing the first of the best moves.
+ */
+public class Players
+{
+	/**
+	 * The beads of every move at the start, and added to each move of a won game.
+	 */
+	public static final int BEADS_START = 3;
+	public static final int BEADS_WON = 3;
+
+	/**
+	 * The probability of the td engine choosing any move, rather than one of its best.
+	 */
+	public static final float TD_EPSILON = 0.05f;
+
+	private Players()
+	{
+	}
+
+	/**
+	 * Gets the factories of every engine.
+	 * @return the factories, in the order listed above.
+	 */
+	public static Player.Factory[] all()
+	{
+		Player.Factory[] factories = new Player.Factory[Difficulty.LEVELS.length + 4];
+		factories[0] = Players.random();
+		factories[1] = Players.learner();
+		factories[2] = Players.beads();
+		factories[3] = Players.td();
+		for (int level = 1; level < Difficulty.LEVELS.length; level++)
+			factories[level + 3] = Players.search(level);
+		factories[factories.length - 1] = Players.perfect();
+		return factories;
+	}
+
+	/**
+	 * Finds the factory of an engine by name.
+	 * @param name - the name of the engine.
+	 * @return the factory, or null if there is no such engine.
+	 */
+	public static Player.Factory find(String name)
+	{
+		Player.Factory[] factories = Players.all();
+		for (int i = 0; i < factories.length; i++)
+		{
+			if (factories[i].getName().equals(name))
+				return factories[i];
+		}
+		return null;
+	}
+
+	public static Player.Factory random()
+	{
+		return new Player.Factory()
+		{
+			@Override
+			public String getName()
+			{
+				return "random";
+			}
+
+			@Override
+			public Player create(GameGraph graph)
+			{
+				final Brain brain = new Brain(this.getName(), graph);
+				return new Player()
+				{
+					@Override
+					public int pickEdge(int position, Random rng)
+					{
+						return brain.pickEdge(position, rng);
+					}
+
+					@Override
+					public void learn(int[] edges, int length, Board.Color color, boolean won)
+					{
+					}
+				};
+			}
+		};
+	}
+
+	public static Player.Factory learner()
+	{
+		return new Player.Factory()
+		{
+			@Override
+			public String getName()
+			{
+				return "learner";
+			}
+
+			@Override
+			public Player create(GameGraph graph)
+			{
+				final Brain brain = new Brain(this.getName(), graph);
+				return new Learner()
+				{
+					@Override
+					public int pickEdge(int position, Random rng)
+					{
+						return brain.pickEdge(position, rng);
+					}
+
+					@Override
+					public boolean mayPlay(int position, int edge)
+					{
+						return brain.isActive(edge);
+					}
+
+					@Override
+					public void learn(int[] edges, int length, Board.Color color, boolean won)
+					{
+						// Prune the last move made, as the app does for the computer.
+						int last = length - 1;
+						if ((last % 2 == 0) != (color == Board.Color.WHITE))
+							last--;
+						if (! won && last >= 0)
+							brain.prune(edges[last]);
+					}
+				};
+			}
+		};
+	}
+
+	public static Player.Factory beads()
+	{
+		return new Player.Factory()
+		{
+			@Override
+			public String getName()
+			{
+				return "beads";
+			}
+
+			@Override
+			public Player create(final GameGraph graph)
+			{
+				final int[] beads = new int[graph.getEdgeCount()];
+				Arrays.fill(beads, Players.BEADS_START);
+				return new Learner()
+				{
+					@Override
+					public int pickEdge(int position, Random rng)
+					{
+						// Draw a bead from the position's box, or resign if it is empty.
+						int first = graph.getFirstEdge(position), end = graph.getEdgeEnd(position), total = 0;
+						for (int edge = first; edge < end; edge++)
+							total += beads[edge];
+						if (total == 0)
+							return -1;
+						int pick = rng.nextInt(total), edge = first;
+						while ((pick -= beads[edge]) >= 0)
+							edge++;
+						return edge;
+					}
+
+					@Override
+					public boolean mayPlay(int position, int edge)
+					{
+						return beads[edge] > 0;
+					}
+
+					@Override
+					public void learn(int[] edges, int length, Board.Color color, boolean won)
+					{
+						for (int i = color == Board.Color.WHITE ? 0 : 1; i < length; i += 2)
+						{
+							if (won)
+								beads[edges[i]] += Players.BEADS_WON;
+							else if (beads[edges[i]] > 0)
+								beads[edges[i]]--;
+						}
+					}
+				};
+			}
+		};
+	}
+
+	public static Player.Factory td()
+	{
+		return new Player.Factory()
+		{
+			@Override
+			public String getName()
+			{
+				return "td";
+			}
+
+			@Override
+			public Player create(final GameGraph graph)
+			{
+				final QLearner learner = new QLearner(this.getName(), graph);
+				return new Learner()
+				{
+					@Override
+					public int pickEdge(int position, Random rng)
+					{
+						return learner.pickEdge(position, Players.TD_EPSILON, rng);
+					}
+
+					@Override
+					public boolean mayPlay(int position, int edge)
+					{
+						return learner.getValue(edge) == learner.getBestValue(position);
+					}
+
+					@Override
+					public void learn(int[] edges, int length, Board.Color color, boolean won)
+					{
+						learner.learn(edges, length);
+					}
+				};
+			}
+		};
+	}
+
+	public static Player.Factory search(final int level)
+	{
+		return new Player.Factory()
+		{
+			@Override
+			public String getName()
+			{
+				return "search-" + level;
+			}
+
+			@Override
+			public Player create(GameGraph graph)
+			{
+				final Brain brain = new Brain(this.getName(), graph);
+				final Difficulty difficulty = Difficulty.getLevel(level);
+				return new Player()
+				{
+					@Override
+					public int pickEdge(int position, Random rng)
+					{
+						return difficulty.pickEdge(brain, position, rng);
+					}
+
+					@Override
+					public void learn(int[] edges, int length, Board.Color color, boolean won)
+					{
+					}
+				};
+			}
+		};
+	}
+
+	public static Player.Factory perfect()
+	{
+		return new Player.Factory()
+		{
+			@Override
+			public String getName()
+			{
+				return "perfect";
+			}
+
+			@Override
+			public Player create(GameGraph graph)
+			{
+				final Solver solver = new Solver(graph);
+				return new Player()
+				{
+					@Override
+					public int pickEdge(int position, Random rng)
+					{
+						return solver.getBestEdge(position);
+					}
+
+					@Override
+					public void learn(int[] edges, int length, Board.Color color, boolean won)
+					{
+					}
+				};
+			}
+		};
+	}
+}
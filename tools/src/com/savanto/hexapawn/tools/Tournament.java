@@ -0,0 +1,346 @@
+package com.savanto.hexapawn.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.savanto.hexapawn.Board;
+import com.savanto.hexapawn.GameGraph;
+
+/**
+ * @author savanto
+ *
+ * Plays the engines against each other, round-robin, and rates them.
+ *
+ * Every pair of engines plays the same number of games, in runs of games
+ * spread over a thread per core. Each run starts from freshly created
+ * Players, which learn over the games of the run only, and the engines
+ * alternate colors from one game to the next. The seed of every game is
+ * derived from the tournament seed, the pair and the game number alone,
+ * so the results do not depend on the number of threads or their timing.
+ *
+ * The game loop walks the game graph by position and edge ids, and
+ * allocates nothing, so that millions of games take minutes.
+ *
+ * Each run is appended to the CSV file as soon as it completes, as
+ * engine_a,engine_b,first_game,games,a_wins,b_wins,a_white_wins,b_white_wins
+ * Once all runs are done, Elo ratings with 95% confidence intervals are
+ * fitted to the results (Bradley-Terry, by maximum likelihood), and printed.
+ *
+ * Usage:
+ * Tournament [options] <snapshot> <csv>
+ * --games N		games per pair of engines, default 100000.
+ * --run N			games per run, default 10000.
+ * --seed N			tournament seed, default 1.
+ * --threads N		default the number of cores.
+ * --players a,b,..	engines taking part, default all, see Players.
+ */
+public class Tournament
+{
+	/**
+	 * The rating of an average engine.
+	 */
+	private static final double BASE_RATING = 1500;
+
+	/**
+	 * Elo points per factor of 10 in the odds of winning.
+	 */
+	private static final double ELO_SCALE = 400;
+
+	/**
+	 * Standard normal quantile of a 95% confidence interval.
+	 */
+	private static final double Z_95 = 1.96;
+
+	/**
+	 * The results of one run of games between a pair of engines.
+	 */
+	private static class Run
+	{
+		int a, b;
+		long firstGame;
+		int games;
+		int aWins, bWins;
+		int aWhiteWins, bWhiteWins;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		long gamesPerPair = 100000, seed = 1;
+		int runSize = 10000, threads = Runtime.getRuntime().availableProcessors();
+		Player.Factory[] players = Players.all();
+		int arg = 0;
+		try
+		{
+			for (; arg < args.length && args[arg].startsWith("--"); arg += 2)
+			{
+				if (arg + 1 >= args.length)
+					Tournament.usage();
+				else if (args[arg].equals("--games"))
+					gamesPerPair = Long.parseLong(args[arg + 1]);
+				else if (args[arg].equals("--run"))
+					runSize = Integer.parseInt(args[arg + 1]);
+				else if (args[arg].equals("--seed"))
+					seed = Long.parseLong(args[arg + 1]);
+				else if (args[arg].equals("--threads"))
+					threads = Integer.parseInt(args[arg + 1]);
+				else if (args[arg].equals("--players"))
+					players = Tournament.parsePlayers(args[arg + 1]);
+				else
+					Tournament.usage();
+			}
+		}
+		catch (NumberFormatException ex)
+		{
+			Tournament.usage();
+		}
+		if (args.length - arg != 2 || gamesPerPair < 1 || runSize < 1 || threads < 1 || players.length < 2)
+			Tournament.usage();
+
+		final GameGraph graph = GameGraph.open(new File(args[arg]));
+		Writer csv = new BufferedWriter(new FileWriter(args[arg + 1]));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
+		{
+			csv.write("engine_a,engine_b,first_game,games,a_wins,b_wins,a_white_wins,b_white_wins\n");
+			csv.flush();
+
+			// Queue every run of every pair.
+			CompletionService<Run> completion = new ExecutorCompletionService<Run>(executor);
+			int runs = 0, pair = 0;
+			for (int a = 0; a < players.length; a++)
+			{
+				for (int b = a + 1; b < players.length; b++, pair++)
+				{
+					for (long first = 0; first < gamesPerPair; first += runSize, runs++)
+					{
+						final Player.Factory playerA = players[a], playerB = players[b];
+						final int indexA = a, indexB = b, pairIndex = pair;
+						final long firstGame = first, pairSeed = seed;
+						final int games = (int) Math.min(runSize, gamesPerPair - first);
+						completion.submit(new Callable<Run>()
+						{
+							@Override
+							public Run call()
+							{
+								Run run = Tournament.play(graph, playerA.create(graph), playerB.create(graph),
+										Tournament.mix(pairSeed, pairIndex), firstGame, games);
+								run.a = indexA;
+								run.b = indexB;
+								return run;
+							}
+						});
+					}
+				}
+			}
+
+			// Stream the runs to the CSV file as they complete, and tally them.
+			long start = System.nanoTime(), played = 0;
+			long[][] wins = new long[players.length][players.length];
+			for (int i = 0; i < runs; i++)
+			{
+				Run run = completion.take().get();
+				csv.write(players[run.a].getName() + "," + players[run.b].getName() + "," + run.firstGame
+						+ "," + run.games + "," + run.aWins + "," + run.bWins
+						+ "," + run.aWhiteWins + "," + run.bWhiteWins + "\n");
+				csv.flush();
+				wins[run.a][run.b] += run.aWins;
+				wins[run.b][run.a] += run.bWins;
+				played += run.games;
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format(Locale.US, "Played %d games in %.1f s (%.0f games/s) on %d threads",
+					played, seconds, played / seconds, threads));
+			Tournament.report(players, wins);
+		}
+		catch (ExecutionException ex)
+		{
+			throw new IllegalStateException("Run failed", ex.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+			csv.close();
+			graph.close();
+		}
+	}
+
+	/**
+	 * Plays a run of games between two Players.
+	 * @param graph - the game graph.
+	 * @param a - the Player making the first move of even numbered games.
+	 * @param b - the Player making the first move of odd numbered games.
+	 * @param seed - the seed of the pair.
+	 * @param firstGame - the number of the first game of the run.
+	 * @param games - the number of games.
+	 * @return the results of the run.
+	 */
+	private static Run play(GameGraph graph, Player a, Player b, long seed, long firstGame, int games)
+	{
+		Run run = new Run();
+		run.firstGame = firstGame;
+		run.games = games;
+		Random rng = new Random();
+		int[] edges = new int[graph.getDepth()];
+		for (long game = firstGame; game < firstGame + games; game++)
+		{
+			rng.setSeed(Tournament.mix(seed, game));
+			boolean aWhite = game % 2 == 0;
+			Player white = aWhite ? a : b, black = aWhite ? b : a;
+
+			// Play until the side to move has no moves, or resigns.
+			int position = graph.getRoot(), length = 0;
+			while (graph.getFirstEdge(position) != graph.getEdgeEnd(position))
+			{
+				int edge = (graph.getTurn(position) == Board.Color.WHITE ? white : black).pickEdge(position, rng);
+				if (edge < 0)
+					break;
+				edges[length++] = edge;
+				position = graph.getTarget(edge);
+			}
+
+			// The side left to move has lost.
+			boolean whiteWon = graph.getTurn(position) == Board.Color.BLACK;
+			white.learn(edges, length, Board.Color.WHITE, whiteWon);
+			black.learn(edges, length, Board.Color.BLACK, ! whiteWon);
+			if (whiteWon == aWhite)
+			{
+				run.aWins++;
+				if (aWhite)
+					run.aWhiteWins++;
+			}
+			else
+			{
+				run.bWins++;
+				if (! aWhite)
+					run.bWhiteWins++;
+			}
+		}
+		return run;
+	}
+
+	/**
+	 * Fits Elo ratings to the results, and prints them with their confidence intervals.
+	 * Each pair of engines is credited with a virtual drawn game, ie. half a win each,
+	 * so the ratings stay finite when an engine wins or loses every game.
+	 * @param players - the engines.
+	 * @param wins - wins[i][j]: the games engine i won against engine j.
+	 */
+	private static void report(Player.Factory[] players, long[][] wins)
+	{
+		int n = players.length;
+		double[] gamma = new double[n], total = new double[n];
+		double[][] games = new double[n][n];
+		for (int i = 0; i < n; i++)
+		{
+			gamma[i] = 1;
+			for (int j = 0; j < n; j++)
+			{
+				if (i != j)
+				{
+					games[i][j] = wins[i][j] + wins[j][i] + 1;
+					total[i] += wins[i][j] + 0.5;
+				}
+			}
+		}
+
+		// Minorization-maximization of the Bradley-Terry likelihood,
+		// normalized to a geometric mean of 1, ie. an average rating of BASE_RATING.
+		for (int iteration = 0; iteration < 10000; iteration++)
+		{
+			double change = 0, logSum = 0;
+			double[] next = new double[n];
+			for (int i = 0; i < n; i++)
+			{
+				double sum = 0;
+				for (int j = 0; j < n; j++)
+				{
+					if (i != j)
+						sum += games[i][j] / (gamma[i] + gamma[j]);
+				}
+				next[i] = total[i] / sum;
+				logSum += Math.log(next[i]);
+			}
+			for (int i = 0; i < n; i++)
+			{
+				next[i] /= Math.exp(logSum / n);
+				change = Math.max(change, Math.abs(Math.log(next[i] / gamma[i])));
+			}
+			gamma = next;
+			if (change < 1e-12)
+				break;
+		}
+
+		System.out.println(String.format(Locale.US, "%-12s %8s %8s %12s %8s", "engine", "elo", "95% ci", "games", "score"));
+		for (int i = 0; i < n; i++)
+		{
+			// Standard error from the Fisher information of the engine's own rating.
+			double information = 0, played = 0, won = 0;
+			for (int j = 0; j < n; j++)
+			{
+				if (i == j)
+					continue;
+				double p = gamma[i] / (gamma[i] + gamma[j]);
+				information += games[i][j] * p * (1 - p);
+				played += wins[i][j] + wins[j][i];
+				won += wins[i][j];
+			}
+			double scale = Tournament.ELO_SCALE / Math.log(10);
+			System.out.println(String.format(Locale.US, "%-12s %8.0f %8.0f %12.0f %7.1f%%",
+					players[i].getName(), Tournament.BASE_RATING + scale * Math.log(gamma[i]),
+					Tournament.Z_95 * scale / Math.sqrt(information), played, 100 * won / played));
+		}
+	}
+
+	/**
+	 * Derives a seed from another seed and a number, mixing the bits
+	 * so that consecutive numbers give unrelated seeds (SplitMix64).
+	 * @param seed - the seed.
+	 * @param n - the number.
+	 * @return the derived seed.
+	 */
+	private static long mix(long seed, long n)
+	{
+		long z = seed + (n + 1) * 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Reads a list of engines.
+	 * @param names - the names of the engines, separated by commas.
+	 * @return the factories of the engines.
+	 */
+	private static Player.Factory[] parsePlayers(String names)
+	{
+		String[] list = names.split(",");
+		Player.Factory[] players = new Player.Factory[list.length];
+		for (int i = 0; i < list.length; i++)
+		{
+			players[i] = Players.find(list[i]);
+			if (players[i] == null)
+			{
+				System.err.println("Unknown engine " + list[i]);
+				System.exit(2);
+			}
+		}
+		return players;
+	}
+
+	private static void usage()
+	{
+		System.err.println("Usage: Tournament [--games N] [--run N] [--seed N] [--threads N] [--players a,b,..] <snapshot> <csv>");
+		System.exit(2);
+	}
+}